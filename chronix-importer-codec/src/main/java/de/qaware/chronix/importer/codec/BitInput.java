@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+/**
+ * Reads the values written by a {@link BitOutput}
+ *
+ * @author f.lautenschlager
+ */
+final class BitInput {
+
+    private final byte[] bytes;
+    private int position;
+    //the not yet read bits, at most 7 + 32
+    private long buffer;
+    private int bits;
+
+    /**
+     * @param bytes the written bits
+     */
+    BitInput(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Reads an unsigned value
+     *
+     * @param count the number of bits from 1 to 64
+     * @return the value in the lower bits
+     */
+    long read(int count) {
+        if (count > 32) {
+            long high = read(count - 32);
+            return (high << 32) | read(32);
+        }
+        while (bits < count) {
+            if (position == bytes.length) {
+                throw new IllegalArgumentException("The chunk is truncated after " + bytes.length + " bytes");
+            }
+            buffer = (buffer << 8) | (bytes[position++] & 0xFF);
+            bits += 8;
+        }
+        bits -= count;
+        return (buffer >>> bits) & ((1L << count) - 1);
+    }
+
+    /**
+     * Reads a two's complement value
+     *
+     * @param count the number of bits from 1 to 64
+     * @return the sign extended value
+     */
+    long readSigned(int count) {
+        long value = read(count);
+        return count == 64 ? value : (value << (64 - count)) >> (64 - count);
+    }
+
+    boolean readBit() {
+        return read(1) == 1;
+    }
+}
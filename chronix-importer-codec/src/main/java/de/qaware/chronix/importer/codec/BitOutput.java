@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import java.util.Arrays;
+
+/**
+ * Writes values bit by bit, the most significant bit first.
+ *
+ * @author f.lautenschlager
+ */
+final class BitOutput {
+
+    private byte[] bytes;
+    private int size;
+    //the not yet written bits, at most 7 + 32
+    private long buffer;
+    private int bits;
+
+    /**
+     * @param capacity the initial capacity in bytes
+     */
+    BitOutput(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Writes the lower bits of the value
+     *
+     * @param value the value
+     * @param count the number of bits from 1 to 64
+     */
+    void write(long value, int count) {
+        if (count > 32) {
+            write(value >>> 32, count - 32);
+            write(value, 32);
+            return;
+        }
+        buffer = (buffer << count) | (value & ((1L << count) - 1));
+        bits += count;
+        while (bits >= 8) {
+            bits -= 8;
+            put((byte) (buffer >>> bits));
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    private void put(byte value) {
+        if (size == bytes.length) {
+            bytes = Arrays.copyOf(bytes, size * 2);
+        }
+        bytes[size++] = value;
+    }
+
+    /**
+     * @return the written bits, the last byte is padded with zeros
+     */
+    byte[] toByteArray() {
+        if (bits > 0) {
+            write(0, 8 - bits);
+        }
+        return Arrays.copyOf(bytes, size);
+    }
+}
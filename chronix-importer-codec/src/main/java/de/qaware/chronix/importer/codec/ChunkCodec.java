@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * Encodes the points of a chunk into the data field of a Chronix document and decodes them again.
+ * The codecs are registered by name in {@link ChunkCodecs}. A codec recognizes its own data,
+ * hence the chunks of different codecs can be stored side by side and decoded with {@link ChunkConverter}.
+ *
+ * @author f.lautenschlager
+ */
+public interface ChunkCodec {
+
+    /**
+     * @return the name of the codec, e.g. used in the importer config
+     */
+    String getName();
+
+    /**
+     * Encodes the chunk with its attributes
+     *
+     * @param chunk the points and attributes of the chunk sorted by timestamp
+     * @return the binary time series with the encoded points as data field
+     */
+    BinaryTimeSeries encode(MetricTimeSeries chunk);
+
+    /**
+     * Decodes a chunk encoded by this codec
+     *
+     * @param chunk      the binary time series
+     * @param queryStart the start of the query, points before are skipped. 0 for no lower bound.
+     * @param queryEnd   the end of the query, points after are skipped. 0 for no upper bound.
+     * @return the decoded chunk with its attributes
+     */
+    MetricTimeSeries decode(BinaryTimeSeries chunk, long queryStart, long queryEnd);
+
+    /**
+     * @param data the data field of a chunk
+     * @return true if the data was encoded by this codec
+     */
+    boolean accepts(byte[] data);
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The registered chunk codecs: the {@link ProtocolBuffersCodec} (the default) and the {@link GorillaCodec}.
+ * Further codecs are added with {@link #register(ChunkCodec)}.
+ *
+ * @author f.lautenschlager
+ */
+public final class ChunkCodecs {
+
+    private static final ChunkCodec DEFAULT = new ProtocolBuffersCodec();
+    private static final Map<String, ChunkCodec> BY_NAME = new ConcurrentHashMap<>();
+    private static final List<ChunkCodec> CODECS = new CopyOnWriteArrayList<>();
+
+    static {
+        register(DEFAULT);
+        register(new GorillaCodec());
+    }
+
+    private ChunkCodecs() {
+        //avoid instances
+    }
+
+    /**
+     * Registers a codec, e.g. to decode its chunks with the {@link ChunkConverter}
+     *
+     * @param codec the codec with a unique name
+     */
+    public static void register(ChunkCodec codec) {
+        String name = codec.getName().toLowerCase(Locale.ROOT);
+        if (BY_NAME.putIfAbsent(name, codec) != null) {
+            throw new IllegalArgumentException("A codec named " + name + " is already registered");
+        }
+        CODECS.add(codec);
+    }
+
+    /**
+     * @return the default codec, i.e. the format of Chronix Server
+     */
+    public static ChunkCodec defaultCodec() {
+        return DEFAULT;
+    }
+
+    /**
+     * Parses the name of a codec, e.g. from the importer config
+     *
+     * @param name the name of a registered codec, null or empty for the default
+     * @return the codec
+     */
+    public static ChunkCodec of(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        ChunkCodec codec = BY_NAME.get(name.trim().toLowerCase(Locale.ROOT));
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown chunk codec: " + name + ". Valid values: " + BY_NAME.keySet());
+        }
+        return codec;
+    }
+
+    /**
+     * @return all registered codecs
+     */
+    public static List<ChunkCodec> all() {
+        return new ArrayList<>(CODECS);
+    }
+
+    /**
+     * Determines the codec of the data. Data that no codec accepts is decoded by the default codec.
+     *
+     * @param data the data field of a chunk
+     * @return the codec that encoded the data
+     */
+    public static ChunkCodec forData(byte[] data) {
+        if (data != null) {
+            for (ChunkCodec codec : CODECS) {
+                if (codec.accepts(data)) {
+                    return codec;
+                }
+            }
+        }
+        return DEFAULT;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.TimeSeriesConverter;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * A converter for the Chronix client that decodes the chunks of all registered codecs,
+ * e.g. for the exploration ui and the examples:
+ * <pre>new ChronixClient&lt;&gt;(new ChunkConverter(), new ChronixSolrStorage&lt;&gt;(200, groupBy, reduce))</pre>
+ * The codec of a chunk is determined by its data, see {@link ChunkCodecs#forData(byte[])}.
+ *
+ * @author f.lautenschlager
+ */
+public class ChunkConverter implements TimeSeriesConverter<MetricTimeSeries> {
+
+    private final ChunkCodec codec;
+
+    /**
+     * Creates a converter that encodes the chunks with the default codec
+     */
+    public ChunkConverter() {
+        this(ChunkCodecs.defaultCodec());
+    }
+
+    /**
+     * @param codec the codec that encodes the chunks
+     */
+    public ChunkConverter(ChunkCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public MetricTimeSeries from(BinaryTimeSeries binaryTimeSeriesChunk, long queryStart, long queryEnd) {
+        return ChunkCodecs.forData(binaryTimeSeriesChunk.getPoints()).decode(binaryTimeSeriesChunk, queryStart, queryEnd);
+    }
+
+    @Override
+    public BinaryTimeSeries to(MetricTimeSeries timeSeries) {
+        return codec.encode(timeSeries);
+    }
+}
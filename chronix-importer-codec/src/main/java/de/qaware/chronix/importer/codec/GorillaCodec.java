@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A Gorilla style codec (Pelkonen et al., Gorilla: A Fast, Scalable, In-Memory Time Series Database).
+ * The timestamps are encoded as delta of deltas, i.e. regular intervals take one bit per point.
+ * The values are xor-ed with the previous value, i.e. an unchanged value takes one bit and
+ * a similar value only the meaningful bits of the xor.
+ * <p>
+ * The timestamps are milliseconds, hence the delta of deltas have buckets up to 32 bits and a 64 bits fallback.
+ * The data starts with a magic byte and the format version followed by the number of points.
+ * Chronix Server cannot decode the format, i.e. the server side functions need the {@link ProtocolBuffersCodec}.
+ *
+ * @author f.lautenschlager
+ */
+public final class GorillaCodec implements ChunkCodec {
+
+    public static final String NAME = "gorilla";
+
+    private static final int MAGIC = 0xC7;
+    private static final int VERSION = 1;
+
+    //the fields of the chunk that are not attributes
+    private static final String NAME_FIELD = "name";
+    private static final String TYPE_FIELD = "type";
+    private static final Set<String> RESERVED_FIELDS = new HashSet<>(Arrays.asList(
+            "id", "data", "start", "end", NAME_FIELD, TYPE_FIELD, "_version_"));
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public BinaryTimeSeries encode(MetricTimeSeries chunk) {
+        BinaryTimeSeries.Builder builder = new BinaryTimeSeries.Builder()
+                .field(NAME_FIELD, chunk.getName())
+                .field(TYPE_FIELD, chunk.getType())
+                .start(chunk.getStart())
+                .end(chunk.getEnd())
+                .data(encode(chunk.getTimestampsAsArray(), chunk.getValuesAsArray(), chunk.size()));
+        chunk.attributes().forEach(builder::field);
+        return builder.build();
+    }
+
+    /**
+     * Encodes the points
+     *
+     * @param timestamps the timestamps sorted ascending
+     * @param values     the values
+     * @param size       the number of points
+     * @return the encoded points
+     */
+    static byte[] encode(long[] timestamps, double[] values, int size) {
+        //about two bytes per point for regular and slowly changing series
+        BitOutput out = new BitOutput(16 + 2 * size);
+        out.write(MAGIC, 8);
+        out.write(VERSION, 8);
+        out.write(size, 32);
+        if (size == 0) {
+            return out.toByteArray();
+        }
+
+        long previousTimestamp = timestamps[0];
+        long previousDelta = 0;
+        long previousBits = Double.doubleToRawLongBits(values[0]);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        out.write(previousTimestamp, 64);
+        out.write(previousBits, 64);
+
+        for (int i = 1; i < size; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            writeDeltaOfDelta(out, delta - previousDelta);
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+            previousBits = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                continue;
+            }
+            out.writeBit(true);
+            //the leading zeros are written with 5 bits
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                //the meaningful bits fit into the window of the previous value
+                out.writeBit(false);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.writeBit(true);
+                out.write(leading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDeltaOfDelta(BitOutput out, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            out.write(0b0, 1);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta < 64) {
+            out.write(0b10, 2);
+            out.write(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta < 256) {
+            out.write(0b110, 3);
+            out.write(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta < 2048) {
+            out.write(0b1110, 4);
+            out.write(deltaOfDelta, 12);
+        } else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+            out.write(0b11110, 5);
+            out.write(deltaOfDelta, 32);
+        } else {
+            out.write(0b11111, 5);
+            out.write(deltaOfDelta, 64);
+        }
+    }
+
+    @Override
+    public MetricTimeSeries decode(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+        MetricTimeSeries.Builder builder = new MetricTimeSeries.Builder(
+                String.valueOf(chunk.get(NAME_FIELD)), String.valueOf(chunk.get(TYPE_FIELD)));
+        chunk.getFields().forEach((field, value) -> {
+            if (!RESERVED_FIELDS.contains(field)) {
+                builder.attribute(field, value);
+            }
+        });
+        decode(chunk.getPoints(), queryStart, queryEnd, builder);
+        return builder.build();
+    }
+
+    /**
+     * Decodes the points into the builder
+     *
+     * @param data       the encoded points
+     * @param queryStart points before are skipped, 0 for no lower bound
+     * @param queryEnd   points after are skipped, 0 for no upper bound
+     * @param builder    the builder of the time series
+     */
+    static void decode(byte[] data, long queryStart, long queryEnd, MetricTimeSeries.Builder builder) {
+        if (data == null || !isGorilla(data)) {
+            throw new IllegalArgumentException("The data of the chunk is not encoded with the Gorilla codec");
+        }
+        BitInput in = new BitInput(data);
+        in.read(16);
+        int size = (int) in.read(32);
+        if (size == 0) {
+            return;
+        }
+        long start = queryStart > 0 ? queryStart : Long.MIN_VALUE;
+        long end = queryEnd > 0 ? queryEnd : Long.MAX_VALUE;
+
+        long timestamp = in.read(64);
+        long delta = 0;
+        long bits = in.read(64);
+        int leading = 0;
+        int trailing = 0;
+        addPoint(builder, timestamp, bits, start, end);
+
+        for (int i = 1; i < size; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            addPoint(builder, timestamp, bits, start, end);
+        }
+    }
+
+    private static void addPoint(MetricTimeSeries.Builder builder, long timestamp, long bits, long start, long end) {
+        if (timestamp >= start && timestamp <= end) {
+            builder.point(timestamp, Double.longBitsToDouble(bits));
+        }
+    }
+
+    private static long readDeltaOfDelta(BitInput in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return in.readSigned(7);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(9);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(12);
+        }
+        return in.readBit() ? in.readSigned(64) : in.readSigned(32);
+    }
+
+    private static boolean isGorilla(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xFF) == MAGIC && (data[1] & 0xFF) == VERSION;
+    }
+
+    @Override
+    public boolean accepts(byte[] data) {
+        return isGorilla(data);
+    }
+}
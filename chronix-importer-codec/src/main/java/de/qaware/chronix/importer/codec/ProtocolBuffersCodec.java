@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * The format of the Chronix converter: the points as protocol buffers, compressed with gzip.
+ * Chronix Server decodes this format, i.e. the server side functions need it.
+ *
+ * @author f.lautenschlager
+ */
+public final class ProtocolBuffersCodec implements ChunkCodec {
+
+    public static final String NAME = "protobuf";
+
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    private final MetricTimeSeriesConverter converter = new MetricTimeSeriesConverter();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public BinaryTimeSeries encode(MetricTimeSeries chunk) {
+        return converter.to(chunk);
+    }
+
+    @Override
+    public MetricTimeSeries decode(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+        return converter.from(chunk, queryStart, queryEnd);
+    }
+
+    @Override
+    public boolean accepts(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xFF) == GZIP_MAGIC_FIRST && (data[1] & 0xFF) == GZIP_MAGIC_SECOND;
+    }
+}
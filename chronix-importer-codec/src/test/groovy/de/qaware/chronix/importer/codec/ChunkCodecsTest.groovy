@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec
+
+import de.qaware.chronix.converter.BinaryTimeSeries
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the registry of the chunk codecs
+ * @author f.lautenschlager
+ */
+class ChunkCodecsTest extends Specification {
+
+    /**
+     * A codec whose data starts with the given byte
+     */
+    static class MarkerCodec implements ChunkCodec {
+
+        final String name
+        final byte marker
+
+        MarkerCodec(String name, int marker) {
+            this.name = name
+            this.marker = marker as byte
+        }
+
+        @Override
+        BinaryTimeSeries encode(MetricTimeSeries chunk) {
+            new BinaryTimeSeries.Builder().name(chunk.name).data([marker] as byte[]).build()
+        }
+
+        @Override
+        MetricTimeSeries decode(BinaryTimeSeries chunk, long queryStart, long queryEnd) {
+            new MetricTimeSeries.Builder(chunk.name, "metric").build()
+        }
+
+        @Override
+        boolean accepts(byte[] data) {
+            data.length > 0 && data[0] == marker
+        }
+    }
+
+    def "test the codec names"() {
+        expect:
+        ChunkCodecs.of(null) instanceof ProtocolBuffersCodec
+        ChunkCodecs.of("") instanceof ProtocolBuffersCodec
+        ChunkCodecs.of("protobuf") instanceof ProtocolBuffersCodec
+        ChunkCodecs.of(" Gorilla ") instanceof GorillaCodec
+        ChunkCodecs.defaultCodec() instanceof ProtocolBuffersCodec
+
+        when:
+        ChunkCodecs.of("lz4")
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test the codec of the data"() {
+        given:
+        def chunk = new MetricTimeSeries.Builder("cpu.load", "metric").point(1000L, 1.5d).build()
+
+        expect:
+        ChunkCodecs.forData(ChunkCodecs.of("gorilla").encode(chunk).points) instanceof GorillaCodec
+        ChunkCodecs.forData(ChunkCodecs.of("protobuf").encode(chunk).points) instanceof ProtocolBuffersCodec
+        //data of no codec is decoded by the default codec
+        ChunkCodecs.forData(null) instanceof ProtocolBuffersCodec
+        ChunkCodecs.forData(new byte[0]) instanceof ProtocolBuffersCodec
+        ChunkCodecs.forData([1, 2, 3] as byte[]) instanceof ProtocolBuffersCodec
+    }
+
+    def "test a registered codec is found by name and data"() {
+        given:
+        def codec = new MarkerCodec("Marker", 0x7E)
+
+        when:
+        ChunkCodecs.register(codec)
+
+        then:
+        ChunkCodecs.of("marker").is(codec)
+        ChunkCodecs.forData([0x7E, 1] as byte[]).is(codec)
+        ChunkCodecs.all()*.name.containsAll(["protobuf", "gorilla", "Marker"])
+
+        when:
+        ChunkCodecs.register(new MarkerCodec("MARKER", 0x7D))
+
+        then:
+        thrown IllegalArgumentException
+        !ChunkCodecs.all().any { it.name == "MARKER" }
+    }
+
+    def "test the list of the codecs is a copy"() {
+        when:
+        ChunkCodecs.all().clear()
+
+        then:
+        ChunkCodecs.all()*.name.containsAll(["protobuf", "gorilla"])
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the converter of the chunks
+ * @author f.lautenschlager
+ */
+class ChunkConverterTest extends Specification {
+
+    def chunk() {
+        new MetricTimeSeries.Builder("cpu.load", "metric")
+                .attribute("host", "jenkins")
+                .point(1000L, 1.5d)
+                .point(2000L, 2.5d)
+                .point(3000L, 3.5d)
+                .build()
+    }
+
+    def "test the converter decodes the chunks of both codecs"() {
+        given:
+        def original = chunk()
+        def gorilla = new ChunkConverter(ChunkCodecs.of("gorilla")).to(original)
+        def protobuf = new ChunkConverter().to(original)
+
+        when:
+        def converter = new ChunkConverter()
+
+        then:
+        ChunkCodecs.forData(gorilla.points) instanceof GorillaCodec
+        ChunkCodecs.forData(protobuf.points) instanceof ProtocolBuffersCodec
+        converter.from(gorilla, 0, 0).timestampsAsArray == [1000L, 2000L, 3000L] as long[]
+        converter.from(protobuf, 0, 0).valuesAsArray == [1.5d, 2.5d, 3.5d] as double[]
+    }
+
+    @Unroll
+    def "test the #codec chunks keep the points and the attributes"() {
+        given:
+        def encoded = new ChunkConverter(ChunkCodecs.of(codec)).to(chunk())
+
+        when:
+        //any converter decodes the chunk
+        def decoded = new ChunkConverter(ChunkCodecs.of(other)).from(encoded, 0, 0)
+
+        then:
+        decoded.name == "cpu.load"
+        decoded.type == "metric"
+        decoded.attribute("host") == "jenkins"
+        decoded.timestampsAsArray == [1000L, 2000L, 3000L] as long[]
+        decoded.valuesAsArray == [1.5d, 2.5d, 3.5d] as double[]
+
+        where:
+        codec      | other
+        "protobuf" | "gorilla"
+        "gorilla"  | "protobuf"
+    }
+}
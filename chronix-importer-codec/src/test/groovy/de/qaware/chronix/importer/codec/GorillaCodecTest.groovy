@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.codec
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the Gorilla codec
+ * @author f.lautenschlager
+ */
+class GorillaCodecTest extends Specification {
+
+    def chunk(List<Long> timestamps, List<Double> values) {
+        def builder = new MetricTimeSeries.Builder("cpu.load", "metric").attribute("host", "jenkins")
+        timestamps.eachWithIndex { long timestamp, int i -> builder.point(timestamp, values[i]) }
+        builder.build()
+    }
+
+    def "test the points are decoded lossless"() {
+        given:
+        def codec = new GorillaCodec()
+        def original = chunk(timestamps, values)
+
+        when:
+        def decoded = codec.decode(codec.encode(original), 0, 0)
+
+        then:
+        decoded.timestampsAsArray == original.timestampsAsArray
+        Arrays.equals(decoded.valuesAsArray, original.valuesAsArray)
+        decoded.name == "cpu.load"
+        decoded.type == "metric"
+        decoded.attribute("host") == "jenkins"
+
+        where:
+        timestamps                                           | values
+        []                                                   | []
+        [1000L]                                              | [4711d]
+        (0..<1000).collect { 1456444800000L + it * 60000L }  | (0..<1000).collect { 42d }
+        (0..<1000).collect { 1456444800000L + it * 15000L + (it % 7) * 3 } | (0..<1000).collect { Math.sin(it) * 100 }
+        [-5000L, -10L, 0L, 3L, Long.MAX_VALUE]               | [Double.NaN, -0d, Double.POSITIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE]
+        [1L, Integer.MAX_VALUE * 4L, Integer.MAX_VALUE * 5L] | [1d, 1.5d, 1.25d]
+    }
+
+    def "test regular series take few bits per point"() {
+        given:
+        def codec = new GorillaCodec()
+        def timestamps = (0..<10000).collect { 1456444800000L + it * 60000L }
+
+        when:
+        def data = codec.encode(chunk(timestamps, timestamps.collect { 42d })).points
+
+        then:
+        //header, first point and first delta, then one bit for the timestamp and one for the value
+        data.length <= 2 + 4 + 16 + 5 + 10000 * 2 / 8
+    }
+
+    def "test the query range"() {
+        given:
+        def codec = new GorillaCodec()
+        def encoded = codec.encode(chunk((1L..10L).toList(), (1..10).collect { it as double }))
+
+        when:
+        def decoded = codec.decode(encoded, 3, 5)
+
+        then:
+        decoded.timestampsAsArray == [3L, 4L, 5L] as long[]
+    }
+}
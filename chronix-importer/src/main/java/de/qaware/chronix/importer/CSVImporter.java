@@ -15,16 +15,20 @@
  */
 package de.qaware.chronix.importer;
 
+import de.qaware.chronix.importer.codec.ChunkCodecs;
 import de.qaware.chronix.importer.configuration.Configuration;
 import de.qaware.chronix.importer.csv.Attributes;
 import de.qaware.chronix.importer.csv.ChronixImporter;
 import de.qaware.chronix.importer.csv.FileImporter;
 import de.qaware.chronix.importer.csv.Pair;
+import org.opentsdb.client.ContentEncoding;
+import org.opentsdb.client.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -70,13 +74,21 @@ public class CSVImporter {
         String dateFormat = (String) config.get("dateFormat");
         String numberFormat = (String) config.get("numberFormat");
         String csvDelimiter = (String) config.get("csvDelimiter");
-        String url = (String) config.get("chronix");
-        String[] attributeFields = ((List<String>) config.get("attributeFields")).toArray(new String[0]);
         boolean cleanImport = (boolean) config.get("cleanImport");
+        //optional: passes the points chunk by chunk to chronix while the files are read
+        boolean streamingImport = Boolean.TRUE.equals(config.get("streamingImport"));
+        //optional: the number of threads that import the files, 0 for one thread per processor
+        int importThreads = config.get("importThreads") == null ? 0 : (int) config.get("importThreads");
+        //optional: merges the points of a time series from all files before they are chunked
+        boolean mergeSeries = Boolean.TRUE.equals(config.get("mergeSeries"));
 
         Map<Attributes, Pair<Instant, Instant>> importStatistics = new HashMap<>();
-        ChronixImporter chronixImporter = new ChronixImporter(url, attributeFields);
-        FileImporter importer = new FileImporter(dateFormat, numberFormat, csvDelimiter);
+        ChronixImporter chronixImporter = chronixImporter(config, new File(ymlPath));
+        int streamingPoints = streamingImport ? chronixImporter.pointsPerChunk() : 0;
+        FileImporter importer = new FileImporter(dateFormat, numberFormat, csvDelimiter, streamingPoints, importThreads);
+        if (mergeSeries) {
+            importer.setMergeSeries(((List<String>) config.get("attributeFields")).size());
+        }
         Pair<Integer, Integer> result;
 
         LOGGER.info("Start importing files to the Chronix.");
@@ -93,4 +105,66 @@ public class CSVImporter {
 
         LOGGER.info("Import done (Took: {} sec). Imported {} time series with {} points", (end - start) / 1000, result.getFirst(), result.getSecond());
     }
+
+    /**
+     * Creates the Chronix importer from the connection, the attribute fields and the optional settings of the configuration
+     *
+     * @param config     the loaded configuration
+     * @param configFile the configuration file, relative paths of the configuration are resolved against its directory
+     * @return the Chronix importer
+     */
+    static ChronixImporter chronixImporter(Map<String, Object> config, File configFile) {
+        String url = (String) config.get("chronix");
+        String[] attributeFields = ((List<String>) config.get("attributeFields")).toArray(new String[0]);
+        //optional: the number of threads that encode and send the chunks, 0 for the defaults
+        int encodeThreads = config.get("encodeThreads") == null ? 0 : (int) config.get("encodeThreads");
+        int sendThreads = config.get("sendThreads") == null ? 0 : (int) config.get("sendThreads");
+        //optional: compresses the requests to chronix
+        ContentEncoding requestCompression = ContentEncoding.of((String) config.get("requestCompression"));
+        int compressionLevel = config.get("compressionLevel") == null ? 0 : (int) config.get("compressionLevel");
+
+        ChronixImporter chronixImporter = new ChronixImporter(url, attributeFields, encodeThreads, sendThreads, requestCompression, compressionLevel);
+
+        //optional: the retries of failed requests and the directory for the requests that still failed
+        RetryPolicy defaults = RetryPolicy.defaults();
+        int retries = config.get("retries") == null ? defaults.getRetries() : (int) config.get("retries");
+        long retryBackoff = config.get("retryBackoff") == null ? defaults.getBackoff() : ((Number) config.get("retryBackoff")).longValue();
+        long maxRetryBackoff = config.get("maxRetryBackoff") == null ? defaults.getMaxBackoff() : ((Number) config.get("maxRetryBackoff")).longValue();
+        chronixImporter.setRetryPolicy(new RetryPolicy(retries, retryBackoff, maxRetryBackoff));
+        //optional: the number of asynchronous OpenTSDB requests in flight, 0 for blocking requests
+        chronixImporter.setAsyncRequests(config.get("asyncRequests") == null ? 0 : (int) config.get("asyncRequests"));
+        //optional: sends the OpenTSDB data points to the telnet style interface at host:port
+        chronixImporter.setOpenTSDBTelnet((String) config.get("openTSDBTelnet"));
+        //optional: the target size of the encoded chunks in bytes, 0 for the default
+        chronixImporter.setChunkSize(config.get("chunkSize") == null ? 0 : (int) config.get("chunkSize"));
+        //optional: cuts the chunks at calendar boundaries (none, hour, day, week) in the given or the system time zone
+        String chunkTimeZone = (String) config.get("chunkTimeZone");
+        chronixImporter.setChunkBoundary((String) config.get("chunkBoundary"),
+                chunkTimeZone == null || chunkTimeZone.trim().isEmpty() ? null : ZoneId.of(chunkTimeZone.trim()));
+        //optional: the codec of the chunks, e.g. protobuf (default) or gorilla
+        chronixImporter.setChunkCodec(ChunkCodecs.of((String) config.get("chunkCodec")));
+        //optional: streams the solr documents with the given number of threads, 0 sends a request per time series
+        chronixImporter.setBulkUpdates(config.get("bulkUpdateThreads") == null ? 0 : (int) config.get("bulkUpdateThreads"),
+                config.get("bulkUpdateQueueSize") == null ? 0 : (int) config.get("bulkUpdateQueueSize"));
+        //optional: adapts the concurrent requests to the latency and the errors of chronix
+        chronixImporter.setAdaptiveConcurrency(Boolean.TRUE.equals(config.get("adaptiveConcurrency")));
+        //optional: the directory for the requests that still failed, relative to the directory of the configuration
+        String spoolDirectory = (String) config.get("spoolDirectory");
+        if (spoolDirectory != null && !spoolDirectory.trim().isEmpty()) {
+            chronixImporter.setSpoolDirectory(spoolDirectory(configFile, spoolDirectory.trim()));
+        }
+        return chronixImporter;
+    }
+
+    /**
+     * Resolves a relative spool directory against the directory of the configuration file,
+     * i.e. the spool does not depend on the working directory of the import
+     */
+    static File spoolDirectory(File configFile, String spoolDirectory) {
+        File directory = new File(spoolDirectory);
+        if (directory.isAbsolute()) {
+            return directory;
+        }
+        return new File(configFile.getAbsoluteFile().getParentFile(), spoolDirectory);
+    }
 }
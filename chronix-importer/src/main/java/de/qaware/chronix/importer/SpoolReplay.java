@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer;
+
+import de.qaware.chronix.importer.configuration.Configuration;
+import de.qaware.chronix.importer.csv.ChronixImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Main class to replay the spooled batches, i.e. the batches that could not be sent to Chronix during an import.
+ *
+ * @author f.lautenschlager
+ */
+public class SpoolReplay {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolReplay.class);
+
+    /**
+     * Sends the batches of the spool directory of the given configuration to Chronix and commits them.
+     * The importer expects one argument: the path to yml config.
+     *
+     * @param args contains the path to the yml config
+     */
+    public static void main(String[] args) {
+
+        if (args.length != 1) {
+            LOGGER.info("The given arguments does not contain the required argument 'ymlConfig'");
+            return;
+        }
+        Map<String, Object> config = Configuration.load(args[0]);
+
+        ChronixImporter chronixImporter = CSVImporter.chronixImporter(config, new File(args[0]));
+        long start = System.currentTimeMillis();
+        int remaining = chronixImporter.replaySpool();
+        chronixImporter.commit();
+        long end = System.currentTimeMillis();
+
+        LOGGER.info("Replay done (Took: {} sec). {} batches remain in the spool", (end - start) / 1000, remaining);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cuts the points of a time series into chunks of about the target encoded size.
+ * The compression of the encoded chunks depends on the time series, e.g. a flat counter compresses far better
+ * than a noisy gauge. Hence a chunk is encoded, its size is measured and the chunk is encoded again with
+ * the number of points that fits the target, if it misses the target by more than the tolerance.
+ * The measured bytes per point are the estimate for the next chunk of the time series.
+ * <p>
+ * A time series that is passed in parts, e.g. by the streaming import, keeps its {@link Estimate} from one part
+ * to the next. The points at the end of a part that do not fill a chunk are not chunked, but passed again with
+ * the next part.
+ * <p>
+ * The chunker is thread safe and records the size distribution of all chunks, see {@link #report()}.
+ *
+ * @author f.lautenschlager
+ */
+final class AdaptiveChunker {
+
+    //the chunks may differ by this fraction from the target without being encoded again
+    private static final double TOLERANCE = 0.2;
+    //the maximal number of additional encodings of a chunk
+    private static final int MAX_CORRECTIONS = 2;
+
+    /**
+     * Encodes the points of a time series within a range
+     *
+     * @param <T> the encoded chunk
+     */
+    @FunctionalInterface
+    interface Encoder<T> {
+        /**
+         * @param start the index of the first point
+         * @param end   the index after the last point
+         * @return the encoded chunk
+         */
+        T encode(int start, int end);
+    }
+
+    private final int targetBytes;
+    private final int initialPoints;
+
+    //the encoded sizes and the points of the chunks
+    private int[] chunkBytes = new int[1024];
+    private int[] chunkPoints = new int[1024];
+    private int chunks;
+    private long encodings;
+
+    /**
+     * @param targetBytes   the target encoded size of a chunk
+     * @param initialPoints the number of points of the first chunk of a time series
+     */
+    AdaptiveChunker(int targetBytes, int initialPoints) {
+        if (targetBytes <= 0 || initialPoints <= 0) {
+            throw new IllegalArgumentException("The target size and the initial points must be positive. Got: "
+                    + targetBytes + ", " + initialPoints);
+        }
+        this.targetBytes = targetBytes;
+        this.initialPoints = initialPoints;
+    }
+
+    /**
+     * @return the target encoded size of a chunk
+     */
+    int getTargetBytes() {
+        return targetBytes;
+    }
+
+    /**
+     * @return the estimate of the first chunk of a time series
+     */
+    Estimate estimate() {
+        return new Estimate(initialPoints);
+    }
+
+    /**
+     * Cuts the points of a time series into chunks
+     *
+     * @param size    the number of points of the time series
+     * @param encoder encodes the points of a chunk
+     * @param sizeOf  the encoded size of a chunk in bytes
+     * @param <T>     the encoded chunk
+     * @return the encoded chunks
+     */
+    <T> List<T> chunk(int size, Encoder<T> encoder, ToIntFunction<T> sizeOf) {
+        return chunk(size == 0 ? new int[0] : new int[]{size}, encoder, sizeOf);
+    }
+
+    /**
+     * Cuts the points of a time series into chunks that do not span the partitions, e.g. the days.
+     * The estimated points per chunk are kept from one partition to the next.
+     *
+     * @param partitions the index after the last point of each partition, ascending
+     * @param encoder    encodes the points of a chunk
+     * @param sizeOf     the encoded size of a chunk in bytes
+     * @param <T>        the encoded chunk
+     * @return the encoded chunks
+     */
+    <T> List<T> chunk(int[] partitions, Encoder<T> encoder, ToIntFunction<T> sizeOf) {
+        List<T> encodedChunks = new ArrayList<>();
+        chunk(partitions, true, estimate(), encoder, sizeOf, encodedChunks);
+        return encodedChunks;
+    }
+
+    /**
+     * Cuts the points of a part of a time series into chunks that do not span the partitions.
+     * If more points follow, the points at the end of the last partition that do not fill a chunk are left over.
+     *
+     * @param partitions    the index after the last point of each partition, ascending
+     * @param complete      true if no more points of the time series follow
+     * @param estimate      the estimate of the time series, it is updated with the measured chunks
+     * @param encoder       encodes the points of a chunk
+     * @param sizeOf        the encoded size of a chunk in bytes
+     * @param encodedChunks receives the encoded chunks
+     * @param <T>           the encoded chunk
+     * @return the number of chunked points, i.e. the index of the first left over point
+     */
+    <T> int chunk(int[] partitions, boolean complete, Estimate estimate, Encoder<T> encoder, ToIntFunction<T> sizeOf,
+                  List<T> encodedChunks) {
+        int start = 0;
+        for (int partition = 0; partition < partitions.length; partition++) {
+            int partitionEnd = partitions[partition];
+            //the last partition goes on with the next part
+            boolean open = !complete && partition == partitions.length - 1;
+            while (start < partitionEnd) {
+                int remaining = partitionEnd - start;
+                if (open && remaining < estimate.points) {
+                    return start;
+                }
+                int points = Math.min(estimate.points, remaining);
+                T encoded;
+                int bytes;
+                int attempts = 0;
+                while (true) {
+                    encoded = encoder.encode(start, start + points);
+                    bytes = sizeOf.applyAsInt(encoded);
+                    attempts++;
+                    estimate.points = fittingPoints(bytes, points);
+                    if (open && bytes < targetBytes * (1 - TOLERANCE) && estimate.points > remaining) {
+                        //the chunk is filled with the points of the next part
+                        return start;
+                    }
+                    if (attempts > MAX_CORRECTIONS || !missesTarget(bytes, points, remaining, estimate.points)) {
+                        break;
+                    }
+                    points = Math.min(estimate.points, remaining);
+                }
+                encodedChunks.add(encoded);
+                record(bytes, points, attempts);
+                start += points;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return the number of points that fit into the target at the measured bytes per point
+     */
+    private int fittingPoints(int bytes, int points) {
+        if (bytes <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) points * targetBytes / bytes));
+    }
+
+    /**
+     * A chunk is too large if it has more than one point, too small only if more points are left
+     */
+    private boolean missesTarget(int bytes, int points, int remaining, int fittingPoints) {
+        if (bytes > targetBytes * (1 + TOLERANCE)) {
+            return points > 1;
+        }
+        return bytes < targetBytes * (1 - TOLERANCE) && points < remaining && fittingPoints > points;
+    }
+
+    private synchronized void record(int bytes, int points, int attempts) {
+        if (chunks == chunkBytes.length) {
+            chunkBytes = Arrays.copyOf(chunkBytes, chunks * 2);
+            chunkPoints = Arrays.copyOf(chunkPoints, chunks * 2);
+        }
+        chunkBytes[chunks] = bytes;
+        chunkPoints[chunks] = points;
+        chunks++;
+        encodings += attempts;
+    }
+
+    /**
+     * @return the number of chunks
+     */
+    synchronized int chunks() {
+        return chunks;
+    }
+
+    /**
+     * The distribution of the chunk sizes. The last chunk of a time series (or a partition) is usually smaller
+     * than the target.
+     *
+     * @return a summary of the encoded sizes and the points of the chunks
+     */
+    synchronized String report() {
+        if (chunks == 0) {
+            return "No chunks";
+        }
+        int[] bytes = Arrays.copyOf(chunkBytes, chunks);
+        int[] points = Arrays.copyOf(chunkPoints, chunks);
+        Arrays.sort(bytes);
+        Arrays.sort(points);
+        int withinTolerance = 0;
+        for (int size : bytes) {
+            if (Math.abs(size - targetBytes) <= targetBytes * TOLERANCE) {
+                withinTolerance++;
+            }
+        }
+        return String.format("%d chunks (%.2f encodings per chunk), %d %% within %d %% of the target %d bytes. "
+                        + "Bytes p10 %d, p50 %d, p90 %d, p99 %d, max %d. Points p10 %d, p50 %d, p90 %d, p99 %d, max %d",
+                chunks, (double) encodings / chunks, 100 * withinTolerance / chunks, (int) (100 * TOLERANCE), targetBytes,
+                percentile(bytes, 10), percentile(bytes, 50), percentile(bytes, 90), percentile(bytes, 99), bytes[chunks - 1],
+                percentile(points, 10), percentile(points, 50), percentile(points, 90), percentile(points, 99), points[chunks - 1]);
+    }
+
+    private static int percentile(int[] sorted, int percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) sorted.length * percentile / 100)];
+    }
+
+    /**
+     * The estimated points of the next chunk of a time series
+     */
+    static final class Estimate {
+        private int points;
+
+        private Estimate(int points) {
+            this.points = points;
+        }
+
+        /**
+         * @return the estimated points of the next chunk
+         */
+        int points() {
+            return points;
+        }
+    }
+}
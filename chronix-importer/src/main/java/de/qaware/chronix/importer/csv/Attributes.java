@@ -19,6 +19,8 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.util.Arrays;
+
 /**
  * The attributes representation
  *
@@ -64,6 +66,19 @@ public class Attributes {
         return attributes.length;
     }
 
+    /**
+     * The attributes that identify a time series, e.g. without the date part of the file name
+     *
+     * @param size the number of attributes that are kept
+     * @return the metric and the first attributes
+     */
+    Attributes series(int size) {
+        if (size >= attributes.length) {
+            return this;
+        }
+        return new Attributes(metric, Arrays.copyOf(attributes, size));
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -16,28 +16,61 @@
 package de.qaware.chronix.importer.csv;
 
 
-import de.qaware.chronix.ChronixClient;
-import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.converter.BinaryTimeSeries;
 import de.qaware.chronix.converter.serializer.gen.MetricProtocolBuffers;
-import de.qaware.chronix.solr.client.ChronixSolrStorage;
+import de.qaware.chronix.importer.codec.ChunkCodec;
+import de.qaware.chronix.importer.codec.ChunkCodecs;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
-import de.qaware.chronix.timeseries.dts.Point;
-import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HTTP;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrClient;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.opentsdb.client.AsyncHttpClientImpl;
+import org.opentsdb.client.Client;
+import org.opentsdb.client.ContentEncoding;
 import org.opentsdb.client.ExpectResponse;
 import org.opentsdb.client.HttpClientImpl;
-import org.opentsdb.client.builder.Metric;
-import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.PoolingHttpClient;
+import org.opentsdb.client.RetryPolicy;
+import org.opentsdb.client.TelnetClientImpl;
+import org.opentsdb.client.builder.MetricSeries;
+import org.opentsdb.client.response.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
 /**
  * @author f.lautenschlager
@@ -55,13 +88,72 @@ public class ChronixImporter {
             .setV(4711).build()
             .getSerializedSize();
     private static final int SER_SIZE = LIST_SERIALIZED_SIZE + POINT_SERIALIZED_SIZE;
+    //the default target size of an encoded chunk in bytes
+    private static final int CHUNK_SIZE = 128 * 1024;
+    //the number of series or chunk batches that are queued per pipeline stage
+    private static final int STAGE_CAPACITY = 16;
+    private static final int DEFAULT_SEND_THREADS = 4;
+    //the maximal number of data points of an OpenTSDB push
+    private static final int OPENTSDB_BATCH_SIZE = 5000;
+    private static final int DEFAULT_BULK_QUEUE_SIZE = 64;
+    //the timeouts of the connections to Chronix, a hung server must not block a send thread forever
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int SOCKET_TIMEOUT_MS = 120_000;
+    //smaller request bodies are not compressed, e.g. a delete by query
+    private static final int MIN_COMPRESSED_BYTES = 1024;
+    private static final String JAVABIN_CONTENT_TYPE = "application/javabin";
+    private static final long SPOOL_TIMEOUT_MINUTES = 10;
     private final String URL;
 
 
     private final String[] SCHEMA_FIELDS;
 
     private final HttpSolrClient CHRONIX_SOLR_CLIENT;
-    private ChronixClient<MetricTimeSeries, HttpSolrClient, SolrQuery> CHRONIX;
+    //the solr client does not close a http client that is passed to it
+    private final CloseableHttpClient solrHttpClient;
+    //encodes the points of the chunks
+    private ChunkCodec codec = ChunkCodecs.defaultCodec();
+    //cuts the chunks at the calendar boundaries and then at the target encoded size
+    private AdaptiveChunker chunker = new AdaptiveChunker(CHUNK_SIZE, initialPoints(CHUNK_SIZE));
+    //the time series that the streaming import passes in parts, until they are complete
+    private final Map<Attributes, StreamedSeries> streamedSeries = new ConcurrentHashMap<>();
+    private ChunkBoundary chunkBoundary = ChunkBoundary.NONE;
+    private ZoneId chunkZone = ZoneId.systemDefault();
+
+    //the stages of the import pipeline after the file importer
+    private final int encodeThreads;
+    private final int sendThreads;
+    private PipelineStage<Pair<ImportPoints, Attributes>> encodeStage;
+    private PipelineStage<List<SolrInputDocument>> solrSendStage;
+    private PipelineStage<MetricSeries> openTSDBSendStage;
+    //the documents of all series are queued and streamed to solr by the runner threads of the bulk client
+    private int bulkThreads;
+    private int bulkQueueSize = DEFAULT_BULK_QUEUE_SIZE;
+    private ConcurrentUpdateSolrClient bulkSolrClient;
+    //the http client of the bulk client if it compresses the requests, the bulk client only closes its own
+    private CloseableHttpClient bulkHttpClient;
+    private final AtomicLong bulkErrors = new AtomicLong();
+    //the queued updates until they were streamed successfully
+    private final Set<UpdateRequest> bulkPending = ConcurrentHashMap.newKeySet();
+    //the updates that a runner thread has written into its current request
+    private final ThreadLocal<List<UpdateRequest>> bulkStreamed = ThreadLocal.withInitial(ArrayList::new);
+    private Client openTSDBClient;
+    //the host:port of the telnet style OpenTSDB interface, null for the http interface
+    private String openTSDBTelnet;
+    //the OpenTSDB pushes are sent asynchronously if the requests in flight are limited
+    private int asyncRequests;
+    private AsyncHttpClientImpl openTSDBAsyncClient;
+    //spools the failed asynchronous pushes, the I/O dispatcher threads of the client must not block on the disk
+    private ExecutorService asyncSpool;
+    //limit the concurrent requests, adapted to the latency and the errors of Chronix
+    private boolean adaptiveConcurrency;
+    private ConcurrencyLimiter solrLimiter;
+    private ConcurrencyLimiter openTSDBLimiter;
+    private final ContentEncoding requestCompression;
+    private final int compressionLevel;
+    //failed requests are retried and then spooled to disk, without a spool directory they are logged and dropped
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private DeadLetterSpool spool;
 
     /**
      * Constructs a Chronix importer
@@ -69,14 +161,183 @@ public class ChronixImporter {
      * @param url the url to chronix server
      */
     public ChronixImporter(String url, String[] attributeFields) {
+        this(url, attributeFields, 0, 0, ContentEncoding.IDENTITY, 0);
+    }
+
+    /**
+     * Constructs a Chronix importer
+     *
+     * @param url           the url to chronix server
+     * @param encodeThreads the number of threads that build and encode the chunks, 0 for the default
+     * @param sendThreads        the number of threads that send the chunks to chronix, 0 for the default
+     * @param requestCompression the content encoding of the requests to chronix, the server has to support it
+     * @param compressionLevel   the compression level from 1 (fast) to 9 (small), 0 for the default
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    public ChronixImporter(String url, String[] attributeFields, int encodeThreads, int sendThreads,
+                           ContentEncoding requestCompression, int compressionLevel) {
         URL = url;
-        CHRONIX_SOLR_CLIENT = new HttpSolrClient.Builder().withBaseSolrUrl(url).build();
         SCHEMA_FIELDS = attributeFields;
-        CHRONIX = new ChronixClient<>(new MetricTimeSeriesConverter(),
-                new ChronixSolrStorage(200, null, null));
+        this.encodeThreads = encodeThreads > 0 ? encodeThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.sendThreads = sendThreads > 0 ? sendThreads : DEFAULT_SEND_THREADS;
+        this.requestCompression = requestCompression;
+        //checked here, an invalid level would fail every request
+        this.compressionLevel = compressionLevel == 0
+                ? ContentEncoding.DEFAULT_COMPRESSION_LEVEL : ContentEncoding.checkLevel(compressionLevel);
+
+        solrHttpClient = solrHttpClient(this.sendThreads);
+        CHRONIX_SOLR_CLIENT = new HttpSolrClient.Builder().withBaseSolrUrl(url)
+                .withHttpClient(solrHttpClient)
+                .build();
+    }
+
+    /**
+     * Creates a http client with the defaults of solrj, the timeouts and the given connections.
+     * If the requests are compressed, the client compresses the javabin updates. The other requests,
+     * e.g. the commit, are small and not compressed.
+     */
+    private CloseableHttpClient solrHttpClient(int connections) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS, connections);
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, connections);
+        params.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, CONNECT_TIMEOUT_MS);
+        params.set(HttpClientUtil.PROP_SO_TIMEOUT, SOCKET_TIMEOUT_MS);
+        params.set(HttpClientUtil.PROP_FOLLOW_REDIRECTS, false);
+        CloseableHttpClient httpClient = HttpClientUtil.createClient(params);
+
+        if (requestCompression != ContentEncoding.IDENTITY) {
+            HttpRequestInterceptor compression = (request, context) -> {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntityEnclosingRequest withBody = (HttpEntityEnclosingRequest) request;
+                    if (isCompressed(withBody)) {
+                        withBody.setEntity(requestCompression.encode(withBody.getEntity(), compressionLevel));
+                    }
+                }
+            };
+            //solrj 6 creates a DefaultHttpClient. The body is compressed before the content length is set.
+            ((DefaultHttpClient) httpClient).addRequestInterceptor(compression, 0);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Only the javabin updates with documents are compressed. Streamed updates have an unknown length
+     * and the bulk client sets their content type on the request instead of the body.
+     */
+    static boolean isCompressed(HttpEntityEnclosingRequest request) {
+        HttpEntity entity = request.getEntity();
+        if (entity == null) {
+            return false;
+        }
+        Header contentType = entity.getContentType();
+        if (contentType == null) {
+            contentType = request.getFirstHeader(HTTP.CONTENT_TYPE);
+        }
+        if (contentType == null || !contentType.getValue().startsWith(JAVABIN_CONTENT_TYPE)) {
+            return false;
+        }
+        return entity.getContentLength() < 0 || entity.getContentLength() >= MIN_COMPRESSED_BYTES;
+    }
+
+    /**
+     * Sets the retry policy for the failed requests to Chronix
+     *
+     * @param retryPolicy the retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the directory that holds the batches that still failed after the retries.
+     * Without a spool directory the failed batches are logged and dropped.
+     *
+     * @param spoolDirectory the spool directory, see {@link #replaySpool()}
+     */
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spool = new DeadLetterSpool(spoolDirectory);
+    }
+
+    /**
+     * Sends the OpenTSDB pushes with non blocking I/O. The send threads only build the requests,
+     * hence few send threads keep the given number of requests in flight.
+     * Not supported by the telnet interface, that ignores the asynchronous requests.
+     *
+     * @param asyncRequests the maximal number of requests in flight, 0 sends blocking requests
+     */
+    public void setAsyncRequests(int asyncRequests) {
+        this.asyncRequests = asyncRequests;
+    }
+
+    /**
+     * Adapts the number of concurrent requests to the latency and the errors of Chronix (AIMD).
+     * The send threads or the asynchronous requests are the upper bound.
+     *
+     * @param adaptiveConcurrency true to adapt the concurrent requests, false to use all send threads
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Sends the OpenTSDB data points as telnet style put lines instead of http json requests
+     *
+     * @param openTSDBTelnet the host:port of the telnet interface, null for the http interface
+     */
+    public void setOpenTSDBTelnet(String openTSDBTelnet) {
+        this.openTSDBTelnet = openTSDBTelnet;
+    }
+
+    /**
+     * Streams the solr documents with a concurrent update client instead of sending a request per time series.
+     * The documents of all time series are queued and the runner threads write the queued updates as one
+     * binary (javabin) request until the queue is empty, i.e. the many small updates become a few large ones.
+     * <p>
+     * The updates are not acknowledged one by one, hence the documents of a failed request are not retried,
+     * but spooled. The runner threads are a fixed limit of the concurrent requests, i.e. not adaptive.
+     *
+     * @param bulkThreads   the number of runner threads, i.e. concurrent requests, 0 sends a request per time series
+     * @param bulkQueueSize the number of queued updates (the documents of a time series), 0 for the default
+     */
+    public void setBulkUpdates(int bulkThreads, int bulkQueueSize) {
+        this.bulkThreads = bulkThreads;
+        this.bulkQueueSize = bulkQueueSize > 0 ? bulkQueueSize : DEFAULT_BULK_QUEUE_SIZE;
+    }
+
+    /**
+     * Sets the target size of the encoded chunks, i.e. the compressed points of a stored document.
+     * The points per chunk are measured per time series, e.g. a flat counter gets more points than a noisy gauge.
+     *
+     * @param chunkSize the target size in bytes, 0 for the default of 128 KiB
+     */
+    public void setChunkSize(int chunkSize) {
+        int targetBytes = chunkSize > 0 ? chunkSize : CHUNK_SIZE;
+        this.chunker = new AdaptiveChunker(targetBytes, initialPoints(targetBytes));
+    }
+
+    /**
+     * Cuts the chunks at calendar boundaries before they are cut by size, i.e. a chunk holds only points
+     * of one hour, day or week. The start and end of the stored chunks then line up with the queried ranges.
+     *
+     * @param chunkBoundary none, hour, day or week. Null for none.
+     * @param zone          the time zone of the calendar, null for the system default (like the csv timestamps)
+     */
+    public void setChunkBoundary(String chunkBoundary, ZoneId zone) {
+        this.chunkBoundary = ChunkBoundary.of(chunkBoundary);
+        this.chunkZone = zone != null ? zone : ZoneId.systemDefault();
+    }
+
+    /**
+     * Sets the codec of the chunks. Chronix Server only decodes the default codec, the chunks of other codecs
+     * are decoded on the client side with {@link de.qaware.chronix.importer.codec.ChunkConverter}.
+     *
+     * @param codec the codec that encodes the points of the chunks
+     */
+    public void setChunkCodec(ChunkCodec codec) {
+        this.codec = codec;
     }
 
-    public BiConsumer<List<ImportPoint>, Attributes> doNothing() {
+    public BiConsumer<ImportPoints, Attributes> doNothing() {
         return (importPoints, attributes) -> {
             //simple ignore the values
         };
@@ -85,11 +346,12 @@ public class ChronixImporter {
 
     /**
      * Imports the time series to Chronix. Splits a time series up into chunks and stores the records.
+     * The chunks are built and encoded by the encode stage and sent by the send stage of the import pipeline.
      * Does not do a commit on the Chronix connection.
      *
-     * @return a BiConsumer handling the given list of import points and attributes
+     * @return a BiConsumer handling the given import points (sorted by timestamp) and attributes
      */
-    public BiConsumer<List<ImportPoint>, Attributes> importToChronix(boolean cleanImport, boolean useOpenTSDB) {
+    public BiConsumer<ImportPoints, Attributes> importToChronix(boolean cleanImport, boolean useOpenTSDB) {
 
         if (cleanImport) {
             deleteIndex();
@@ -97,85 +359,424 @@ public class ChronixImporter {
 
         if (useOpenTSDB) {
             LOGGER.info("Using OpenTSDB protocol");
+            if (asyncRequests > 0 && openTSDBTelnet != null) {
+                LOGGER.warn("Ignoring the {} asynchronous requests. The telnet interface is written by the {} send threads.",
+                        asyncRequests, sendThreads);
+            }
+            boolean async = asyncRequests > 0 && openTSDBTelnet == null;
+            openTSDBLimiter = new ConcurrencyLimiter("opentsdb", async ? asyncRequests : sendThreads, adaptiveConcurrency);
+            if (async) {
+                openTSDBAsyncClient = new AsyncHttpClientImpl(URL + "/ingest/opentsdb/http", asyncRequests);
+                openTSDBAsyncClient.setCommit(false);
+                openTSDBAsyncClient.setRequestCompression(requestCompression, compressionLevel);
+                openTSDBAsyncClient.setRetryPolicy(retryPolicy);
+                //the limiter replaces the fixed limit of the client
+                openTSDBAsyncClient.setRequestLimiter(openTSDBLimiter);
+                asyncSpool = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "opentsdb-async-spool");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                openTSDBSendStage = new PipelineStage<>("send", sendThreads, STAGE_CAPACITY, this::sendAsync);
+            } else {
+                openTSDBClient = openTSDBClient();
+                openTSDBSendStage = new PipelineStage<>("send", sendThreads, STAGE_CAPACITY, this::send);
+            }
+        } else if (bulkThreads > 0) {
+            LOGGER.info("Streaming the documents with {} threads", bulkThreads);
+            bulkSolrClient = bulkSolrClient();
+            //queuing blocks only if the queue of the bulk client is full
+            solrSendStage = new PipelineStage<>("send", 1, STAGE_CAPACITY, this::queue);
+        } else {
+            solrLimiter = new ConcurrencyLimiter("solr", sendThreads, adaptiveConcurrency);
+            solrSendStage = new PipelineStage<>("send", sendThreads, STAGE_CAPACITY, this::send);
         }
 
-
-        return (importPoints, attributes) -> {
+        encodeStage = new PipelineStage<>("encode", encodeThreads, STAGE_CAPACITY, series -> {
+            ImportPoints importPoints = series.getFirst();
+            Attributes attributes = series.getSecond();
 
             LOGGER.info("Chronix ---> Importing {}", attributes);
-            MetricTimeSeries.Builder builder = getPrefilledTimeSeriesBuilder(attributes);
 
+            if (useOpenTSDB) {
+                openTSDBBatches(importPoints, attributes).forEach(openTSDBSendStage::put);
+            } else {
+                StreamedSeries streamed = streamedSeries.get(attributes);
+                if (streamed == null) {
+                    solrSendStage.put(chunkAndEncode(importPoints, attributes));
+                } else {
+                    chunkAndEncode(streamed, importPoints, attributes);
+                }
+            }
+        });
 
-            //Convert points
-            importPoints.forEach(point -> builder.point(point.getDate().toEpochMilli(), point.getValue()));
+        //the points are only valid during the call, hence they are copied for the pipeline
+        return (importPoints, attributes) -> {
+            //the parts of a streamed time series are chunked together, the batches of OpenTSDB need no chunks
+            if (!useOpenTSDB && (importPoints.isPartial() || streamedSeries.containsKey(attributes))) {
+                streamedSeries.computeIfAbsent(attributes, key -> new StreamedSeries(chunker.estimate()))
+                        .passed(importPoints.isPartial());
+            }
+            encodeStage.put(Pair.of(importPoints.copy(), attributes));
+        };
+    }
 
-            MetricTimeSeries timeSeries = builder.build();
-            timeSeries.sort();
-            List<Point> points = timeSeries.points().collect(Collectors.toList());
+    /**
+     * Splits the points up into batches of at most {@link #OPENTSDB_BATCH_SIZE} data points.
+     * The batches share the arrays of the points and one set of tags.
+     */
+    List<MetricSeries> openTSDBBatches(ImportPoints importPoints, Attributes attributes) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        for (int j = 0; j < SCHEMA_FIELDS.length; j++) {
+            tags.put(SCHEMA_FIELDS[j], attributes.get(j));
+        }
+        MetricSeries series = new MetricSeries(attributes.getMetric(), tags,
+                importPoints.timestamps(), importPoints.values(), 0, importPoints.size());
 
-            final int chunkSize = 128 * 1024;
+        List<MetricSeries> batches = new ArrayList<>();
+        for (int start = 0; start < series.size(); start += OPENTSDB_BATCH_SIZE) {
+            batches.add(series.slice(start, Math.min(start + OPENTSDB_BATCH_SIZE, series.size())));
+        }
+        return batches;
+    }
 
-            //number of points
-            int numberOfPoints = chunkSize / SER_SIZE;
-            int start = 0;
-            int end;
+    /**
+     * Creates one pooled client for the whole import, the batches are sent concurrently by the send stage.
+     * The http client retries the failed pushes, the telnet client has a connection per send thread.
+     */
+    private Client openTSDBClient() {
+        if (openTSDBTelnet != null) {
+            int separator = openTSDBTelnet.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("The telnet interface must be given as host:port. Got: " + openTSDBTelnet);
+            }
+            LOGGER.info("Using the OpenTSDB telnet interface {}", openTSDBTelnet);
+            return new TelnetClientImpl(openTSDBTelnet.substring(0, separator),
+                    Integer.parseInt(openTSDBTelnet.substring(separator + 1)), sendThreads);
+        }
+        PoolingHttpClient pool = new PoolingHttpClient();
+        pool.setRetryPolicy(retryPolicy);
+        pool.setRequestLimiter(openTSDBLimiter);
+        HttpClientImpl client = new HttpClientImpl(URL + "/ingest/opentsdb/http", pool);
+        client.setCommit(false);
+        client.setRequestCompression(requestCompression, compressionLevel);
+        return client;
+    }
 
-            List<MetricTimeSeries> records = new ArrayList<>();
-            //Loop over the time series
-            while (start <= timeSeries.size()) {
+    private void send(MetricSeries series) {
+        if (!push(series)) {
+            spoolFailed(series);
+        }
+    }
 
-                if (timeSeries.size() - (start + numberOfPoints) > 0) {
-                    end = start + numberOfPoints;
-                } else {
-                    end = timeSeries.size();
-                }
+    /**
+     * Sends the series without waiting for the response. Blocks only if the requests in flight are at the limit.
+     */
+    private void sendAsync(MetricSeries series) {
+        //each attempt of the client takes a slot of the limiter
+        openTSDBAsyncClient.pushSeries(series, ExpectResponse.STATUS_CODE).whenComplete((response, error) -> {
+            if (error != null) {
+                LOGGER.error("Could not push metrics due to an exception", error);
+            } else if (!response.isSuccess()) {
+                LOGGER.error("Could not push metrics. Status code {}", response.getStatusCode());
+            } else {
+                return;
+            }
+            try {
+                asyncSpool.execute(() -> spoolFailed(series));
+            } catch (RejectedExecutionException e) {
+                //the last pushes may complete while the import is committed
+                spoolFailed(series);
+            }
+        });
+    }
+
+    private boolean push(MetricSeries series) {
+        if (openTSDBTelnet == null) {
+            //each attempt of the http client takes a slot of the limiter
+            return isPushed(pushSeries(series));
+        }
+        long start;
+        try {
+            start = openTSDBLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while waiting to push metrics", e);
+            return false;
+        }
+        Response response = null;
+        try {
+            response = pushSeries(series);
+        } finally {
+            //a telnet push has a single attempt, only failures of the server decrease the limit, e.g. not rejected lines
+            openTSDBLimiter.release(start, response == null || RetryPolicy.isRetryable(response.getStatusCode()));
+        }
+        return isPushed(response);
+    }
 
-                List<Point> chunk = points.subList(start, end);
-                start += numberOfPoints;
+    /**
+     * @return the response or null if the push failed with an exception
+     */
+    private Response pushSeries(MetricSeries series) {
+        try {
+            Response response = openTSDBClient.pushSeries(series);
+            if (!response.isSuccess()) {
+                LOGGER.error("Could not push metrics. Status code {}", response.getStatusCode());
+            }
+            return response;
+        } catch (IOException e) {
+            LOGGER.error("Could not push metrics due to an exception", e);
+            return null;
+        }
+    }
 
-                MetricTimeSeries.Builder record = getPrefilledTimeSeriesBuilder(attributes);
+    private static boolean isPushed(Response response) {
+        return response != null && response.isSuccess();
+    }
 
-                chunk.forEach(pair -> record.point(pair.getTimestamp(), pair.getValue()));
+    /**
+     * Splits the points up at the calendar boundaries and then into chunks of about the target encoded size
+     * and converts them into solr documents
+     *
+     * @param importPoints the points sorted by timestamp
+     * @param attributes   the attributes of the time series
+     * @return the documents of the chunks
+     */
+    List<SolrInputDocument> chunkAndEncode(ImportPoints importPoints, Attributes attributes) {
+        int[] partitions = chunkBoundary.partitions(importPoints.timestamps(), importPoints.size(), chunkZone);
+        List<BinaryTimeSeries> chunks = chunker.chunk(partitions,
+                (start, end) -> codec.encode(chunk(importPoints, attributes, start, end)),
+                ChronixImporter::encodedSize);
+        List<SolrInputDocument> documents = new ArrayList<>(chunks.size());
+        for (BinaryTimeSeries chunk : chunks) {
+            documents.add(document(chunk));
+        }
+        return documents;
+    }
 
-                records.add(record.build());
+    /**
+     * Chunks a part of a streamed time series together with the points left over by the previous parts
+     *
+     * @param streamed     the streamed time series
+     * @param importPoints the points of the part sorted by timestamp, null to chunk the left over points
+     * @param attributes   the attributes of the time series
+     */
+    private void chunkAndEncode(StreamedSeries streamed, ImportPoints importPoints, Attributes attributes) {
+        List<SolrInputDocument> documents = new ArrayList<>();
+        boolean complete = streamed.chunk(importPoints, (points, last, estimate) -> {
+            int[] partitions = chunkBoundary.partitions(points.timestamps(), points.size(), chunkZone);
+            List<BinaryTimeSeries> chunks = new ArrayList<>();
+            int chunked = chunker.chunk(partitions, last, estimate,
+                    (start, end) -> codec.encode(chunk(points, attributes, start, end)),
+                    ChronixImporter::encodedSize, chunks);
+            for (BinaryTimeSeries chunk : chunks) {
+                documents.add(document(chunk));
             }
+            return chunked;
+        });
+        if (complete) {
+            streamedSeries.remove(attributes);
+        }
+        if (!documents.isEmpty()) {
+            solrSendStage.put(documents);
+        }
+    }
 
-            if (useOpenTSDB) {
-                org.opentsdb.client.HttpClient client = new HttpClientImpl(URL + "/ingest/opentsdb/http");
-                MetricBuilder openTSDBBuilder = MetricBuilder.getInstance();
+    private static int encodedSize(BinaryTimeSeries chunk) {
+        byte[] points = chunk.getPoints();
+        return points == null ? 0 : points.length;
+    }
 
+    private static SolrInputDocument document(BinaryTimeSeries binaryTimeSeries) {
+        SolrInputDocument document = new SolrInputDocument();
+        binaryTimeSeries.getFields().forEach(document::addField);
+        return document;
+    }
 
-                for (MetricTimeSeries chunk : records) {
-                    chunk.points().forEach(point -> {
-                        Metric metric = openTSDBBuilder.addMetric(attributes.getMetric());
-                        for (int i = 0; i < SCHEMA_FIELDS.length; i++) {
-                            metric.addTag(SCHEMA_FIELDS[i], attributes.get(i));
-                        }
-                        metric.setDataPoint(point.getTimestamp(), point.getValue());
-                    });
+    private void send(List<SolrInputDocument> documents) {
+        if (!add(documents)) {
+            spoolFailed(documents);
+        }
+    }
 
-                }
+    /**
+     * Creates the concurrent update client that writes the queued documents as binary stream.
+     * A runner thread writes the updates of a request, then gets the response or the error of the request.
+     * Hence the thread remembers the written updates to spool them if the request failed.
+     */
+    @SuppressWarnings("deprecation")
+    private ConcurrentUpdateSolrClient bulkSolrClient() {
+        //null creates a default http client
+        bulkHttpClient = requestCompression != ContentEncoding.IDENTITY ? solrHttpClient(bulkThreads) : null;
+        //solrj 6 can only subclass the client with the deprecated constructor
+        ConcurrentUpdateSolrClient client = new ConcurrentUpdateSolrClient(URL, bulkHttpClient, bulkQueueSize, bulkThreads) {
+            @Override
+            public void onSuccess(HttpResponse response) {
+                bulkPending.removeAll(streamed());
+            }
 
-                try {
-                    client.setCommit(false);
-                    client.pushMetrics(openTSDBBuilder, ExpectResponse.STATUS_CODE);
-                } catch (IOException e) {
-                    e.printStackTrace();
+            @Override
+            public void handleError(Throwable error) {
+                bulkErrors.incrementAndGet();
+                LOGGER.error("Could not stream documents due to an exception", error);
+                for (UpdateRequest request : streamed()) {
+                    if (bulkPending.remove(request)) {
+                        spoolFailed(request.getDocuments());
+                    }
+                }
+            }
+        };
+        client.setRequestWriter(new BinaryRequestWriter() {
+            @Override
+            public void write(SolrRequest request, OutputStream os) throws IOException {
+                if (request instanceof UpdateRequest) {
+                    bulkStreamed.get().add((UpdateRequest) request);
                 }
+                super.write(request, os);
+            }
+        });
+        return client;
+    }
 
+    /**
+     * @return the updates of the request of the current runner thread
+     */
+    private List<UpdateRequest> streamed() {
+        List<UpdateRequest> streamed = new ArrayList<>(bulkStreamed.get());
+        bulkStreamed.get().clear();
+        return streamed;
+    }
 
-            } else {
-                CHRONIX.add(records, CHRONIX_SOLR_CLIENT);
+    private void queue(List<SolrInputDocument> documents) {
+        UpdateRequest request = new UpdateRequest();
+        request.add(documents);
+        bulkPending.add(request);
+        try {
+            request.process(bulkSolrClient);
+        } catch (SolrServerException | IOException | SolrException e) {
+            LOGGER.error("Could not queue documents due to an exception", e);
+            bulkPending.remove(request);
+            spoolFailed(documents);
+        }
+    }
+
+    /**
+     * Adds the documents and retries connection errors and retryable status codes
+     */
+    private boolean add(List<SolrInputDocument> documents) {
+        for (int retry = 1; ; retry++) {
+            long start;
+            try {
+                start = solrLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while waiting to add documents", e);
+                return false;
             }
 
-        };
+            Exception error;
+            boolean retryable = false;
+            try {
+                CHRONIX_SOLR_CLIENT.add(documents);
+                return true;
+            } catch (SolrServerException | IOException | SolrException e) {
+                error = e;
+                retryable = !(e instanceof SolrException) || RetryPolicy.isRetryable(((SolrException) e).code());
+            } finally {
+                //only failures of the server decrease the limit, e.g. not a bad request
+                solrLimiter.release(start, retryable);
+            }
+
+            if (!retryable || !retryPolicy.allows(retry)) {
+                LOGGER.error("Could not add documents due to an exception", error);
+                return false;
+            }
+            LOGGER.warn("Retry {} of adding documents after {}", retry, error.toString());
+            try {
+                retryPolicy.await(retry);
+            } catch (InterruptedIOException interrupted) {
+                LOGGER.error("Interrupted while retrying to add documents", interrupted);
+                return false;
+            }
+        }
+    }
+
+    private void spoolFailed(MetricSeries series) {
+        if (spool == null) {
+            LOGGER.error("Dropped a failed batch of {} data points of {}. No spool directory is configured.", series.size(), series.getName());
+            return;
+        }
+        try {
+            spool.spool(series);
+        } catch (UncheckedIOException e) {
+            LOGGER.error("Lost a failed batch of {} data points of {}", series.size(), series.getName(), e);
+        }
+    }
+
+    private void spoolFailed(List<SolrInputDocument> documents) {
+        if (spool == null) {
+            LOGGER.error("Dropped a failed batch of {} documents. No spool directory is configured.", documents.size());
+            return;
+        }
+        try {
+            spool.spool(documents);
+        } catch (UncheckedIOException e) {
+            LOGGER.error("Lost a failed batch of {} documents", documents.size(), e);
+        }
+    }
+
+    /**
+     * Sends the batches of the spool again, e.g. after Chronix was not reachable during an import.
+     * The sent batches are removed from the spool. Does not do a commit on the Chronix connection.
+     *
+     * @return the number of batches that still failed and remain in the spool
+     */
+    public int replaySpool() {
+        if (spool == null) {
+            throw new IllegalStateException("No spool directory is configured");
+        }
+        LOGGER.info("Replaying the spooled batches from {}", spool.getDirectory());
+        //the replay sends one batch after the other
+        if (openTSDBLimiter == null) {
+            openTSDBLimiter = new ConcurrencyLimiter("opentsdb", 1, false);
+        }
+        if (openTSDBClient == null) {
+            openTSDBClient = openTSDBClient();
+        }
+        if (solrLimiter == null) {
+            solrLimiter = new ConcurrencyLimiter("solr", 1, false);
+        }
+        return spool.replay(this::push, this::add);
+    }
 
+    /**
+     * Hands the arrays of the range to the chunk. The builder copies the slices at once instead of point by point,
+     * the slice of the first chunk of a time series is not copied before.
+     */
+    MetricTimeSeries chunk(ImportPoints importPoints, Attributes attributes, int start, int end) {
+        return getPrefilledTimeSeriesBuilder(attributes)
+                .points(importPoints.timestamps(start, end), importPoints.values(start, end))
+                .build();
+    }
+
+    /**
+     * The estimated points of a chunk at the target size, i.e. the first chunk of a time series and the points
+     * that the streaming import passes at once. The points of the stored chunks are adapted to the encoded size.
+     *
+     * @return the number of points of a chunk
+     */
+    public int pointsPerChunk() {
+        return initialPoints(chunker.getTargetBytes());
+    }
+
+    private static int initialPoints(int targetBytes) {
+        return Math.max(1, targetBytes / SER_SIZE);
     }
 
     private void deleteIndex() {
         try {
             CHRONIX_SOLR_CLIENT.deleteByQuery("*:*");
-        } catch (SolrServerException | IOException e) {
+        } catch (SolrServerException | IOException | SolrException e) {
             LOGGER.error("Could not delete index due to an exception", e);
         }
     }
@@ -189,11 +790,86 @@ public class ChronixImporter {
         return builder;
     }
 
+    /**
+     * Waits until the pipeline has sent all chunks, commits them and closes the connections to Chronix.
+     */
     public void commit() {
+        //the stages are closed in the order of the pipeline
+        if (encodeStage != null) {
+            encodeStage.close();
+        }
+        //a time series whose last part was not passed, e.g. as reading its file failed, has left over points
+        streamedSeries.forEach((attributes, streamed) -> chunkAndEncode(streamed, null, attributes));
+        if (solrSendStage != null) {
+            solrSendStage.close();
+        }
+        if (openTSDBSendStage != null) {
+            openTSDBSendStage.close();
+        }
+        if (bulkSolrClient != null) {
+            //waits until the runners have streamed the queue
+            bulkSolrClient.blockUntilFinished();
+            bulkSolrClient.close();
+            if (bulkHttpClient != null) {
+                HttpClientUtil.close(bulkHttpClient);
+            }
+            if (bulkErrors.get() > 0) {
+                LOGGER.error("{} streamed requests failed", bulkErrors.get());
+            }
+            //a runner that could not send its request has not written the first update
+            if (!bulkPending.isEmpty()) {
+                LOGGER.error("{} queued updates were not streamed", bulkPending.size());
+                bulkPending.forEach(request -> spoolFailed(request.getDocuments()));
+                bulkPending.clear();
+            }
+        }
+        if (openTSDBAsyncClient != null) {
+            try {
+                //waits for the requests in flight
+                openTSDBAsyncClient.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the OpenTSDB client due to an exception", e);
+            }
+            //waits until the failed pushes are spooled
+            asyncSpool.shutdown();
+            try {
+                if (!asyncSpool.awaitTermination(SPOOL_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    LOGGER.error("Could not spool the failed pushes within {} minutes", SPOOL_TIMEOUT_MINUTES);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while spooling the failed pushes", e);
+            }
+        }
+        if (openTSDBClient != null) {
+            try {
+                openTSDBClient.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the OpenTSDB client due to an exception", e);
+            }
+        }
+
+        if (solrLimiter != null) {
+            solrLimiter.close();
+        }
+        if (chunker.chunks() > 0) {
+            LOGGER.info("Chunk sizes: {}", chunker.report());
+        }
+        if (openTSDBLimiter != null) {
+            openTSDBLimiter.close();
+        }
+
         try {
             CHRONIX_SOLR_CLIENT.commit();
-        } catch (SolrServerException | IOException e) {
-            LOGGER.error("Could not delete index due to an exception", e);
+        } catch (SolrServerException | IOException | SolrException e) {
+            LOGGER.error("Could not commit due to an exception", e);
+        } finally {
+            try {
+                CHRONIX_SOLR_CLIENT.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the Chronix client due to an exception", e);
+            }
+            HttpClientUtil.close(solrHttpClient);
         }
     }
 }
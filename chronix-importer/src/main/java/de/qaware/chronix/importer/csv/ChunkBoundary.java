@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The calendar boundaries the chunks must not span, e.g. a chunk per day holds only points of that day.
+ * Hence the start and end of the stored chunks line up with the queried ranges and a query for one day
+ * does not fetch and decode the neighbouring days. The partitions are subdivided by size afterwards.
+ * The weeks start on monday.
+ *
+ * @author f.lautenschlager
+ */
+enum ChunkBoundary {
+
+    NONE,
+    HOUR,
+    DAY,
+    WEEK;
+
+    /**
+     * Parses the boundary, e.g. from the importer config
+     *
+     * @param name none, hour, day or week. Null for none.
+     * @return the boundary
+     */
+    static ChunkBoundary of(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return NONE;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown chunk boundary: " + name + ". Valid values: "
+                    + Arrays.toString(values()).toLowerCase(Locale.ROOT), e);
+        }
+    }
+
+    /**
+     * Splits the points at the boundaries
+     *
+     * @param timestamps the timestamps sorted ascending
+     * @param size       the number of points
+     * @param zone       the time zone of the calendar
+     * @return the index after the last point of each partition, i.e. the last entry is the size.
+     * No partitions if there are no points.
+     */
+    int[] partitions(long[] timestamps, int size, ZoneId zone) {
+        if (size == 0) {
+            return new int[0];
+        }
+        if (this == NONE) {
+            return new int[]{size};
+        }
+        int[] ends = new int[16];
+        int partitions = 0;
+        for (int start = 0; start < size; ) {
+            int end = firstIndexNotBefore(timestamps, start, size, nextBoundary(timestamps[start], zone));
+            if (partitions == ends.length) {
+                ends = Arrays.copyOf(ends, partitions * 2);
+            }
+            ends[partitions++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(ends, partitions);
+    }
+
+    /**
+     * @return the first boundary after the timestamp
+     */
+    long nextBoundary(long timestamp, ZoneId zone) {
+        ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(zone);
+        switch (this) {
+            case HOUR:
+                return time.truncatedTo(ChronoUnit.HOURS).plusHours(1).toInstant().toEpochMilli();
+            case DAY:
+                return time.toLocalDate().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            case WEEK:
+                return time.toLocalDate().with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atStartOfDay(zone)
+                        .toInstant().toEpochMilli();
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Binary search for the first timestamp at or after the boundary
+     */
+    private static int firstIndexNotBefore(long[] timestamps, int from, int to, long boundary) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < boundary) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.util.Arrays;
+
+/**
+ * A columnar buffer for the points of a csv file.
+ * All columns share one growable array of timestamps and have one growable array of values.
+ * If a line has less cells than columns, the missing columns get their own copy of the timestamps.
+ *
+ * @author f.lautenschlager
+ */
+final class ColumnBuffer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int columns;
+
+    //the timestamps of all rows
+    private long[] timestamps;
+    private int rows;
+    //true as long as the timestamps are in order
+    private boolean sorted = true;
+
+    private final double[][] values;
+    //the own timestamps and sizes of the columns that have missing values, otherwise null
+    private final long[][] columnTimestamps;
+    private final int[] columnSizes;
+    private final boolean[] columnSorted;
+    //the columns that needed sorting at least once
+    private final boolean[] neededSorting;
+
+    /**
+     * Constructs a buffer
+     *
+     * @param columns the number of value columns
+     */
+    ColumnBuffer(int columns) {
+        this.columns = columns;
+        this.timestamps = new long[INITIAL_CAPACITY];
+        this.values = new double[columns][INITIAL_CAPACITY];
+        this.columnTimestamps = new long[columns][];
+        this.columnSizes = new int[columns];
+        this.columnSorted = new boolean[columns];
+        this.neededSorting = new boolean[columns];
+    }
+
+    /**
+     * Starts a new row
+     *
+     * @param timestamp the timestamp of the row
+     */
+    void addRow(long timestamp) {
+        if (rows == timestamps.length) {
+            ensureCapacity(grow(rows));
+        }
+        if (rows > 0 && timestamp < timestamps[rows - 1]) {
+            sorted = false;
+        }
+        timestamps[rows++] = timestamp;
+    }
+
+    /**
+     * Sets the value of a column in the current row
+     *
+     * @param column the column
+     * @param value  the value
+     */
+    void set(int column, double value) {
+        if (columnTimestamps[column] == null) {
+            values[column][rows - 1] = value;
+        } else {
+            append(column, timestamps[rows - 1], value);
+        }
+    }
+
+    /**
+     * Ends the current row. The columns without a value are marked as missing.
+     *
+     * @param filledColumns the number of columns that have a value in this row
+     */
+    void endRow(int filledColumns) {
+        for (int column = filledColumns; column < columns; column++) {
+            if (columnTimestamps[column] == null) {
+                //the column gets its own timestamps without the current row
+                columnTimestamps[column] = Arrays.copyOf(timestamps, values[column].length);
+                columnSizes[column] = rows - 1;
+                columnSorted[column] = sorted;
+            }
+        }
+    }
+
+    private void append(int column, long timestamp, double value) {
+        int size = columnSizes[column];
+        if (size == columnTimestamps[column].length) {
+            int capacity = grow(size);
+            columnTimestamps[column] = Arrays.copyOf(columnTimestamps[column], capacity);
+            values[column] = Arrays.copyOf(values[column], capacity);
+        }
+        if (size > 0 && timestamp < columnTimestamps[column][size - 1]) {
+            columnSorted[column] = false;
+        }
+        columnTimestamps[column][size] = timestamp;
+        values[column][size] = value;
+        columnSizes[column] = size + 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            for (int column = 0; column < columns; column++) {
+                if (columnTimestamps[column] == null) {
+                    values[column] = Arrays.copyOf(values[column], capacity);
+                }
+            }
+        }
+    }
+
+    private static int grow(int size) {
+        return size + (size >> 1) + 1;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    int rows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of value columns
+     */
+    int columns() {
+        return columns;
+    }
+
+    /**
+     * @param column the column
+     * @return the number of points of the column
+     */
+    int size(int column) {
+        return columnTimestamps[column] == null ? rows : columnSizes[column];
+    }
+
+    /**
+     * Sorts the points of every column by their timestamps if they are not in order.
+     * The sort is stable, i.e. points with the same timestamp keep the order of the file.
+     */
+    void sort() {
+        if (!sorted) {
+            int[] order = RunMergeSort.order(timestamps, rows);
+            timestamps = RunMergeSort.permute(timestamps, order);
+            for (int column = 0; column < columns; column++) {
+                if (columnTimestamps[column] == null) {
+                    values[column] = RunMergeSort.permute(values[column], order);
+                    neededSorting[column] = true;
+                }
+            }
+            sorted = true;
+        }
+
+        for (int column = 0; column < columns; column++) {
+            if (columnTimestamps[column] != null && !columnSorted[column]) {
+                int[] order = RunMergeSort.order(columnTimestamps[column], columnSizes[column]);
+                columnTimestamps[column] = RunMergeSort.permute(columnTimestamps[column], order);
+                values[column] = RunMergeSort.permute(values[column], order);
+                columnSorted[column] = true;
+                neededSorting[column] = true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of columns that needed sorting
+     */
+    int sortedColumns() {
+        int sortedColumns = 0;
+        for (boolean needed : neededSorting) {
+            if (needed) {
+                sortedColumns++;
+            }
+        }
+        return sortedColumns;
+    }
+
+    /**
+     * Removes all points. The arrays are kept for the next points.
+     */
+    void clear() {
+        rows = 0;
+        sorted = true;
+        for (int column = 0; column < columns; column++) {
+            columnSizes[column] = 0;
+            columnSorted[column] = true;
+        }
+    }
+
+    /**
+     * Appends the points of the given buffer, e.g. the points of the next part of a file.
+     * The points stay in the order of the file, i.e. they are sorted by {@link #sort()} if necessary.
+     *
+     * @param other the buffer with the same number of columns
+     */
+    void append(ColumnBuffer other) {
+        if (other.columns != columns) {
+            throw new IllegalArgumentException("The buffers have a different number of columns: " + columns + " and " + other.columns);
+        }
+        int offset = rows;
+        boolean wasSorted = sorted;
+
+        for (int column = 0; column < columns; column++) {
+            neededSorting[column] |= other.neededSorting[column];
+            if (columnTimestamps[column] == null && other.columnTimestamps[column] != null) {
+                //the column gets its own timestamps without the appended rows
+                columnTimestamps[column] = Arrays.copyOf(timestamps, values[column].length);
+                columnSizes[column] = offset;
+                columnSorted[column] = wasSorted;
+            }
+        }
+
+        ensureCapacity(offset + other.rows);
+        System.arraycopy(other.timestamps, 0, timestamps, offset, other.rows);
+        rows += other.rows;
+        if (!other.sorted || offset > 0 && other.rows > 0 && other.timestamps[0] < timestamps[offset - 1]) {
+            sorted = false;
+        }
+
+        for (int column = 0; column < columns; column++) {
+            if (columnTimestamps[column] == null) {
+                System.arraycopy(other.values[column], 0, values[column], offset, other.rows);
+            } else {
+                ImportPoints points = other.points(column);
+                for (int i = 0; i < points.size(); i++) {
+                    append(column, points.getTimestamp(i), points.getValue(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the points of a column. The arrays are not copied.
+     *
+     * @param column the column
+     * @return the points of the column
+     */
+    ImportPoints points(int column) {
+        long[] columnTimes = columnTimestamps[column] == null ? timestamps : columnTimestamps[column];
+        return new ImportPoints(columnTimes, values[column], size(column));
+    }
+}
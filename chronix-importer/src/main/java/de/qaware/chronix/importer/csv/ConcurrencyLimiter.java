@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.opentsdb.client.RequestLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the concurrent requests to Chronix and adapts the limit with additive increase / multiplicative decrease.
+ * <ul>
+ * <li>Increase: a request that completes in time while the limit was used raises the limit by 1 / limit,
+ * i.e. by one per limit requests</li>
+ * <li>Decrease: a failed request or a smoothed latency above {@link #LATENCY_TOLERANCE} times the baseline latency
+ * multiplies the limit by {@link #DECREASE_RATIO}. The requests that were started before a decrease
+ * do not decrease the limit again.</li>
+ * </ul>
+ * The smoothed latency follows the recent requests, the baseline latency is a long term average.
+ * Hence a server that gets slower under load (e.g. due to merges) gets fewer requests.
+ * The latency is measured per request, i.e. the requests should have similar sizes. Otherwise a few large requests
+ * decrease the limit like a slow server.
+ * <p>
+ * Each attempt of a request takes a slot and is measured on its own, i.e. a request that waits for its retry
+ * holds no slot and the backoff does not count as latency.
+ * <p>
+ * A limiter that is not adaptive keeps the maximal limit and only measures.
+ * The metrics are registered as MXBean and logged when the limiter is closed.
+ *
+ * @author f.lautenschlager
+ */
+final class ConcurrencyLimiter implements RequestLimiter, ConcurrencyLimiterMXBean, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private static final double DECREASE_RATIO = 0.75;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    //the weight of a new sample of the smoothed latency and error rate
+    private static final double SMOOTHING = 0.1;
+    //the weight of a new sample of the baseline latency
+    private static final double BASELINE_SMOOTHING = 0.01;
+
+    private final String name;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final ObjectName objectName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private double latency = Double.NaN;
+    private double baselineLatency = Double.NaN;
+    private double errorRate;
+    private long lastDecrease;
+    private long requests;
+    private long failedRequests;
+    private long decreases;
+
+    /**
+     * Constructs a limiter
+     *
+     * @param name     the name of the limited target, e.g. solr
+     * @param maxLimit the maximal number of concurrent requests
+     * @param adaptive true to adapt the limit, false to keep the maximal limit
+     */
+    ConcurrencyLimiter(String name, int maxLimit, boolean adaptive) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("The limit must be positive. Got: " + maxLimit);
+        }
+        this.name = name;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.limit = adaptive ? Math.max(1, maxLimit / 2) : maxLimit;
+        this.objectName = register();
+    }
+
+    private ObjectName register() {
+        try {
+            ObjectName objectName = new ObjectName("de.qaware.chronix.importer:type=ConcurrencyLimiter,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            LOGGER.warn("Could not register the metrics of the limiter {}", name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Waits until a request is allowed
+     *
+     * @return the start of the request for {@link #release(long, boolean)}
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    @Override
+    public long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                available.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Completes a request and adapts the limit
+     *
+     * @param start  the start of the request
+     * @param failed true if the request failed due to the server, e.g. a time out or a status code 503
+     */
+    @Override
+    public void release(long start, boolean failed) {
+        long now = System.nanoTime();
+        double sample = now - start;
+        lock.lock();
+        try {
+            //the limit was used if no other request could have been started
+            boolean limited = inFlight >= (int) limit;
+            requests++;
+            latency = Double.isNaN(latency) ? sample : latency + SMOOTHING * (sample - latency);
+            baselineLatency = Double.isNaN(baselineLatency) ? sample : baselineLatency + BASELINE_SMOOTHING * (sample - baselineLatency);
+            errorRate += SMOOTHING * ((failed ? 1 : 0) - errorRate);
+            if (failed) {
+                failedRequests++;
+            }
+
+            if (adaptive) {
+                if (failed || latency > LATENCY_TOLERANCE * baselineLatency) {
+                    if (limit > 1 && (decreases == 0 || start - lastDecrease > 0)) {
+                        limit = Math.max(1, limit * DECREASE_RATIO);
+                        lastDecrease = now;
+                        decreases++;
+                        LOGGER.debug("Limiter {}: decreased the limit to {} (latency {} ms, failed {})",
+                                name, (int) limit, toMillis(latency), failed);
+                    }
+                } else if (limited) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static double toMillis(double nanos) {
+        return Double.isNaN(nanos) ? 0 : nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getLatencyMillis() {
+        lock.lock();
+        try {
+            return toMillis(latency);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getBaselineLatencyMillis() {
+        lock.lock();
+        try {
+            return toMillis(baselineLatency);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getErrorRate() {
+        lock.lock();
+        try {
+            return errorRate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        lock.lock();
+        try {
+            return requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getFailedRequests() {
+        lock.lock();
+        try {
+            return failedRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDecreases() {
+        lock.lock();
+        try {
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs the metrics and unregisters the MXBean
+     */
+    @Override
+    public void close() {
+        LOGGER.info("Limiter {}: {} requests ({} failed). Limit {} of {} after {} decreases. Latency {} ms, baseline {} ms",
+                name, getRequests(), getFailedRequests(), getLimit(), maxLimit, getDecreases(),
+                String.format("%.1f", getLatencyMillis()), String.format("%.1f", getBaselineLatencyMillis()));
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.debug("Could not unregister the metrics of the limiter {}", name, e);
+            }
+        }
+    }
+}
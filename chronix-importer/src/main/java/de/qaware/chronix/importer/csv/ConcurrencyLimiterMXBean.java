@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+/**
+ * The metrics of a {@link ConcurrencyLimiter}, registered as
+ * de.qaware.chronix.importer:type=ConcurrencyLimiter,name=&lt;target&gt;
+ *
+ * @author f.lautenschlager
+ */
+public interface ConcurrencyLimiterMXBean {
+
+    /**
+     * @return the current number of concurrent requests that are allowed
+     */
+    int getLimit();
+
+    /**
+     * @return the upper bound of the limit
+     */
+    int getMaxLimit();
+
+    /**
+     * @return the number of requests in flight
+     */
+    int getInFlight();
+
+    /**
+     * @return the exponentially smoothed latency of the requests in milliseconds
+     */
+    double getLatencyMillis();
+
+    /**
+     * @return the long term average latency of the requests in milliseconds
+     */
+    double getBaselineLatencyMillis();
+
+    /**
+     * @return the exponentially smoothed rate of failed requests between 0 and 1
+     */
+    double getErrorRate();
+
+    /**
+     * @return the number of completed attempts, i.e. a retried request counts once per attempt
+     */
+    long getRequests();
+
+    /**
+     * @return the number of failed attempts
+     */
+    long getFailedRequests();
+
+    /**
+     * @return how often the limit was decreased
+     */
+    long getDecreases();
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A csv tokenizer that scans the raw bytes of a csv file line by line.
+ * Instead of creating a string per line and per cell, it reports the cell boundaries as offsets into its buffer.
+ * The delimiter and the line breaks are single byte ascii characters that never occur within a multi byte
+ * utf-8 sequence. Hence the tokenizer works on ascii and utf-8 encoded files without decoding them.
+ * <p>
+ * Like {@link String#split(String)} trailing empty cells are removed, i.e. an empty line has no cells.
+ * <p>
+ * Uncompressed files are memory mapped and tokenized without copying the bytes.
+ * Large files are mapped in windows that start at the beginning of a line.
+ *
+ * @author f.lautenschlager
+ */
+final class CsvTokenizer implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream input;
+    private final byte delimiter;
+
+    //the mapped file and the end of the mapped range, the channel is null if an input stream is read
+    private final FileChannel channel;
+    private final long end;
+    private int windowSize;
+
+    private ByteBuffer buffer;
+    //the offset of the buffer within the input
+    private long discarded;
+    //the start of the not yet tokenized bytes
+    private int position;
+    //the end of the valid bytes in the buffer
+    private int limit;
+    private boolean endOfInput;
+
+    //start and end offset of each cell: start0, end0, start1, end1, ...
+    private int[] offsets = new int[64];
+    private int cells;
+
+    /**
+     * Constructs a tokenizer reading from the given input stream
+     *
+     * @param input     the input stream of the csv file
+     * @param delimiter the csv delimiter, e.g. ; or ,
+     */
+    CsvTokenizer(InputStream input, char delimiter) {
+        this(input, delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a tokenizer reading from the given input stream
+     *
+     * @param input      the input stream of the csv file
+     * @param delimiter  the csv delimiter, e.g. ; or ,
+     * @param bufferSize the initial size of the read buffer. The buffer grows if a line does not fit into it.
+     */
+    CsvTokenizer(InputStream input, char delimiter, int bufferSize) {
+        this.input = input;
+        this.delimiter = checkDelimiter(delimiter);
+        this.channel = null;
+        this.end = 0;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Constructs a tokenizer that maps the given range of a file
+     *
+     * @param channel   the channel of the csv file. It is closed with the tokenizer.
+     * @param start     the offset of the first line
+     * @param end       the offset after the last line
+     * @param delimiter the csv delimiter, e.g. ; or ,
+     */
+    CsvTokenizer(FileChannel channel, long start, long end, char delimiter) {
+        this(channel, start, end, delimiter, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs a tokenizer that maps the given range of a file
+     *
+     * @param channel    the channel of the csv file. It is closed with the tokenizer.
+     * @param start      the offset of the first line
+     * @param end        the offset after the last line
+     * @param delimiter  the csv delimiter, e.g. ; or ,
+     * @param windowSize the size of the mapped windows. The window grows if a line does not fit into it.
+     */
+    CsvTokenizer(FileChannel channel, long start, long end, char delimiter, int windowSize) {
+        this.input = null;
+        this.delimiter = checkDelimiter(delimiter);
+        this.channel = channel;
+        this.end = end;
+        this.windowSize = windowSize;
+        this.discarded = start;
+        this.buffer = ByteBuffer.allocate(0);
+    }
+
+    private static byte checkDelimiter(char delimiter) {
+        if (delimiter > 0x7F || delimiter == LF || delimiter == CR) {
+            throw new IllegalArgumentException("The csv delimiter must be an ascii character. Got: " + delimiter);
+        }
+        return (byte) delimiter;
+    }
+
+    /**
+     * Reads the next line and determines its cells.
+     *
+     * @return true if a line was read, false if the end of the input is reached
+     * @throws IOException if the input could not be read
+     */
+    boolean nextLine() throws IOException {
+        while (!tokenize()) {
+            if (endOfInput) {
+                return false;
+            }
+            fill();
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of cells of the current line
+     */
+    int cells() {
+        return cells;
+    }
+
+    /**
+     * @param cell the index of the cell
+     * @return the offset of the first byte of the cell within {@link #buffer()}
+     */
+    int start(int cell) {
+        return offsets[2 * cell];
+    }
+
+    /**
+     * @param cell the index of the cell
+     * @return the offset after the last byte of the cell within {@link #buffer()}
+     */
+    int end(int cell) {
+        return offsets[2 * cell + 1];
+    }
+
+    /**
+     * @return the offset of the next line within the input, e.g. the end of the header line
+     */
+    long position() {
+        return discarded + position;
+    }
+
+    /**
+     * The buffer holding the current line. Only valid until the next call of {@link #nextLine()}.
+     *
+     * @return the buffer the cell offsets refer to
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Decodes a cell of the current line. Should only be used for rare values, e.g. the header line.
+     *
+     * @param cell the index of the cell
+     * @return the utf-8 decoded cell content
+     */
+    String cellAsString(int cell) {
+        return decode(buffer, start(cell), end(cell));
+    }
+
+    /**
+     * Decodes the bytes between the given offsets
+     *
+     * @param buffer the buffer
+     * @param start  the offset of the first byte
+     * @param end    the offset after the last byte
+     * @return the utf-8 decoded string
+     */
+    static String decode(ByteBuffer buffer, int start, int end) {
+        ByteBuffer content = buffer.duplicate();
+        content.limit(end);
+        content.position(start);
+        return StandardCharsets.UTF_8.decode(content).toString();
+    }
+
+    /**
+     * Tries to tokenize the next complete line within the buffer
+     *
+     * @return true if a complete line was found, otherwise false
+     */
+    private boolean tokenize() {
+        cells = 0;
+        int cellStart = position;
+        for (int i = position; i < limit; i++) {
+            byte current = buffer.get(i);
+            if (current == delimiter) {
+                addCell(cellStart, i);
+                cellStart = i + 1;
+            } else if (current == LF) {
+                int cellEnd = i;
+                if (cellEnd > cellStart && buffer.get(cellEnd - 1) == CR) {
+                    cellEnd--;
+                }
+                addCell(cellStart, cellEnd);
+                position = i + 1;
+                removeTrailingEmptyCells();
+                return true;
+            }
+        }
+
+        //the last line has no line break
+        if (endOfInput && position < limit) {
+            addCell(cellStart, limit);
+            position = limit;
+            removeTrailingEmptyCells();
+            return true;
+        }
+        return false;
+    }
+
+    private void addCell(int start, int end) {
+        if (2 * cells + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[2 * cells] = start;
+        offsets[2 * cells + 1] = end;
+        cells++;
+    }
+
+    private void removeTrailingEmptyCells() {
+        while (cells > 0 && start(cells - 1) == end(cells - 1)) {
+            cells--;
+        }
+    }
+
+    /**
+     * Moves the not yet tokenized bytes to the beginning of the buffer (or grows the buffer if a single line fills it)
+     * and reads the next bytes from the input.
+     */
+    private void fill() throws IOException {
+        if (channel != null) {
+            map();
+            return;
+        }
+
+        if (position > 0) {
+            ByteBuffer remaining = buffer.duplicate();
+            remaining.limit(limit);
+            remaining.position(position);
+            buffer.clear();
+            buffer.put(remaining);
+            discarded += position;
+            limit -= position;
+            position = 0;
+        } else if (limit == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.clear();
+            buffer.limit(limit);
+            larger.put(buffer);
+            buffer = larger;
+        }
+
+        int read = input.read(buffer.array(), limit, buffer.capacity() - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * Maps the next window of the file. The window starts with the not yet tokenized bytes
+     * (or is larger if a single line fills the window).
+     */
+    private void map() throws IOException {
+        if (position == 0 && limit > 0) {
+            windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+        }
+        discarded += position;
+        long size = Math.min(windowSize, end - discarded);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, discarded, size);
+        position = 0;
+        limit = (int) size;
+        endOfInput = discarded + size == end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        } else {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.opentsdb.client.builder.MetricSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * A directory of batches that could not be sent, i.e. that still failed after the retries.
+ * Each batch is one file, that is written to a temporary file and renamed, hence a replay never reads a partial batch.
+ * <p>
+ * A file starts with a magic number, the format version and the kind of the batch:
+ * <ul>
+ * <li>OpenTSDB series: the metric, the tags, the number of points, the first timestamp,
+ * the timestamp deltas as zig-zag var longs and the values as raw doubles</li>
+ * <li>Solr documents: the javabin encoded list of the documents</li>
+ * </ul>
+ *
+ * @author f.lautenschlager
+ */
+final class DeadLetterSpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterSpool.class);
+
+    private static final int MAGIC = 0x43585350;
+    private static final byte VERSION = 1;
+    private static final byte SERIES = 1;
+    private static final byte DOCUMENTS = 2;
+    private static final String SUFFIX = ".spool";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final AtomicBoolean spooled = new AtomicBoolean();
+
+    /**
+     * Constructs a spool
+     *
+     * @param directory the spool directory. It is created with the first batch.
+     */
+    DeadLetterSpool(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the spool directory
+     */
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the series into the spool
+     *
+     * @param series the series that could not be pushed to OpenTSDB
+     */
+    void spool(MetricSeries series) {
+        write("opentsdb-", out -> {
+            out.writeByte(SERIES);
+            out.writeUTF(series.getName());
+            out.writeInt(series.getTags().size());
+            for (Map.Entry<String, String> tag : series.getTags().entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+            int size = series.size();
+            out.writeInt(size);
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long timestamp = series.getTimestamp(i);
+                writeVarLong(out, i == 0 ? timestamp : timestamp - previous);
+                previous = timestamp;
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(series.getValue(i));
+            }
+        });
+    }
+
+    /**
+     * Writes the documents into the spool
+     *
+     * @param documents the documents that could not be added to Solr
+     */
+    void spool(List<SolrInputDocument> documents) {
+        write("solr-", out -> {
+            out.writeByte(DOCUMENTS);
+            out.flush();
+            new JavaBinCodec().marshal(documents, out);
+        });
+    }
+
+    private void write(String prefix, BatchWriter writer) {
+        try {
+            if (spooled.compareAndSet(false, true)) {
+                LOGGER.warn("Spooling the failed batches to {}", directory.getAbsolutePath());
+            }
+            Files.createDirectories(directory.toPath());
+            Path temporary = Files.createTempFile(directory.toPath(), prefix, ".tmp");
+            String name = temporary.getFileName().toString();
+            Path spooled = temporary.resolveSibling(name.substring(0, name.length() - ".tmp".length()) + SUFFIX);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_SIZE))) {
+                    out.writeInt(MAGIC);
+                    out.writeByte(VERSION);
+                    writer.write(out);
+                }
+                Files.move(temporary, spooled, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                //the partial batch does not stay in the spool
+                discard(temporary, e);
+                throw e;
+            }
+            LOGGER.warn("Spooled a failed batch to {}", spooled);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spool a failed batch to " + directory, e);
+        }
+    }
+
+    private static void discard(Path temporary, Exception cause) {
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Reads the batches of the spool and passes them to the given senders.
+     * A batch is removed from the spool if it was sent, otherwise it is kept for the next replay.
+     * A batch that can not be read or sent is logged and kept, the replay goes on with the next batch.
+     *
+     * @param series    sends a series to OpenTSDB, true if it was sent
+     * @param documents sends documents to Solr, true if they were sent
+     * @return the number of batches that are still in the spool
+     */
+    int replay(Predicate<MetricSeries> series, Predicate<List<SolrInputDocument>> documents) {
+        List<Path> files = files();
+        int remaining = 0;
+        for (Path file : files) {
+            boolean sent;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Not a spool file of version " + VERSION);
+                }
+                byte kind = in.readByte();
+                if (kind == SERIES) {
+                    sent = series.test(readSeries(in));
+                } else if (kind == DOCUMENTS) {
+                    sent = documents.test(readDocuments(in));
+                } else {
+                    throw new IOException("Unknown batch kind " + kind);
+                }
+            } catch (IOException | RuntimeException e) {
+                //e.g. a series without tags
+                LOGGER.error("Could not replay the spooled batch {}", file, e);
+                sent = false;
+            }
+
+            if (sent) {
+                delete(file);
+            } else {
+                remaining++;
+            }
+        }
+        LOGGER.info("Replayed {} of {} spooled batches from {}", files.size() - remaining, files.size(), directory);
+        return remaining;
+    }
+
+    private List<Path> files() {
+        if (!directory.isDirectory()) {
+            return Collections.emptyList();
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list the spool " + directory, e);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            LOGGER.error("Could not remove the replayed batch {}. It is sent again with the next replay.", file, e);
+        }
+    }
+
+    private static MetricSeries readSeries(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        int tagCount = in.readInt();
+        Map<String, String> tags = new LinkedHashMap<>();
+        for (int i = 0; i < tagCount; i++) {
+            tags.put(in.readUTF(), in.readUTF());
+        }
+        int size = in.readInt();
+        long[] timestamps = new long[size];
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += readVarLong(in);
+            timestamps[i] = previous;
+        }
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = in.readDouble();
+        }
+        return new MetricSeries(name, tags, timestamps, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SolrInputDocument> readDocuments(InputStream in) throws IOException {
+        return (List<SolrInputDocument>) new JavaBinCodec().unmarshal(in);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        //zig-zag encoding, hence small negative deltas are short as well
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.write((int) zigZag);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of the spooled batch");
+            }
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("Malformed var long in the spooled batch");
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -22,15 +22,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.text.DecimalFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.Normalizer;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
+import java.text.ParseException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A generic csv file importer.
@@ -42,31 +45,43 @@ public class FileImporter {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileImporter.class);
 
     private static final String METRICS_FILE_PATH = "metrics.csv";
+    //uncompressed files are split into ranges of at least this size that are parsed in parallel
+    private static final long RANGE_SIZE = 32L * 1024 * 1024;
     private final String dateFormat;
     private final Locale numberLocal;
     private final String csvDelimiter;
-
-    private boolean longDate = false;
-    private boolean instantDate = false;
-    private boolean sdfDate = false;
+    private final char delimiter;
+    private final int streamingPoints;
+    private final ImportScheduler scheduler;
+    //the number of attributes that identify a time series if the files are merged, 0 imports each file on its own
+    private int mergeSeriesAttributes;
 
     /**
-     * Constructs a file importer
+     * Constructs a file importer that reads the whole file before the points are passed to the databases
      *
      * @param dateFormat  the date format: long for ms since 1970, 'instant' for java 8 instant,
      *                    otherwise simple date format
      * @param numberLocal the number local, e.g. ENGLISH, GERMAN, ...
      */
     public FileImporter(String dateFormat, String numberLocal, String csvDelimiter) {
-        this.dateFormat = dateFormat;
+        this(dateFormat, numberLocal, csvDelimiter, 0, 0);
+    }
 
-        if (dateFormat.equalsIgnoreCase("long")) {
-            longDate = true;
-        } else if (dateFormat.equalsIgnoreCase("instant")) {
-            instantDate = true;
-        } else {
-            sdfDate = true;
-        }
+    /**
+     * Constructs a file importer
+     *
+     * @param dateFormat      the date format: long for ms since 1970, 'instant' for java 8 instant,
+     *                        otherwise simple date format
+     * @param numberLocal     the number local, e.g. ENGLISH, GERMAN, ...
+     * @param streamingPoints the number of points per time series that are passed to the databases
+     *                        while the file is read, e.g. the points of one chunk. Hence the memory per file
+     *                        is bound by columns x streaming points. 0 reads the whole file first.
+     * @param importThreads   the number of threads that import the files, 0 for one thread per processor
+     */
+    public FileImporter(String dateFormat, String numberLocal, String csvDelimiter, int streamingPoints, int importThreads) {
+        this.dateFormat = dateFormat;
+        this.streamingPoints = streamingPoints;
+        this.scheduler = new ImportScheduler(importThreads);
 
         if (numberLocal.equalsIgnoreCase("german")) {
             this.numberLocal = Locale.GERMAN;
@@ -74,25 +89,48 @@ public class FileImporter {
             this.numberLocal = Locale.ENGLISH;
         }
 
+        if (csvDelimiter.length() != 1) {
+            throw new IllegalArgumentException("The csv delimiter must be a single character. Got: " + csvDelimiter);
+        }
         this.csvDelimiter = csvDelimiter;
-
+        this.delimiter = csvDelimiter.charAt(0);
 
     }
 
+    /**
+     * Merges the points of a time series from all files before they are passed to the databases.
+     * The files are grouped by the series part of their names, e.g. the files of all days of a host, group and source.
+     * The files of a group are read, the points of each time series are k-way merged without duplicate timestamps
+     * and passed once to the databases. Hence the time series are chunked as a whole.
+     * The groups are read one after the other by all import threads and a group is merged as soon as its last
+     * file is read. The points of a group are kept in memory until they are merged, i.e. the points of at most
+     * one group per import thread.
+     *
+     * @param seriesAttributes the number of attributes from the file name that identify a time series,
+     *                         i.e. the configured attribute fields. 0 imports each file on its own.
+     */
+    public void setMergeSeries(int seriesAttributes) {
+        this.mergeSeriesAttributes = seriesAttributes;
+    }
 
     /**
-     * Reads the given file / folder and calls the bi consumer with the extracted points
+     * Reads the given file / folder and calls the bi consumer with the extracted points.
+     * In streaming mode the bi consumer is called once per streaming points of a time series.
+     * All calls but the last of a time series get partial points, see {@link ImportPoints#isPartial()}.
+     * Large uncompressed files are split into ranges of lines that are parsed in parallel.
+     * If the time series are merged, the bi consumer is called once per time series and group of files.
      *
      * @param points
      * @param folder
      * @param databases
      * @return
      */
-    public Pair<Integer, Integer> importPoints(Map<Attributes, Pair<Instant, Instant>> points, File folder, BiConsumer<List<ImportPoint>, Attributes>... databases) {
+    public Pair<Integer, Integer> importPoints(Map<Attributes, Pair<Instant, Instant>> points, File folder, BiConsumer<ImportPoints, Attributes>... databases) {
 
 
         final AtomicInteger pointCounter = new AtomicInteger(0);
         final AtomicInteger tsCounter = new AtomicInteger(0);
+        final AtomicInteger sortedCounter = new AtomicInteger(0);
         final File metricsFile = new File(METRICS_FILE_PATH);
 
         LOGGER.info("Writing imported metrics to {}", metricsFile);
@@ -110,25 +148,25 @@ public class FileImporter {
 
             AtomicInteger counter = new AtomicInteger(0);
 
-            files.parallelStream().forEach(file -> {
-                SimpleDateFormat sdf = new SimpleDateFormat(dateFormat);
-                NumberFormat nf = DecimalFormat.getInstance(numberLocal);
+            //the merger collects the points of the files and passes the merged time series to the databases
+            SeriesMerger merger = mergeSeriesAttributes > 0 ? new SeriesMerger(mergeSeriesAttributes) : null;
+            BiConsumer<ImportPoints, Attributes>[] fileDatabases = merger == null ? databases : new BiConsumer[]{merger};
 
+            Consumer<File> importFile = file -> {
                 InputStream inputStream = null;
-                BufferedReader reader = null;
+                CsvTokenizer tokenizer = null;
                 try {
-                    inputStream = new FileInputStream(file);
-
                     if (file.getName().endsWith("gz")) {
-                        inputStream = new GZIPInputStream(inputStream);
+                        inputStream = new PipelinedGzipInputStream(new FileInputStream(file));
+                        tokenizer = new CsvTokenizer(inputStream, delimiter);
+                    } else {
+                        //uncompressed files are mapped
+                        tokenizer = new CsvTokenizer(FileChannel.open(file.toPath(), StandardOpenOption.READ), 0, file.length(), delimiter);
                     }
-                    reader = new BufferedReader(new InputStreamReader(inputStream));
 
                     //Read the first line
-                    String headerLine = reader.readLine();
-
-                    if (headerLine == null || headerLine.isEmpty()) {
-                        boolean deleted = deleteFile(file, inputStream, reader);
+                    if (!tokenizer.nextLine() || tokenizer.cells() == 0) {
+                        boolean deleted = deleteFile(file, inputStream, tokenizer);
                         LOGGER.debug("File is empty {}. File {} removed {}", file.getName(), deleted);
                         return;
                     }
@@ -137,8 +175,10 @@ public class FileImporter {
                     //E.g. first_second_third_attribute.csv
                     String[] fileNameMetaData = file.getName().split("_");
 
-
-                    String[] metrics = headerLine.split(csvDelimiter);
+                    String[] metrics = new String[tokenizer.cells()];
+                    for (int i = 0; i < metrics.length; i++) {
+                        metrics[i] = tokenizer.cellAsString(i);
+                    }
 
                     Map<Integer, Attributes> attributesPerTimeSeries = new HashMap<>(metrics.length);
 
@@ -151,13 +191,13 @@ public class FileImporter {
 
                         //Check if meta data is completely set
                         if (isEmpty(attributes)) {
-                            boolean deleted = deleteFile(file, inputStream, reader);
+                            boolean deleted = deleteFile(file, inputStream, tokenizer);
                             LOGGER.info("Attributes contains empty values {}. File {} deleted {}", attributes, file.getName(), deleted);
                             continue;
                         }
 
                         if (attributes.getMetric().equals(".*")) {
-                            boolean deleted = deleteFile(file, inputStream, reader);
+                            boolean deleted = deleteFile(file, inputStream, tokenizer);
                             LOGGER.info("Attributes metric{}. File {} deleted {}", attributes.getMetric(), file.getName(), deleted);
                             continue;
                         }
@@ -166,80 +206,206 @@ public class FileImporter {
 
                     }
 
-                    Map<Integer, List<ImportPoint>> dataPoints = new HashMap<>();
-
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        String[] splits = line.split(csvDelimiter);
-                        String date = splits[0];
-
-
-                        Instant dateObject;
-                        if (instantDate) {
-                            dateObject = Instant.parse(date);
-                        } else if (sdfDate) {
-                            dateObject = sdf.parse(date).toInstant();
-                        } else {
-                            dateObject = Instant.ofEpochMilli(Long.valueOf(date));
+                    int numberOfColumns = metrics.length - 1;
+                    //the first and last timestamp of each column
+                    long[] starts = new long[numberOfColumns];
+                    long[] ends = new long[numberOfColumns];
+                    Arrays.fill(starts, Long.MAX_VALUE);
+                    Arrays.fill(ends, Long.MIN_VALUE);
+                    //the streaming import passes the points in parts, the last part is passed at the end of the file
+                    Consumer<ColumnBuffer> flush = buffer -> flush(buffer, attributesPerTimeSeries, starts, ends, fileDatabases, true);
+
+                    ColumnBuffer columns;
+                    int ranges = ranges(file);
+                    if (ranges > 1) {
+                        //the header is parsed once, the rows are split into ranges that are parsed in parallel
+                        long[] boundaries = FileRanges.split(file, tokenizer.position(), ranges);
+                        IOUtils.closeQuietly(tokenizer);
+                        IOUtils.closeQuietly(inputStream);
+                        LOGGER.debug("Parsing file {} in {} ranges", file.getName(), boundaries.length - 1);
+
+                        List<ColumnBuffer> parts = parseRanges(file, boundaries, numberOfColumns, flush, pointCounter);
+                        columns = parts.get(0);
+                        for (int part = 1; part < parts.size(); part++) {
+                            columns.append(parts.get(part));
                         }
-
-
-                        for (int column = 1; column < splits.length; column++) {
-
-                            String value = splits[column];
-                            double numericValue = nf.parse(value).doubleValue();
-
-                            ImportPoint point = new ImportPoint(dateObject, numericValue);
-
-
-                            if (!dataPoints.containsKey(column)) {
-                                dataPoints.put(column, new ArrayList<>());
-                            }
-                            dataPoints.get(column).add(point);
-                            pointCounter.incrementAndGet();
-                        }
-
+                    } else {
+                        columns = new ColumnBuffer(numberOfColumns);
+                        parseRows(tokenizer, columns, flush, pointCounter);
                     }
 
+                    flush(columns, attributesPerTimeSeries, starts, ends, fileDatabases, false);
+                    sortedCounter.addAndGet(columns.sortedColumns());
 
-                    dataPoints.values().forEach(Collections::sort);
-
-                    IOUtils.closeQuietly(reader);
+                    IOUtils.closeQuietly(tokenizer);
                     IOUtils.closeQuietly(inputStream);
 
-                    dataPoints.forEach((key, importPoints) -> {
-                        for (BiConsumer<List<ImportPoint>, Attributes> database : databases) {
-                            database.accept(importPoints, attributesPerTimeSeries.get(key));
-                        }
-                        points.put(attributesPerTimeSeries.get(key), Pair.of(importPoints.get(0).getDate(), importPoints.get(importPoints.size() - 1).getDate()));
-                        //write the stats to the file
-                        Instant start = importPoints.get(0).getDate();
-                        Instant end = importPoints.get(importPoints.size() - 1).getDate();
-
-                        try {
-                            writeStatsLine(metricsFileWriter, attributesPerTimeSeries.get(key), start, end);
-                        } catch (IOException e) {
-                            LOGGER.error("Could not write stats line", e);
+                    for (int column = 0; column < columns.columns() && merger == null; column++) {
+                        Attributes attributes = attributesPerTimeSeries.get(column + 1);
+                        if (attributes == null || starts[column] > ends[column]) {
+                            continue;
                         }
+
+                        writeStats(points, metricsFileWriter, attributes, starts[column], ends[column]);
                         LOGGER.info("{} of {} time series imported", counter.incrementAndGet(), tsCounter.get());
-                    });
+                    }
 
 
                 } catch (Exception e) {
                     LOGGER.info("Exception while reading points.", e);
                 } finally {
                     //close all streams
-                    IOUtils.closeQuietly(reader);
+                    IOUtils.closeQuietly(tokenizer);
                     IOUtils.closeQuietly(inputStream);
                 }
 
-            });
+            };
+
+            if (merger == null) {
+                scheduler.run(files, importFile);
+            } else {
+                Map<String, List<File>> groups = new HashMap<>();
+                for (File file : files) {
+                    groups.computeIfAbsent(merger.group(file.getName()), key -> new ArrayList<>()).add(file);
+                }
+                LOGGER.info("Merging the time series of {} files in {} groups", files.size(), groups.size());
+                //the stats are written per merged time series
+                BiConsumer<ImportPoints, Attributes> stats = (importPoints, attributes) -> {
+                    writeStats(points, metricsFileWriter, attributes, importPoints.getTimestamp(0), importPoints.getTimestamp(importPoints.size() - 1));
+                    LOGGER.info("{} merged time series imported", counter.incrementAndGet());
+                };
+                BiConsumer<ImportPoints, Attributes>[] mergedDatabases = Arrays.copyOf(databases, databases.length + 1);
+                mergedDatabases[databases.length] = stats;
+                scheduler.run(groups.values(), importFile, group -> merger.merge(merger.group(group.get(0).getName()), mergedDatabases));
+                LOGGER.info(merger.report());
+            }
         } catch (Exception e) {
             LOGGER.error("Exception occurred during reading points.");
         }
+        LOGGER.info("{} of {} time series were not in time order and needed sorting", sortedCounter.get(), tsCounter.get());
         return Pair.of(tsCounter.get(), pointCounter.get());
     }
 
+    /**
+     * Gets the number of ranges that are parsed in parallel.
+     * Only large uncompressed files are split into ranges.
+     */
+    private int ranges(File file) {
+        if (file.getName().endsWith("gz")) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), file.length() / RANGE_SIZE));
+    }
+
+    /**
+     * Parses the byte ranges of the file in parallel on the fork join pool of the scheduler
+     *
+     * @return the points of each range in the order of the ranges
+     */
+    private List<ColumnBuffer> parseRanges(File file, long[] boundaries, int numberOfColumns, Consumer<ColumnBuffer> flush, AtomicInteger pointCounter) {
+        return IntStream.range(0, boundaries.length - 1).parallel().mapToObj(range -> {
+            ColumnBuffer columns = new ColumnBuffer(numberOfColumns);
+            try (CsvTokenizer tokenizer = new CsvTokenizer(FileChannel.open(file.toPath(), StandardOpenOption.READ), boundaries[range], boundaries[range + 1], delimiter)) {
+                parseRows(tokenizer, columns, flush, pointCounter);
+            } catch (IOException | ParseException e) {
+                throw new IllegalStateException("Could not parse range " + range + " of file " + file.getName(), e);
+            }
+            return columns;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Parses the rows of the tokenizer into the column buffer.
+     * In streaming mode the buffer is flushed every streaming points.
+     */
+    private void parseRows(CsvTokenizer tokenizer, ColumnBuffer columns, Consumer<ColumnBuffer> flush, AtomicInteger pointCounter) throws IOException, ParseException {
+        TimestampParser timestampParser = TimestampParser.of(dateFormat);
+        NumberParser numberParser = new NumberParser(numberLocal);
+
+        while (tokenizer.nextLine()) {
+            int cells = tokenizer.cells();
+            if (cells == 0) {
+                //skip empty lines
+                continue;
+            }
+
+            ByteBuffer line = tokenizer.buffer();
+            columns.addRow(timestampParser.parse(line, tokenizer.start(0), tokenizer.end(0)));
+
+            //cells without a metric in the header are ignored
+            int filledColumns = Math.min(cells - 1, columns.columns());
+            for (int column = 0; column < filledColumns; column++) {
+                int cell = column + 1;
+                columns.set(column, numberParser.parse(line, tokenizer.start(cell), tokenizer.end(cell)));
+            }
+            columns.endRow(filledColumns);
+            pointCounter.addAndGet(filledColumns);
+
+            if (streamingPoints > 0 && columns.rows() >= streamingPoints) {
+                flush.accept(columns);
+            }
+        }
+    }
+
+    /**
+     * Passes the buffered points to the databases and clears the buffer.
+     * The points are sorted before. Usually they are already in time order and nothing is sorted.
+     *
+     * @param partial true if more points of the file follow, i.e. the points are passed as partial points
+     */
+    private void flush(ColumnBuffer columns, Map<Integer, Attributes> attributesPerTimeSeries, long[] starts, long[] ends,
+                       BiConsumer<ImportPoints, Attributes>[] databases, boolean partial) {
+        columns.sort();
+        for (int column = 0; column < columns.columns(); column++) {
+            Attributes attributes = attributesPerTimeSeries.get(column + 1);
+            ImportPoints importPoints = columns.points(column);
+            if (attributes == null || importPoints.size() == 0 && (partial || !streamed(starts, column))) {
+                continue;
+            }
+
+            //the last part of a streamed time series ends it, also without points
+            ImportPoints passed = partial ? importPoints.partial() : importPoints;
+            for (BiConsumer<ImportPoints, Attributes> database : databases) {
+                database.accept(passed, attributes);
+            }
+            if (importPoints.size() == 0) {
+                continue;
+            }
+            //the ranges of a file are flushed in parallel
+            synchronized (starts) {
+                starts[column] = Math.min(starts[column], importPoints.getTimestamp(0));
+                ends[column] = Math.max(ends[column], importPoints.getTimestamp(importPoints.size() - 1));
+            }
+        }
+        columns.clear();
+    }
+
+    /**
+     * @return true if points of the column were passed before
+     */
+    private static boolean streamed(long[] starts, int column) {
+        synchronized (starts) {
+            return starts[column] != Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Records the first and last timestamp of a time series and writes them to the metrics file.
+     * The time series are imported in parallel.
+     */
+    private void writeStats(Map<Attributes, Pair<Instant, Instant>> points, FileWriter metricsFile, Attributes attributes, long start, long end) {
+        Instant first = Instant.ofEpochMilli(start);
+        Instant last = Instant.ofEpochMilli(end);
+        synchronized (points) {
+            points.put(attributes, Pair.of(first, last));
+            try {
+                writeStatsLine(metricsFile, attributes, first, last);
+            } catch (IOException e) {
+                LOGGER.error("Could not write stats line", e);
+            }
+        }
+    }
+
     private void writeStatsLine(FileWriter metricsFile, Attributes attributes, Instant start, Instant end) throws IOException {
         //host:process:metric-group:metric:start:end
         StringBuilder line = new StringBuilder();
@@ -255,7 +421,7 @@ public class FileImporter {
 
     }
 
-    private boolean deleteFile(File file, InputStream inputStream, BufferedReader reader) {
+    private boolean deleteFile(File file, InputStream inputStream, Closeable reader) {
         IOUtils.closeQuietly(reader);
         IOUtils.closeQuietly(inputStream);
 
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Splits an uncompressed csv file into byte ranges that start at the beginning of a line.
+ * Hence every range can be tokenized on its own.
+ *
+ * @author f.lautenschlager
+ */
+final class FileRanges {
+
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    private FileRanges() {
+        //avoid instances
+    }
+
+    /**
+     * Splits the given file into ranges of about the same size
+     *
+     * @param file   the file
+     * @param start  the offset of the first line, e.g. the end of the header line
+     * @param ranges the number of ranges
+     * @return the boundaries of the ranges, i.e. range i is [boundaries[i], boundaries[i + 1]).
+     * There are less ranges if a line is longer than a range.
+     * @throws IOException if the file could not be read
+     */
+    static long[] split(File file, long start, int ranges) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long end = input.length();
+            long rangeSize = Math.max(1, (end - start) / ranges);
+
+            long[] boundaries = new long[ranges + 1];
+            boundaries[0] = start;
+            int count = 1;
+            for (int range = 1; range < ranges; range++) {
+                long boundary = Math.max(start + range * rangeSize, boundaries[count - 1]);
+                boundary = nextLine(input, boundary, end);
+                if (boundary > boundaries[count - 1] && boundary < end) {
+                    boundaries[count++] = boundary;
+                }
+            }
+            boundaries[count++] = end;
+            return Arrays.copyOf(boundaries, count);
+        }
+    }
+
+    /**
+     * @return the offset after the first line break at or after the given offset or the end of the file
+     */
+    private static long nextLine(RandomAccessFile input, long offset, long end) throws IOException {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        //a range starts directly after a line break
+        long position = offset - 1;
+        input.seek(position);
+        while (position < end) {
+            int read = input.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import de.qaware.chronix.converter.common.DoubleList;
+import de.qaware.chronix.converter.common.LongList;
+
+import java.util.Arrays;
+
+/**
+ * The points of a time series stored as primitive arrays.
+ * The arrays might be larger than the number of points and might be shared with other time series.
+ * Hence only the first {@link #size()} entries are valid and the arrays must not be modified.
+ * The arrays are reused by the importer, i.e. the points are only valid while they are consumed.
+ * The streaming import passes the points of a time series in parts, all parts but the last are partial.
+ *
+ * @author f.lautenschlager
+ */
+public final class ImportPoints {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private final int size;
+    private final boolean partial;
+
+    /**
+     * Constructs the points
+     *
+     * @param timestamps the timestamps in ms since 1970
+     * @param values     the values
+     * @param size       the number of valid entries
+     */
+    ImportPoints(long[] timestamps, double[] values, int size) {
+        this(timestamps, values, size, false);
+    }
+
+    private ImportPoints(long[] timestamps, double[] values, int size, boolean partial) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+        this.partial = partial;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if more points of the time series follow, i.e. the points are a part of the time series
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return the same points as a part of the time series, i.e. more points follow
+     */
+    ImportPoints partial() {
+        return new ImportPoints(timestamps, values, size, true);
+    }
+
+    /**
+     * @param i the index of the point
+     * @return the timestamp of the point in ms since 1970
+     */
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * @param i the index of the point
+     * @return the value of the point
+     */
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Copies the valid points, e.g. to hand them to another thread
+     *
+     * @return the points with their own arrays
+     */
+    ImportPoints copy() {
+        return new ImportPoints(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size), size, partial);
+    }
+
+    /**
+     * @return the timestamps array. Only the first {@link #size()} entries are valid.
+     */
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the values array. Only the first {@link #size()} entries are valid.
+     */
+    double[] values() {
+        return values;
+    }
+
+    /**
+     * The timestamps of a range as list for the chunk builder. A range at the beginning wraps the array,
+     * any other range is one array copy.
+     *
+     * @param start the index of the first point
+     * @param end   the index after the last point
+     * @return the timestamps of the range
+     */
+    LongList timestamps(int start, int end) {
+        if (start == 0) {
+            return new LongList(timestamps, end);
+        }
+        return new LongList(Arrays.copyOfRange(timestamps, start, end), end - start);
+    }
+
+    /**
+     * The values of a range as list for the chunk builder, see {@link #timestamps(int, int)}
+     *
+     * @param start the index of the first point
+     * @param end   the index after the last point
+     * @return the values of the range
+     */
+    DoubleList values(int start, int end) {
+        if (start == 0) {
+            return new DoubleList(values, end);
+        }
+        return new DoubleList(Arrays.copyOfRange(values, start, end), end - start);
+    }
+
+    @Override
+    public String toString() {
+        return "ImportPoints{" +
+                "size=" + size +
+                ", partial=" + partial +
+                '}';
+    }
+}
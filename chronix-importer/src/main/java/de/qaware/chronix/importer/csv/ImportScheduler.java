@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Schedules the import of the files on its own work stealing pool.
+ * <p>
+ * The largest files are imported first (longest processing time first). Hence a huge file does not start
+ * at the end of the import while the other workers are idle. The tasks forked while a file is imported
+ * (e.g. the ranges of a large file) are stolen by idle workers.
+ * <p>
+ * Groups of files, e.g. the files whose time series are merged, are imported one group after the other,
+ * each group by all idle workers. A group is completed by the worker that imported its last file, while
+ * the other workers go on with the next group.
+ *
+ * @author f.lautenschlager
+ */
+final class ImportScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportScheduler.class);
+
+    private static final Comparator<File> LARGEST_FIRST = Comparator.comparingLong(File::length).reversed();
+
+    private final int parallelism;
+
+    /**
+     * Constructs a scheduler
+     *
+     * @param parallelism the number of workers, 0 for one worker per processor
+     */
+    ImportScheduler(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("The parallelism must not be negative. Got: " + parallelism);
+        }
+        this.parallelism = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+    }
+
+    /**
+     * Imports the given files, the largest first. Blocks until all files are imported and logs the utilization of the workers.
+     *
+     * @param files      the files
+     * @param importFile the import of a single file
+     */
+    void run(Collection<File> files, Consumer<File> importFile) {
+        List<File> largestFirst = new ArrayList<>(files);
+        largestFirst.sort(LARGEST_FIRST);
+        importInOrder(largestFirst, importFile);
+    }
+
+    /**
+     * Imports the given groups of files, the largest group first and the files of a group largest first.
+     * The workers take the files in this order. Hence at most one group per worker is imported at once,
+     * i.e. the groups that are not completed are bound by the number of workers.
+     * Blocks until all groups are completed.
+     *
+     * @param groups        the groups of files
+     * @param importFile    the import of a single file
+     * @param completeGroup called once per group after all its files are imported, e.g. if some of them failed
+     */
+    void run(Collection<List<File>> groups, Consumer<File> importFile, Consumer<List<File>> completeGroup) {
+        List<List<File>> largestFirst = new ArrayList<>(groups);
+        largestFirst.sort(Comparator.comparingLong(ImportScheduler::length).reversed());
+
+        List<File> files = new ArrayList<>();
+        Map<File, Pair<List<File>, AtomicInteger>> remaining = new HashMap<>();
+        for (List<File> group : largestFirst) {
+            List<File> groupFiles = new ArrayList<>(group);
+            groupFiles.sort(LARGEST_FIRST);
+            files.addAll(groupFiles);
+            Pair<List<File>, AtomicInteger> remainingFiles = Pair.of(group, new AtomicInteger(group.size()));
+            for (File file : group) {
+                remaining.put(file, remainingFiles);
+            }
+        }
+
+        importInOrder(files, file -> {
+            Pair<List<File>, AtomicInteger> group = remaining.get(file);
+            try {
+                importFile.accept(file);
+            } finally {
+                if (group.getSecond().decrementAndGet() == 0) {
+                    completeGroup.accept(group.getFirst());
+                }
+            }
+        });
+    }
+
+    private static long length(List<File> group) {
+        long length = 0;
+        for (File file : group) {
+            length += file.length();
+        }
+        return length;
+    }
+
+    /**
+     * Imports the files in the given order
+     */
+    private void importInOrder(List<File> largestFirst, Consumer<File> importFile) {
+        AtomicInteger workerNumber = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("importer-worker-" + workerNumber.incrementAndGet());
+            return thread;
+        }, null, false);
+
+        Map<String, WorkerStatistics> statistics = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            //every worker takes the largest remaining file
+            List<ForkJoinTask<?>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(pool.submit(() -> {
+                    WorkerStatistics worker = statistics.computeIfAbsent(Thread.currentThread().getName(), name -> new WorkerStatistics());
+                    int index;
+                    while ((index = next.getAndIncrement()) < largestFirst.size()) {
+                        File file = largestFirst.get(index);
+                        long fileStart = System.nanoTime();
+                        importFile.accept(file);
+                        worker.add(file.length(), System.nanoTime() - fileStart);
+                    }
+                }));
+            }
+            workers.forEach(ForkJoinTask::join);
+        } finally {
+            pool.shutdown();
+        }
+
+        long wallTime = System.nanoTime() - start;
+        statistics.forEach((name, worker) -> LOGGER.info("{} imported {} files ({} MB) and was busy {} of {} ms ({} %)",
+                name, worker.files, worker.bytes / (1024 * 1024),
+                TimeUnit.NANOSECONDS.toMillis(worker.busy), TimeUnit.NANOSECONDS.toMillis(wallTime),
+                wallTime == 0 ? 100 : 100 * worker.busy / wallTime));
+        LOGGER.info("{} workers imported {} files. {} tasks were stolen.", parallelism, largestFirst.size(), pool.getStealCount());
+    }
+
+    /**
+     * The files and the time a worker spent on importing them
+     */
+    private static final class WorkerStatistics {
+        private int files;
+        private long bytes;
+        private long busy;
+
+        private void add(long fileBytes, long time) {
+            files++;
+            bytes += fileBytes;
+            busy += time;
+        }
+    }
+}
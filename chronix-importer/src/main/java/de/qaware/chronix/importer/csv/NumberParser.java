@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.Locale;
+
+/**
+ * Parses the numeric values of a csv file directly from the cell offsets of the {@link CsvTokenizer}.
+ * <p>
+ * Reads the grouping and decimal separators of the number locale (e.g. 3,498,745,856 or 79.4 for ENGLISH)
+ * straight from the buffer and returns a primitive double.
+ * The value is exact if the digits fit into 53 bits and there are at most 22 fraction digits,
+ * as both the digits and the power of ten are exact doubles and the division is correctly rounded.
+ * All other values (e.g. exponents, trailing characters, many digits) are parsed with the {@link NumberFormat}.
+ * Hence the results are the same as with {@link NumberFormat#parse(String)}.
+ * <p>
+ * A parser is not thread safe. Use one parser per file.
+ *
+ * @author f.lautenschlager
+ */
+final class NumberParser {
+
+    //the largest integer that is exactly representable as double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    //powers of ten that are exactly representable as double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final NumberFormat numberFormat;
+    private final boolean fastPath;
+    private final byte grouping;
+    private final byte decimal;
+    private final byte minus;
+
+    /**
+     * Constructs a number parser
+     *
+     * @param numberLocal the number local, e.g. ENGLISH, GERMAN, ...
+     */
+    NumberParser(Locale numberLocal) {
+        this.numberFormat = NumberFormat.getInstance(numberLocal);
+
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(numberLocal);
+        char groupingSeparator = symbols.getGroupingSeparator();
+        char decimalSeparator = symbols.getDecimalSeparator();
+        char minusSign = symbols.getMinusSign();
+
+        //The fast path only handles ascii symbols
+        this.fastPath = isAscii(groupingSeparator) && isAscii(decimalSeparator) && isAscii(minusSign);
+        this.grouping = (byte) groupingSeparator;
+        this.decimal = (byte) decimalSeparator;
+        this.minus = (byte) minusSign;
+    }
+
+    private static boolean isAscii(char c) {
+        return c <= 0x7F && !Character.isDigit(c);
+    }
+
+    /**
+     * Parses the numeric value between the given offsets
+     *
+     * @param buffer the buffer holding the value
+     * @param start  the offset of the first byte
+     * @param end    the offset after the last byte
+     * @return the numeric value
+     * @throws ParseException if the value is not a number
+     */
+    double parse(ByteBuffer buffer, int start, int end) throws ParseException {
+        if (!fastPath) {
+            return fallback(buffer, start, end);
+        }
+
+        int offset = start;
+        boolean negative = false;
+        if (offset < end && buffer.get(offset) == minus) {
+            negative = true;
+            offset++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean sawDigit = false;
+        boolean sawDecimal = false;
+
+        for (int i = offset; i < end; i++) {
+            byte current = buffer.get(i);
+            int digit = current - '0';
+            if (digit >= 0 && digit <= 9) {
+                sawDigit = true;
+                mantissa = mantissa * 10 + digit;
+                if (mantissa > MAX_EXACT_MANTISSA) {
+                    return fallback(buffer, start, end);
+                }
+                if (sawDecimal) {
+                    fractionDigits++;
+                }
+            } else if (current == grouping && !sawDecimal) {
+                //grouping separators are ignored before the decimal separator
+                continue;
+            } else if (current == decimal && !sawDecimal) {
+                sawDecimal = true;
+            } else {
+                return fallback(buffer, start, end);
+            }
+        }
+
+        if (!sawDigit || fractionDigits >= POWERS_OF_TEN.length) {
+            return fallback(buffer, start, end);
+        }
+
+        double value = (double) mantissa;
+        if (fractionDigits > 0) {
+            value /= POWERS_OF_TEN[fractionDigits];
+        }
+        return negative ? -value : value;
+    }
+
+    private double fallback(ByteBuffer buffer, int start, int end) throws ParseException {
+        return numberFormat.parse(CsvTokenizer.decode(buffer, start, end)).doubleValue();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the import pipeline with its own threads and a bounded queue.
+ * <p>
+ * The previous stage hands the items over with {@link #put(Object)}. It blocks if the queue is full,
+ * i.e. a slow stage (e.g. sending to Chronix) pushes back on the stages before (e.g. reading the files)
+ * instead of piling up the items on the heap.
+ * The stage counts the processed items, the time its threads were busy and the time the previous stage was blocked.
+ *
+ * @param <T> the type of the items
+ * @author f.lautenschlager
+ */
+final class PipelineStage<T> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineStage.class);
+
+    //the marker that stops a thread of the stage
+    private static final Object END = new Object();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final Consumer<T> action;
+    private final List<Thread> threads;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busy = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final long started = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * Constructs and starts a stage
+     *
+     * @param name     the name of the stage, e.g. encode
+     * @param threads  the number of threads that process the items
+     * @param capacity the number of items that are queued before {@link #put(Object)} blocks
+     * @param action   the processing of an item
+     */
+    PipelineStage(String name, int threads, int capacity, Consumer<T> action) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("A stage needs at least one thread and a capacity of one item. Got: " + threads + " and " + capacity);
+        }
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.action = action;
+        this.threads = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::process, name + "-stage-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            this.threads.add(thread);
+        }
+    }
+
+    /**
+     * Hands an item to the stage. Blocks until the queue has room for the item.
+     *
+     * @param item the item
+     */
+    void put(T item) {
+        if (closed) {
+            throw new IllegalStateException("The stage " + name + " is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing an item to the stage " + name, e);
+        }
+        blocked.addAndGet(System.nanoTime() - start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process() {
+        try {
+            Object item;
+            while ((item = queue.take()) != END) {
+                long start = System.nanoTime();
+                try {
+                    action.accept((T) item);
+                    processed.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOGGER.error("Stage {} could not process an item", name, e);
+                }
+                busy.addAndGet(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of processed items
+     */
+    long processed() {
+        return processed.get();
+    }
+
+    /**
+     * @return the number of items that could not be processed
+     */
+    long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Waits until all queued items are processed, stops the threads and logs the statistics of the stage.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < threads.size(); i++) {
+                queue.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while waiting for the stage {}", name);
+        }
+
+        long time = Math.max(1, System.nanoTime() - started);
+        LOGGER.info("Stage {}: {} items ({} failed) in {} ms ({} items/s) with {} threads. Busy {} %, previous stage blocked {} ms",
+                name, processed.get(), failed.get(), TimeUnit.NANOSECONDS.toMillis(time),
+                processed.get() * TimeUnit.SECONDS.toNanos(1) / time, threads.size(),
+                100 * busy.get() / (time * threads.size()), TimeUnit.NANOSECONDS.toMillis(blocked.get()));
+    }
+}
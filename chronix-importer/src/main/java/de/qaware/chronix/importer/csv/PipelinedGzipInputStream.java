@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A gzip input stream that inflates the compressed input on its own thread.
+ * <p>
+ * The inflated bytes are handed to the reading thread in large blocks through a bounded queue.
+ * The blocks are reused, i.e. the inflater waits if the reader is behind and the reader only waits
+ * if the inflater is behind.
+ * Files with independent blocks that carry their compressed size (bgzf, e.g. written by bgzip) are inflated
+ * in parallel. Other files, including files with several gzip members, are inflated sequentially.
+ *
+ * @author f.lautenschlager
+ */
+final class PipelinedGzipInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int BLOCKS = 4;
+    //a bgzf block has at most 64 KiB of inflated data
+    private static final int BGZF_BLOCK_SIZE = 64 * 1024;
+    private static final int BGZF_BLOCKS = 64;
+
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+    private static final int GZIP_HEADER_SIZE = 12;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int FEXTRA = 4;
+    private static final int MAX_EXTRA_LENGTH = 0xFFFF;
+    //the time close waits for the inflater thread
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    //the marker for the end of the inflated data
+    private static final Block END = new Block(0);
+
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> filled;
+    private final Thread inflater;
+    private final InputStream source;
+    private volatile IOException failure;
+
+    private Block current;
+    private int position;
+    private boolean closed;
+    //the buffer of the single byte reads that go past the current block
+    private final byte[] single = new byte[1];
+
+    /**
+     * Starts inflating the given gzip input
+     *
+     * @param compressed the gzip compressed input, e.g. a .csv.gz file. It is closed with this stream.
+     * @throws IOException if the input could not be read
+     */
+    PipelinedGzipInputStream(InputStream compressed) throws IOException {
+        this.source = compressed;
+        BufferedInputStream input = new BufferedInputStream(compressed, INPUT_BUFFER_SIZE);
+        boolean bgzf = isBgzf(input);
+
+        int blocks = bgzf ? BGZF_BLOCKS : BLOCKS;
+        //the bgzf blocks have room for one more byte, hence the inflater reaches the end of a full block
+        int blockSize = bgzf ? BGZF_BLOCK_SIZE + 1 : BLOCK_SIZE;
+        this.free = new ArrayBlockingQueue<>(blocks);
+        //one more for the end marker
+        this.filled = new ArrayBlockingQueue<>(blocks + 1);
+        for (int i = 0; i < blocks; i++) {
+            free.add(new Block(blockSize));
+        }
+
+        Runnable inflate = bgzf ? () -> inflateBgzf(input, blocks / 2) : () -> inflate(input);
+        this.inflater = new Thread(inflate, "gzip-inflater-" + THREADS.incrementAndGet());
+        this.inflater.setDaemon(true);
+        this.inflater.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (current != null && position < current.length) {
+            return current.data[position++] & 0xFF;
+        }
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length) {
+            if (current == END) {
+                //the failure stays, i.e. every later read throws it again
+                if (failure != null) {
+                    throw failure;
+                }
+                return -1;
+            }
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            current = take();
+            position = 0;
+        }
+
+        int read = Math.min(length, current.length - position);
+        System.arraycopy(current.data, position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    private Block take() throws IOException {
+        try {
+            return filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for inflated data");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        //stops the inflater if it waits for a free block, closing the source stops it if it waits for input
+        inflater.interrupt();
+        try {
+            inflater.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Inflates the input sequentially into the blocks
+     */
+    private void inflate(InputStream input) {
+        try (InputStream gzip = new GZIPInputStream(input, INPUT_BUFFER_SIZE)) {
+            while (true) {
+                Block block = free.take();
+                block.length = IOUtils.read(gzip, block.data);
+                if (block.length > 0) {
+                    filled.put(block);
+                }
+                if (block.length < block.data.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            //the stream was closed
+            return;
+        }
+        filled.add(END);
+    }
+
+    /**
+     * Reads the bgzf blocks and inflates up to the given number of blocks in parallel.
+     * The blocks are handed to the reader in the order of the file.
+     */
+    private void inflateBgzf(InputStream input, int parallelBlocks) {
+        Deque<CompletableFuture<Block>> inflating = new ArrayDeque<>(parallelBlocks);
+        try (DataInputStream data = new DataInputStream(input)) {
+            byte[] member;
+            while ((member = readBgzfMember(data)) != null) {
+                if (inflating.size() == parallelBlocks) {
+                    hand(inflating.poll().join());
+                }
+                Block block = free.take();
+                byte[] compressed = member;
+                inflating.add(CompletableFuture.supplyAsync(() -> inflateBgzfMember(compressed, block), Pool.EXECUTOR));
+            }
+            while (!inflating.isEmpty()) {
+                hand(inflating.poll().join());
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (CompletionException e) {
+            failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            //the stream was closed
+            return;
+        }
+        filled.add(END);
+    }
+
+    private void hand(Block block) throws InterruptedException {
+        if (block.length > 0) {
+            filled.put(block);
+        } else {
+            //e.g. the empty end of file block of bgzf
+            free.put(block);
+        }
+    }
+
+    /**
+     * Checks if the first gzip member of the input has the bgzf extra field with the compressed block size
+     */
+    private static boolean isBgzf(BufferedInputStream input) throws IOException {
+        input.mark(GZIP_HEADER_SIZE + MAX_EXTRA_LENGTH);
+        try {
+            byte[] header = new byte[GZIP_HEADER_SIZE];
+            int extraLength = IOUtils.read(input, header) == GZIP_HEADER_SIZE ? extraLength(header) : -1;
+            if (extraLength < 0) {
+                return false;
+            }
+            byte[] extra = new byte[extraLength];
+            return IOUtils.read(input, extra) == extraLength && blockSize(extra) > 0;
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * @return the length of the extra field of the gzip header or -1 if there is none
+     */
+    private static int extraLength(byte[] header) {
+        boolean gzip = (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B && header[2] == 8;
+        if (!gzip || (header[3] & FEXTRA) == 0) {
+            return -1;
+        }
+        return (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+    }
+
+    /**
+     * @return the size of the bgzf member from the BC subfield of the extra field or -1 if there is none
+     */
+    private static int blockSize(byte[] extra) {
+        for (int i = 0; i + 4 <= extra.length; i += 4 + ((extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8)) {
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && i + 6 <= extra.length) {
+                return ((extra[i + 4] & 0xFF) | (extra[i + 5] & 0xFF) << 8) + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a complete bgzf member
+     *
+     * @return the content of the member after the extra field, i.e. the deflated data and the trailer, or null at the end of the input
+     */
+    private static byte[] readBgzfMember(DataInputStream input) throws IOException {
+        byte[] header = new byte[GZIP_HEADER_SIZE];
+        int first = input.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        input.readFully(header, 1, GZIP_HEADER_SIZE - 1);
+
+        int extraLength = extraLength(header);
+        if (extraLength < 0) {
+            throw new IOException("Not a bgzf block. All members of the file must be bgzf blocks.");
+        }
+        byte[] extra = new byte[extraLength];
+        input.readFully(extra);
+
+        int blockSize = blockSize(extra);
+        int remaining = blockSize - GZIP_HEADER_SIZE - extraLength;
+        if (blockSize < 0 || remaining < GZIP_TRAILER_SIZE) {
+            throw new IOException("Invalid bgzf block size " + blockSize);
+        }
+
+        byte[] member = new byte[remaining];
+        try {
+            input.readFully(member);
+        } catch (EOFException e) {
+            throw new IOException("Truncated bgzf block", e);
+        }
+        return member;
+    }
+
+    /**
+     * Inflates the deflated data of a bgzf member and checks the crc and the size of the trailer
+     */
+    private static Block inflateBgzfMember(byte[] member, Block block) {
+        int deflatedLength = member.length - GZIP_TRAILER_SIZE;
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, 0, deflatedLength);
+            block.length = inflater.inflate(block.data);
+            if (!inflater.finished()) {
+                throw new CompletionException(new IOException("The bgzf block is larger than " + block.data.length + " bytes"));
+            }
+        } catch (DataFormatException e) {
+            throw new CompletionException(new IOException("Invalid deflate data", e));
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(block.data, 0, block.length);
+        long expectedCrc = littleEndianInt(member, deflatedLength) & 0xFFFFFFFFL;
+        int expectedSize = littleEndianInt(member, deflatedLength + 4);
+        if (crc.getValue() != expectedCrc || block.length != expectedSize) {
+            throw new CompletionException(new IOException("Corrupt bgzf block"));
+        }
+        return block;
+    }
+
+    private static int littleEndianInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * A reusable block of inflated data
+     */
+    private static final class Block {
+        private final byte[] data;
+        private int length;
+
+        private Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    /**
+     * The threads that inflate bgzf blocks. Not the common fork join pool, as its threads parse the files
+     * and wait for the inflated data.
+     */
+    private static final class Pool {
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), runnable -> {
+                    Thread thread = new Thread(runnable, "bgzf-inflater-" + THREADS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.util.Arrays;
+
+/**
+ * An adaptive merge sort for timestamps stored in primitive arrays.
+ * It detects the sorted runs of the timestamps and merges neighboured runs until one run is left.
+ * Mostly sorted data has only a few runs and hence costs only a few linear passes.
+ * The sort is stable, i.e. points with the same timestamp keep their order.
+ *
+ * @author f.lautenschlager
+ */
+final class RunMergeSort {
+
+    private RunMergeSort() {
+        //avoid instances
+    }
+
+    /**
+     * Calculates the sort order of the given timestamps
+     *
+     * @param timestamps the timestamps
+     * @param size       the number of valid timestamps
+     * @return the indices of the timestamps in sorted order
+     */
+    static int[] order(long[] timestamps, int size) {
+        //the start of each run and the end of the last run
+        int[] bounds = new int[16];
+        int runs = 0;
+        bounds[runs++] = 0;
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                if (runs == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, runs * 2);
+                }
+                bounds[runs++] = i;
+            }
+        }
+        if (runs == bounds.length) {
+            bounds = Arrays.copyOf(bounds, runs + 1);
+        }
+        bounds[runs] = size;
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] merged = new int[size];
+
+        while (runs > 1) {
+            int mergedRuns = 0;
+            for (int run = 0; run < runs; run += 2) {
+                int low = bounds[run];
+                int middle = bounds[run + 1];
+                int high = run + 2 <= runs ? bounds[run + 2] : middle;
+                merge(timestamps, order, merged, low, middle, high);
+                bounds[mergedRuns++] = low;
+            }
+            bounds[mergedRuns] = size;
+            runs = mergedRuns;
+
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    private static void merge(long[] timestamps, int[] order, int[] merged, int low, int middle, int high) {
+        //the runs are already in order
+        if (middle == high || timestamps[order[middle - 1]] <= timestamps[order[middle]]) {
+            System.arraycopy(order, low, merged, low, high - low);
+            return;
+        }
+
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++) {
+            if (left < middle && (right >= high || timestamps[order[left]] <= timestamps[order[right]])) {
+                merged[i] = order[left++];
+            } else {
+                merged[i] = order[right++];
+            }
+        }
+    }
+
+    /**
+     * Rearranges the first entries of the array in the given order
+     *
+     * @param array the array
+     * @param order the order
+     * @return a new array with the rearranged entries and the same length
+     */
+    static long[] permute(long[] array, int[] order) {
+        long[] permuted = new long[array.length];
+        for (int i = 0; i < order.length; i++) {
+            permuted[i] = array[order[i]];
+        }
+        return permuted;
+    }
+
+    /**
+     * Rearranges the first entries of the array in the given order
+     *
+     * @param array the array
+     * @param order the order
+     * @return a new array with the rearranged entries and the same length
+     */
+    static double[] permute(double[] array, int[] order) {
+        double[] permuted = new double[array.length];
+        for (int i = 0; i < order.length; i++) {
+            permuted[i] = array[order[i]];
+        }
+        return permuted;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Merges the points of a time series that are spread over many files, e.g. several files per day.
+ * The points of each file are a sorted run. The runs of a time series are collected and k-way merged
+ * on primitive arrays, duplicate timestamps are removed. Hence a time series is passed once to the databases
+ * and is chunked as a whole instead of file by file, i.e. without partial and overlapping chunks.
+ * <p>
+ * The runs are collected per group, i.e. the series part of the file names (see {@link #group(String)}),
+ * and kept until the group is merged. Hence the memory is bound by the points of the groups that are
+ * imported at once.
+ *
+ * @author f.lautenschlager
+ */
+final class SeriesMerger implements BiConsumer<ImportPoints, Attributes> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeriesMerger.class);
+
+    //orders the runs by their first and then their last timestamp
+    private static final Comparator<ImportPoints> RUN_ORDER = Comparator.<ImportPoints>comparingLong(run -> run.getTimestamp(0))
+            .thenComparingLong(run -> run.getTimestamp(run.size() - 1));
+
+    private final int seriesAttributes;
+    //the runs of the time series per group
+    private final Map<String, Map<Attributes, List<ImportPoints>>> runs = new HashMap<>();
+
+    private long mergedRuns;
+    private long mergedSeries;
+    private long duplicates;
+
+    /**
+     * @param seriesAttributes the number of attributes that identify a time series together with the metric,
+     *                         i.e. the attributes that are stored. The remaining parts of the file names, e.g.
+     *                         the date, do not separate the time series.
+     */
+    SeriesMerger(int seriesAttributes) {
+        this.seriesAttributes = seriesAttributes;
+    }
+
+    /**
+     * Collects the points of a file. They are copied as the importer reuses the arrays.
+     *
+     * @param importPoints the points sorted by timestamp
+     * @param attributes   the attributes of the time series
+     */
+    @Override
+    public void accept(ImportPoints importPoints, Attributes attributes) {
+        if (importPoints.size() == 0) {
+            return;
+        }
+        ImportPoints run = importPoints.copy();
+        Attributes series = attributes.series(seriesAttributes);
+        synchronized (runs) {
+            runs.computeIfAbsent(group(series), key -> new LinkedHashMap<>())
+                    .computeIfAbsent(series, key -> new ArrayList<>()).add(run);
+        }
+    }
+
+    /**
+     * The group of a file, i.e. the series part of the file name.
+     * E.g. host_group_source_2016.03.01_10.15.17.csv.gz is in the group host_group_source of three series attributes.
+     *
+     * @param fileName the file name
+     * @return the group
+     */
+    String group(String fileName) {
+        String[] fileNameMetaData = fileName.split("_");
+        return String.join("_", Arrays.asList(fileNameMetaData).subList(0, Math.min(seriesAttributes, fileNameMetaData.length)));
+    }
+
+    /**
+     * @return the group of a time series, the attributes of a time series are the series part of its file names
+     */
+    private static String group(Attributes series) {
+        String[] attributes = new String[series.size()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = series.get(i);
+        }
+        return String.join("_", attributes);
+    }
+
+    /**
+     * Merges the collected runs of each time series of the group and passes the merged points to the databases.
+     * The collected runs of the group are cleared.
+     *
+     * @param group     the group, see {@link #group(String)}
+     * @param databases the databases
+     */
+    @SafeVarargs
+    final void merge(String group, BiConsumer<ImportPoints, Attributes>... databases) {
+        Map<Attributes, List<ImportPoints>> collected;
+        synchronized (runs) {
+            collected = runs.remove(group);
+        }
+        if (collected == null) {
+            return;
+        }
+        for (Map.Entry<Attributes, List<ImportPoints>> series : collected.entrySet()) {
+            List<ImportPoints> seriesRuns = series.getValue();
+            ImportPoints merged = merge(seriesRuns);
+            synchronized (this) {
+                mergedRuns += seriesRuns.size();
+                mergedSeries++;
+                duplicates += total(seriesRuns) - merged.size();
+            }
+            //the runs are released before the next time series is merged
+            series.setValue(null);
+            for (BiConsumer<ImportPoints, Attributes> database : databases) {
+                database.accept(merged, series.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the merged runs, time series and removed duplicates
+     */
+    synchronized String report() {
+        return String.format("Merged %d runs into %d time series. Removed %d duplicate timestamps",
+                mergedRuns, mergedSeries, duplicates);
+    }
+
+    /**
+     * Merges the sorted runs into one sorted run without duplicate timestamps.
+     * Of points with the same timestamp the point of the run that starts first is kept.
+     * Runs that do not overlap, e.g. of consecutive files, are concatenated.
+     *
+     * @param runs the runs, each sorted by timestamp
+     * @return the merged points
+     */
+    static ImportPoints merge(List<ImportPoints> runs) {
+        List<ImportPoints> sorted = new ArrayList<>(runs);
+        sorted.removeIf(run -> run.size() == 0);
+        sorted.sort(RUN_ORDER);
+
+        int size = total(sorted);
+        long[] timestamps = new long[size];
+        double[] values = new double[size];
+        int merged;
+        if (overlaps(sorted)) {
+            merged = kWayMerge(sorted, timestamps, values);
+        } else {
+            merged = concatenate(sorted, timestamps, values);
+        }
+        return new ImportPoints(timestamps, values, merged);
+    }
+
+    private static int total(List<ImportPoints> runs) {
+        int size = 0;
+        for (ImportPoints run : runs) {
+            size += run.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if a run starts before or at the end of the previous run
+     */
+    private static boolean overlaps(List<ImportPoints> sorted) {
+        for (int i = 1; i < sorted.size(); i++) {
+            ImportPoints previous = sorted.get(i - 1);
+            if (sorted.get(i).getTimestamp(0) <= previous.getTimestamp(previous.size() - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the runs one after the other and removes the duplicates within the runs
+     *
+     * @return the number of points
+     */
+    private static int concatenate(List<ImportPoints> sorted, long[] timestamps, double[] values) {
+        int size = 0;
+        for (ImportPoints run : sorted) {
+            System.arraycopy(run.timestamps(), 0, timestamps, size, run.size());
+            System.arraycopy(run.values(), 0, values, size, run.size());
+            size += run.size();
+        }
+        int merged = Math.min(1, size);
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] != timestamps[merged - 1]) {
+                timestamps[merged] = timestamps[i];
+                values[merged] = values[i];
+                merged++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merges the runs with a binary heap of the runs ordered by their next timestamp.
+     * Runs with the same next timestamp are ordered by their index, i.e. the run that starts first wins.
+     *
+     * @return the number of points
+     */
+    private static int kWayMerge(List<ImportPoints> sorted, long[] timestamps, double[] values) {
+        int k = sorted.size();
+        long[][] runTimestamps = new long[k][];
+        double[][] runValues = new double[k][];
+        int[] runSizes = new int[k];
+        int[] positions = new int[k];
+        int[] heap = new int[k];
+        for (int run = 0; run < k; run++) {
+            runTimestamps[run] = sorted.get(run).timestamps();
+            runValues[run] = sorted.get(run).values();
+            runSizes[run] = sorted.get(run).size();
+            heap[run] = run;
+        }
+        //the runs are ordered by their first timestamp, hence the initial array is a valid heap
+        int heapSize = k;
+        int merged = 0;
+        while (heapSize > 0) {
+            int run = heap[0];
+            long timestamp = runTimestamps[run][positions[run]];
+            if (merged == 0 || timestamp != timestamps[merged - 1]) {
+                timestamps[merged] = timestamp;
+                values[merged] = runValues[run][positions[run]];
+                merged++;
+            }
+            positions[run]++;
+            if (positions[run] == runSizes[run]) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, runTimestamps, positions);
+        }
+        return merged;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, long[][] runTimestamps, int[] positions) {
+        int parent = 0;
+        while (true) {
+            int smallest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize && before(heap[left], heap[smallest], runTimestamps, positions)) {
+                smallest = left;
+            }
+            if (right < heapSize && before(heap[right], heap[smallest], runTimestamps, positions)) {
+                smallest = right;
+            }
+            if (smallest == parent) {
+                return;
+            }
+            int swap = heap[parent];
+            heap[parent] = heap[smallest];
+            heap[smallest] = swap;
+            parent = smallest;
+        }
+    }
+
+    private static boolean before(int run, int other, long[][] runTimestamps, int[] positions) {
+        long timestamp = runTimestamps[run][positions[run]];
+        long otherTimestamp = runTimestamps[other][positions[other]];
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && run < other);
+    }
+}
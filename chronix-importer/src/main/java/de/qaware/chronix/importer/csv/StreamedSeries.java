@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.util.Arrays;
+
+/**
+ * A time series that the streaming import passes in parts.
+ * The points that did not fill a chunk are left over and chunked together with the next part. The estimated
+ * points per chunk are kept from one part to the next. Hence the chunks of a streamed time series reach the
+ * target size like the chunks of a time series that is passed at once.
+ * <p>
+ * The parts are counted when they are passed and are chunked by several threads, e.g. the parts of the ranges
+ * of a file may be chunked out of order. A part is merged with the left over points in time order and the
+ * time series is complete when the last part is passed and all passed parts are chunked.
+ * The parts of a time series are chunked one after the other.
+ *
+ * @author f.lautenschlager
+ */
+final class StreamedSeries {
+
+    /**
+     * Chunks the points of a streamed time series
+     */
+    @FunctionalInterface
+    interface Chunker {
+        /**
+         * @param points   the left over points and the points of the part in time order
+         * @param complete true if no more points follow
+         * @param estimate the estimate of the time series
+         * @return the number of chunked points, the remaining points are left over
+         */
+        int chunk(ImportPoints points, boolean complete, AdaptiveChunker.Estimate estimate);
+    }
+
+    private final AdaptiveChunker.Estimate estimate;
+    //the parts are chunked one after the other
+    private final Object chunking = new Object();
+    private ImportPoints leftOver = new ImportPoints(new long[0], new double[0], 0);
+    private int parts;
+    private boolean lastPassed;
+
+    /**
+     * @param estimate the estimate of the first chunk
+     */
+    StreamedSeries(AdaptiveChunker.Estimate estimate) {
+        this.estimate = estimate;
+    }
+
+    /**
+     * Counts a part that is passed to the chunking
+     *
+     * @param partial true if more parts follow
+     */
+    synchronized void passed(boolean partial) {
+        parts++;
+        if (!partial) {
+            lastPassed = true;
+        }
+    }
+
+    /**
+     * Chunks a passed part together with the left over points
+     *
+     * @param part    the points of the part, null to chunk the left over points of a time series
+     *                whose last part was not passed, e.g. as reading the file failed
+     * @param chunker chunks the points
+     * @return true if the time series is complete, i.e. no points are left over
+     */
+    boolean chunk(ImportPoints part, Chunker chunker) {
+        synchronized (chunking) {
+            ImportPoints points;
+            boolean complete;
+            synchronized (this) {
+                if (part == null) {
+                    points = leftOver;
+                    lastPassed = true;
+                } else {
+                    parts--;
+                    points = append(leftOver, part);
+                }
+                complete = lastPassed && parts == 0;
+            }
+            int chunked = chunker.chunk(points, complete, estimate);
+            leftOver = new ImportPoints(Arrays.copyOfRange(points.timestamps(), chunked, points.size()),
+                    Arrays.copyOfRange(points.values(), chunked, points.size()), points.size() - chunked);
+            return complete;
+        }
+    }
+
+    /**
+     * Appends the points. Points that are not in time order, e.g. of the ranges of a file, are sorted.
+     */
+    private static ImportPoints append(ImportPoints first, ImportPoints second) {
+        if (first.size() == 0) {
+            return second;
+        }
+        int size = first.size() + second.size();
+        long[] timestamps = Arrays.copyOf(first.timestamps(), size);
+        double[] values = Arrays.copyOf(first.values(), size);
+        System.arraycopy(second.timestamps(), 0, timestamps, first.size(), second.size());
+        System.arraycopy(second.values(), 0, values, first.size(), second.size());
+        if (second.size() > 0 && second.getTimestamp(0) < first.getTimestamp(first.size() - 1)) {
+            int[] order = RunMergeSort.order(timestamps, size);
+            timestamps = RunMergeSort.permute(timestamps, order);
+            values = RunMergeSort.permute(values, order);
+        }
+        return new ImportPoints(timestamps, values, size);
+    }
+}
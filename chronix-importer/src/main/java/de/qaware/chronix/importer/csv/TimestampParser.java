@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parses the timestamps of a csv file directly from the cell offsets of the {@link CsvTokenizer}.
+ * <p>
+ * Supports the date formats of the configuration: LONG (ms since 1970), INSTANT (java 8 instant) and
+ * simple date format patterns. A simple date format pattern is compiled into a fixed-position digit extractor.
+ * The epoch millis of the current hour are cached, hence consecutive rows cost only a few integer operations.
+ * Every value that does not fit the fast path (e.g. other field widths, daylight saving time transitions)
+ * is parsed with the java parser as before. Hence the results are the same.
+ * <p>
+ * A parser is not thread safe. Use one parser per file.
+ *
+ * @author f.lautenschlager
+ */
+abstract class TimestampParser {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+
+    private final ZoneRules rules;
+
+    //the cached hour and its epoch millis
+    private long cachedHour = -1;
+    private long cachedHourStart;
+    private boolean cachedHourValid;
+
+    private TimestampParser(ZoneId zone) {
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * Creates a timestamp parser for the given date format
+     *
+     * @param dateFormat the date format: long for ms since 1970, 'instant' for java 8 instant,
+     *                   otherwise simple date format
+     * @return a new parser
+     */
+    static TimestampParser of(String dateFormat) {
+        if (dateFormat.equalsIgnoreCase("long")) {
+            return new EpochMillisParser();
+        } else if (dateFormat.equalsIgnoreCase("instant")) {
+            return new InstantParser();
+        } else {
+            return new PatternParser(dateFormat);
+        }
+    }
+
+    /**
+     * Parses the timestamp between the given offsets
+     *
+     * @param buffer the buffer holding the timestamp
+     * @param start  the offset of the first byte
+     * @param end    the offset after the last byte
+     * @return the timestamp in ms since 1970
+     * @throws ParseException if the timestamp is not valid
+     */
+    abstract long parse(ByteBuffer buffer, int start, int end) throws ParseException;
+
+    /**
+     * Gets the epoch millis for the start of the given hour.
+     * The value is cached and only calculated if the hour changes.
+     *
+     * @return the epoch millis or -1 if the hour is not valid or contains an offset transition
+     */
+    long hourStart(int year, int month, int day, int hour) {
+        long key = ((year * 100L + month) * 100L + day) * 100L + hour;
+        if (key != cachedHour) {
+            cachedHour = key;
+            cachedHourValid = false;
+            try {
+                LocalDateTime dateTime = LocalDateTime.of(year, month, day, hour, 0);
+                if (rules.isFixedOffset()) {
+                    cachedHourStart = dateTime.toEpochSecond(rules.getOffset(Instant.EPOCH)) * MILLIS_PER_SECOND;
+                    cachedHourValid = true;
+                } else if (rules.getTransition(dateTime) == null) {
+                    cachedHourStart = dateTime.toEpochSecond(rules.getOffset(dateTime)) * MILLIS_PER_SECOND;
+                    ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochMilli(cachedHourStart));
+                    cachedHourValid = next == null || next.toEpochSecond() * MILLIS_PER_SECOND >= cachedHourStart + MILLIS_PER_HOUR;
+                }
+            } catch (DateTimeException e) {
+                //not a valid date. let the java parser decide.
+                cachedHourValid = false;
+            }
+        }
+        return cachedHourValid ? cachedHourStart : -1;
+    }
+
+    static long epochMillis(long hourStart, int minute, int second, int millis) {
+        return hourStart + minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + millis;
+    }
+
+    /**
+     * Reads a fixed number of ascii digits
+     *
+     * @return the value or -1 if one of the bytes is not a digit
+     */
+    static int digits(ByteBuffer buffer, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses ms since 1970
+     */
+    private static final class EpochMillisParser extends TimestampParser {
+
+        //18 digits always fit into a long
+        private static final int MAX_DIGITS = 18;
+
+        private EpochMillisParser() {
+            super(ZoneOffset.UTC);
+        }
+
+        @Override
+        long parse(ByteBuffer buffer, int start, int end) throws ParseException {
+            int offset = start;
+            boolean negative = false;
+            if (offset < end && (buffer.get(offset) == '-' || buffer.get(offset) == '+')) {
+                negative = buffer.get(offset) == '-';
+                offset++;
+            }
+
+            if (offset == end || end - offset > MAX_DIGITS) {
+                return fallback(buffer, start, end);
+            }
+
+            long value = 0;
+            for (int i = offset; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return fallback(buffer, start, end);
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private long fallback(ByteBuffer buffer, int start, int end) {
+            return Long.valueOf(CsvTokenizer.decode(buffer, start, end));
+        }
+    }
+
+    /**
+     * Parses the java 8 instant format, e.g. 2016-03-01T00:00:01.087Z
+     */
+    private static final class InstantParser extends TimestampParser {
+
+        //yyyy-MM-ddTHH:mm:ss
+        private static final int SECONDS_LENGTH = 19;
+        private static final int MAX_FRACTION_DIGITS = 9;
+
+        private InstantParser() {
+            super(ZoneOffset.UTC);
+        }
+
+        @Override
+        long parse(ByteBuffer buffer, int start, int end) throws ParseException {
+            int length = end - start;
+            if (length < SECONDS_LENGTH + 1
+                    || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-' || buffer.get(start + 10) != 'T'
+                    || buffer.get(start + 13) != ':' || buffer.get(start + 16) != ':' || buffer.get(end - 1) != 'Z') {
+                return fallback(buffer, start, end);
+            }
+
+            int year = digits(buffer, start, 4);
+            int month = digits(buffer, start + 5, 2);
+            int day = digits(buffer, start + 8, 2);
+            int hour = digits(buffer, start + 11, 2);
+            int minute = digits(buffer, start + 14, 2);
+            int second = digits(buffer, start + 17, 2);
+
+            //the fraction is optional, only the millis are used
+            int millis = 0;
+            int fractionDigits = length - SECONDS_LENGTH - 2;
+            if (fractionDigits > 0) {
+                if (buffer.get(start + SECONDS_LENGTH) != '.' || fractionDigits > MAX_FRACTION_DIGITS) {
+                    return fallback(buffer, start, end);
+                }
+                int fraction = digits(buffer, start + SECONDS_LENGTH + 1, fractionDigits);
+                if (fraction < 0) {
+                    return fallback(buffer, start, end);
+                }
+                for (int i = fractionDigits; i < 3; i++) {
+                    fraction *= 10;
+                }
+                for (int i = 3; i < fractionDigits; i++) {
+                    fraction /= 10;
+                }
+                millis = fraction;
+            } else if (fractionDigits == 0) {
+                return fallback(buffer, start, end);
+            }
+
+            if (year < 0 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                return fallback(buffer, start, end);
+            }
+
+            long hourStart = month < 0 || day < 0 || hour < 0 ? -1 : hourStart(year, month, day, hour);
+            if (hourStart < 0) {
+                return fallback(buffer, start, end);
+            }
+            return epochMillis(hourStart, minute, second, millis);
+        }
+
+        private long fallback(ByteBuffer buffer, int start, int end) {
+            return Instant.parse(CsvTokenizer.decode(buffer, start, end)).toEpochMilli();
+        }
+    }
+
+    /**
+     * Parses simple date format patterns, e.g. dd.MM.yyyy HH:mm:ss.SSS
+     */
+    private static final class PatternParser extends TimestampParser {
+
+        private static final int YEAR = 0;
+        private static final int MONTH = 1;
+        private static final int DAY = 2;
+        private static final int HOUR = 3;
+        private static final int MINUTE = 4;
+        private static final int SECOND = 5;
+        private static final int MILLIS = 6;
+
+        private static final int[] DEFAULT_VALUES = {1970, 1, 1, 0, 0, 0, 0};
+        private static final int[] MAX_VALUES = {9999, 12, 31, 23, 59, 59, 999};
+        //the first year of the gregorian calendar
+        private static final int MIN_YEAR = 1583;
+        //wider fields could overflow an int
+        private static final int MAX_FIELD_WIDTH = 9;
+
+        private final SimpleDateFormat sdf;
+        private final boolean compiled;
+
+        //the compiled pattern
+        private int length;
+        private int[] fieldTypes = new int[0];
+        private int[] fieldOffsets = new int[0];
+        private int[] fieldWidths = new int[0];
+        private int[] literalOffsets = new int[0];
+        private byte[] literals = new byte[0];
+
+        private final int[] values = new int[DEFAULT_VALUES.length];
+
+        private PatternParser(String pattern) {
+            super(ZoneId.systemDefault());
+            this.sdf = new SimpleDateFormat(pattern);
+            this.compiled = compile(pattern);
+        }
+
+        /**
+         * Compiles the pattern into the positions of numeric fields and literals
+         *
+         * @return true if the pattern only contains fixed width numeric fields and ascii literals
+         */
+        private boolean compile(String pattern) {
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i);
+                if (c == '\'') {
+                    int close = pattern.indexOf('\'', i + 1);
+                    if (close < 0) {
+                        return false;
+                    }
+                    if (close == i + 1) {
+                        addLiteral('\'');
+                    } else {
+                        for (int j = i + 1; j < close; j++) {
+                            if (!addLiteral(pattern.charAt(j))) {
+                                return false;
+                            }
+                        }
+                    }
+                    i = close + 1;
+                } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                    int count = 1;
+                    while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                        count++;
+                    }
+                    if (!addField(c, count)) {
+                        return false;
+                    }
+                    i += count;
+                } else {
+                    if (!addLiteral(c)) {
+                        return false;
+                    }
+                    i++;
+                }
+            }
+            return true;
+        }
+
+        private boolean addField(char letter, int count) {
+            if (count > MAX_FIELD_WIDTH) {
+                return false;
+            }
+            int type;
+            switch (letter) {
+                case 'y':
+                    //one and two letters are abbreviated years
+                    if (count < 3) {
+                        return false;
+                    }
+                    type = YEAR;
+                    break;
+                case 'M':
+                    //three and more letters are month names
+                    if (count > 2) {
+                        return false;
+                    }
+                    type = MONTH;
+                    break;
+                case 'd':
+                    type = DAY;
+                    break;
+                case 'H':
+                    type = HOUR;
+                    break;
+                case 'm':
+                    type = MINUTE;
+                    break;
+                case 's':
+                    type = SECOND;
+                    break;
+                case 'S':
+                    type = MILLIS;
+                    break;
+                default:
+                    return false;
+            }
+
+            fieldTypes = append(fieldTypes, type);
+            fieldOffsets = append(fieldOffsets, length);
+            fieldWidths = append(fieldWidths, count);
+            length += count;
+            return true;
+        }
+
+        private boolean addLiteral(char literal) {
+            if (literal > 0x7F) {
+                return false;
+            }
+            literalOffsets = append(literalOffsets, length);
+            byte[] extended = new byte[literals.length + 1];
+            System.arraycopy(literals, 0, extended, 0, literals.length);
+            extended[literals.length] = (byte) literal;
+            literals = extended;
+            length++;
+            return true;
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] extended = new int[array.length + 1];
+            System.arraycopy(array, 0, extended, 0, array.length);
+            extended[array.length] = value;
+            return extended;
+        }
+
+        @Override
+        long parse(ByteBuffer buffer, int start, int end) throws ParseException {
+            if (!compiled || end - start != length) {
+                return fallback(buffer, start, end);
+            }
+
+            for (int i = 0; i < literals.length; i++) {
+                if (buffer.get(start + literalOffsets[i]) != literals[i]) {
+                    return fallback(buffer, start, end);
+                }
+            }
+
+            System.arraycopy(DEFAULT_VALUES, 0, values, 0, values.length);
+            for (int i = 0; i < fieldTypes.length; i++) {
+                int type = fieldTypes[i];
+                int value = digits(buffer, start + fieldOffsets[i], fieldWidths[i]);
+                if (value < 0 || value > MAX_VALUES[type]) {
+                    return fallback(buffer, start, end);
+                }
+                values[type] = value;
+            }
+
+            if (values[YEAR] < MIN_YEAR) {
+                return fallback(buffer, start, end);
+            }
+
+            long hourStart = hourStart(values[YEAR], values[MONTH], values[DAY], values[HOUR]);
+            if (hourStart < 0) {
+                return fallback(buffer, start, end);
+            }
+            return epochMillis(hourStart, values[MINUTE], values[SECOND], values[MILLIS]);
+        }
+
+        private long fallback(ByteBuffer buffer, int start, int end) throws ParseException {
+            return sdf.parse(CsvTokenizer.decode(buffer, start, end)).getTime();
+        }
+    }
+}
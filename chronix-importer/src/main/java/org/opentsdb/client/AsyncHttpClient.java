@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
+import org.opentsdb.client.response.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A client that sends the pushes with non blocking I/O. A push returns a
+ * future of the response instead of waiting for it. The number of requests in
+ * flight is bounded: a push blocks the caller while the limit is reached.
+ *
+ * @author f.lautenschlager
+ */
+public interface AsyncHttpClient extends Closeable {
+
+	/**
+	 * Sends metrics from the builder to the server.
+	 *
+	 * @param builder
+	 *            metrics builder
+	 * @param expectResponse
+	 *            the expected response
+	 * @return the future response from the server. It fails if the request
+	 *         could not be sent.
+	 */
+	CompletableFuture<Response> pushMetrics(MetricBuilder builder,
+			ExpectResponse expectResponse);
+
+	/**
+	 * Sends the data points of a columnar series to the server.
+	 *
+	 * @param series
+	 *            the series
+	 * @param expectResponse
+	 *            the expected response
+	 * @return the future response from the server. It fails if the request
+	 *         could not be sent.
+	 */
+	CompletableFuture<Response> pushSeries(MetricSeries series,
+			ExpectResponse expectResponse);
+
+	void setCommit(boolean commit);
+
+	/**
+	 * @return the number of requests that are sent or waiting for a retry
+	 */
+	int inFlight();
+
+	/**
+	 * Waits until the requests in flight are completed and closes the
+	 * connections of the client.
+	 *
+	 * @throws IOException
+	 *             problem occurred closing the connections
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.opentsdb.client.builder.JsonMetrics;
+import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
+import org.opentsdb.client.response.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Non blocking HTTP implementation of a client based on the Apache HttpAsyncClient.
+ * The requests are sent by the I/O dispatcher threads of the client, hence one thread can keep many requests in flight.
+ * The JSON is built (and compressed) by the pushing thread. Failed requests are retried with the retry policy
+ * without occupying a thread while waiting.
+ * <p>
+ * The requests in flight are limited to a fixed number or by a {@link RequestLimiter}. Each attempt takes a slot,
+ * i.e. a request that waits for its retry leaves its slot to other requests.
+ * <p>
+ * The futures are completed by the I/O dispatcher threads. Dependent actions should be short or run asynchronously.
+ *
+ * @author f.lautenschlager
+ */
+public class AsyncHttpClientImpl implements AsyncHttpClient {
+
+    private static final int DEFAULT_TIMEOUT_MILLISECONDS = 10 * 1000;
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncHttpClientImpl.class);
+
+    private final String serviceUrl;
+    //the client is a party until it is closed, each request in flight is a party
+    private final Phaser inFlight = new Phaser(1);
+    private final CloseableHttpAsyncClient httpClient;
+    //delays the retries
+    private final ScheduledExecutorService retries;
+
+    private volatile boolean commit;
+    //rejects new pushes, the requests in flight keep their retries
+    private volatile boolean closed;
+    private volatile ContentEncoding contentEncoding = ContentEncoding.IDENTITY;
+    private volatile int compressionLevel = ContentEncoding.DEFAULT_COMPRESSION_LEVEL;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private volatile RequestLimiter limiter;
+
+    /**
+     * Creates a client with its own I/O reactor and connection pool.
+     * The client is thread safe, i.e. one client should be used for all pushes and closed at the end.
+     *
+     * @param serviceUrl  the url of the service
+     * @param maxInFlight the maximal number of requests that are sent concurrently, i.e. also the number of connections
+     */
+    public AsyncHttpClientImpl(String serviceUrl, int maxInFlight) {
+        checkArgument(maxInFlight > 0, "The requests in flight must be positive. Got: %s", maxInFlight);
+        this.serviceUrl = serviceUrl;
+        this.limiter = new FixedLimiter(maxInFlight);
+
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(DEFAULT_TIMEOUT_MILLISECONDS)
+                .setConnectionRequestTimeout(DEFAULT_TIMEOUT_MILLISECONDS)
+                .setSocketTimeout(DEFAULT_TIMEOUT_MILLISECONDS).build();
+        this.httpClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxInFlight)
+                .setMaxConnPerRoute(maxInFlight)
+                .setDefaultRequestConfig(config)
+                .build();
+        this.httpClient.start();
+
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "opentsdb-async-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void setCommit(boolean commit) {
+        this.commit = commit;
+    }
+
+    /**
+     * Compresses the request bodies, e.g. with gzip.
+     * The server has to support the content encoding.
+     *
+     * @param contentEncoding  the content encoding of the requests
+     * @param compressionLevel the compression level from 1 (fast) to 9 (small)
+     * @throws IllegalArgumentException if the level is not between 1 and 9
+     */
+    public void setRequestCompression(ContentEncoding contentEncoding, int compressionLevel) {
+        this.contentEncoding = checkNotNull(contentEncoding);
+        this.compressionLevel = ContentEncoding.checkLevel(compressionLevel);
+    }
+
+    /**
+     * @param retryPolicy the retry policy for failed requests
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = checkNotNull(retryPolicy);
+    }
+
+    /**
+     * Replaces the fixed limit of the requests in flight, e.g. with an adaptive limit.
+     * The limiter should not allow more requests than the maximal requests in flight of the client,
+     * otherwise the requests wait for a connection.
+     *
+     * @param limiter the limiter of the requests in flight
+     */
+    public void setRequestLimiter(RequestLimiter limiter) {
+        this.limiter = checkNotNull(limiter);
+    }
+
+    @Override
+    public CompletableFuture<Response> pushMetrics(MetricBuilder builder, ExpectResponse expectResponse) {
+        return push(checkNotNull(builder), expectResponse);
+    }
+
+    @Override
+    public CompletableFuture<Response> pushSeries(MetricSeries series, ExpectResponse expectResponse) {
+        return push(checkNotNull(series), expectResponse);
+    }
+
+    @Override
+    public int inFlight() {
+        return inFlight.getRegisteredParties() - 1;
+    }
+
+    private CompletableFuture<Response> push(JsonMetrics metrics, ExpectResponse expectResponse) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        inFlight.register();
+        //the request is in flight until it is completed, also while it waits for a retry
+        response.whenComplete((result, error) -> inFlight.arriveAndDeregister());
+
+        try {
+            if (closed) {
+                throw new IOException("The client is closed");
+            }
+            HttpPost post = new HttpPost(HttpClientImpl.buildUrl(serviceUrl, Client.POST_API, expectResponse, commit));
+            post.setEntity(body(metrics));
+            execute(post, retryPolicy, limiter, 1, response);
+        } catch (IOException | RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+     * Builds the JSON in memory, hence the request can be retried and the I/O dispatcher does not block
+     */
+    private HttpEntity body(JsonMetrics metrics) throws IOException {
+        HttpEntity json = contentEncoding.encode(new JsonMetricsEntity(metrics), compressionLevel);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        json.writeTo(out);
+        NByteArrayEntity body = new NByteArrayEntity(out.toByteArray(), ContentType.APPLICATION_JSON);
+        if (contentEncoding != ContentEncoding.IDENTITY) {
+            body.setContentEncoding(contentEncoding.getToken());
+        }
+        return body;
+    }
+
+    /**
+     * Executes an attempt. It waits for a slot of the limiter, i.e. the first attempt blocks the pushing thread
+     * and the retries block the retry thread. The slot is released before the backoff.
+     */
+    private void execute(HttpPost post, RetryPolicy policy, RequestLimiter requestLimiter, int retry,
+                         CompletableFuture<Response> response) {
+        long start;
+        try {
+            start = requestLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.completeExceptionally(new InterruptedIOException("Interrupted while waiting for a request slot"));
+            return;
+        }
+        try {
+            httpClient.execute(post, callback(post, policy, requestLimiter, retry, start, response));
+        } catch (RuntimeException e) {
+            requestLimiter.release(start, false);
+            response.completeExceptionally(e);
+        }
+    }
+
+    private FutureCallback<HttpResponse> callback(HttpPost post, RetryPolicy policy, RequestLimiter requestLimiter,
+                                                  int retry, long start, CompletableFuture<Response> response) {
+        return new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse result) {
+                int statusCode = result.getStatusLine().getStatusCode();
+                requestLimiter.release(start, RetryPolicy.isRetryable(statusCode));
+                if (RetryPolicy.isRetryable(statusCode) && policy.allows(retry)) {
+                    logger.warn("Retry {} of {} after status code {}", retry, post.getURI(), statusCode);
+                    retry(post, policy, requestLimiter, retry, response);
+                    return;
+                }
+                try {
+                    response.complete(HttpClientImpl.getResponse(PoolingHttpClient.toSimpleResponse(result)));
+                } catch (IOException | RuntimeException e) {
+                    response.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                requestLimiter.release(start, true);
+                if (e instanceof IOException && policy.allows(retry)) {
+                    logger.warn("Retry {} of {} after {}", retry, post.getURI(), e.toString());
+                    retry(post, policy, requestLimiter, retry, response);
+                } else {
+                    response.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                requestLimiter.release(start, false);
+                response.cancel(false);
+            }
+        };
+    }
+
+    private void retry(HttpPost post, RetryPolicy policy, RequestLimiter requestLimiter, int retry,
+                       CompletableFuture<Response> response) {
+        try {
+            retries.schedule(() -> execute(post, policy, requestLimiter, retry + 1, response),
+                    policy.backoff(retry), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Rejects new pushes and waits until the requests in flight are completed, including their retries
+     *
+     * @throws IOException if interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            //waits for the requests in flight, later pushes fail
+            inFlight.awaitAdvanceInterruptibly(inFlight.arrive());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the requests in flight");
+        } finally {
+            retries.shutdownNow();
+            httpClient.close();
+        }
+    }
+
+    /**
+     * The fixed limit of the requests in flight
+     */
+    private static final class FixedLimiter implements RequestLimiter {
+
+        private final Semaphore slots;
+
+        private FixedLimiter(int maxInFlight) {
+            this.slots = new Semaphore(maxInFlight);
+        }
+
+        @Override
+        public long acquire() throws InterruptedException {
+            slots.acquire();
+            return System.nanoTime();
+        }
+
+        @Override
+        public void release(long start, boolean failed) {
+            slots.release();
+        }
+    }
+}
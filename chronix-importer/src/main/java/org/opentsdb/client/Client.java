@@ -16,11 +16,13 @@
 package org.opentsdb.client;
 
 import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
 import org.opentsdb.client.response.Response;
 
+import java.io.Closeable;
 import java.io.IOException;
 
-public interface Client {
+public interface Client extends Closeable {
 
 	public final static String POST_API = "/api/put";
 
@@ -35,5 +37,25 @@ public interface Client {
 	 */
 	Response pushMetrics(MetricBuilder builder) throws IOException;
 
+	/**
+	 * Sends the data points of a columnar series to the server.
+	 *
+	 * @param series
+	 *            the series
+	 * @return response from the server
+	 * @throws IOException
+	 *             problem occurred sending to the server
+	 */
+	Response pushSeries(MetricSeries series) throws IOException;
+
     void setCommit(boolean commit);
+
+	/**
+	 * Closes the connections of the client.
+	 *
+	 * @throws IOException
+	 *             problem occurred closing the connections
+	 */
+	@Override
+	void close() throws IOException;
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * An entity that compresses the wrapped entity while it is written to the
+ * connection. The compressed length is unknown, hence the request is sent
+ * chunked.
+ *
+ * @author f.lautenschlager
+ */
+public class CompressedEntity extends HttpEntityWrapper {
+
+	private final ContentEncoding encoding;
+	private final int level;
+
+	/**
+	 * Creates a compressed entity
+	 *
+	 * @param entity
+	 *            the uncompressed entity
+	 * @param encoding
+	 *            the content encoding, e.g. gzip
+	 * @param level
+	 *            the compression level from 1 (fast) to 9 (small)
+	 */
+	public CompressedEntity(HttpEntity entity, ContentEncoding encoding,
+			int level) {
+		super(entity);
+		this.encoding = encoding;
+		this.level = level;
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	/**
+	 * Compresses the entity in memory. Only for clients that do not use
+	 * {@link #writeTo(OutputStream)}.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		writeTo(compressed);
+		return new ByteArrayInputStream(compressed.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		DeflaterOutputStream compressed = encoding.compress(out, level);
+		try {
+			wrappedEntity.writeTo(compressed);
+			compressed.finish();
+			compressed.flush();
+		} finally {
+			//releases the deflater, also if the connection failed
+			compressed.close();
+		}
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The content encoding of request bodies.
+ *
+ * @author f.lautenschlager
+ */
+public enum ContentEncoding {
+
+	/**
+	 * The body is not compressed
+	 */
+	IDENTITY("identity"),
+	/**
+	 * The body is gzip compressed
+	 */
+	GZIP("gzip"),
+	/**
+	 * The body is zlib compressed, i.e. http deflate
+	 */
+	DEFLATE("deflate");
+
+	/**
+	 * The compression level if none is configured
+	 */
+	public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final String token;
+
+	ContentEncoding(String token) {
+		this.token = token;
+	}
+
+	/**
+	 * Returns the value of the Content-Encoding header.
+	 *
+	 * @return the content coding, e.g. gzip
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Returns the encoding for the given name.
+	 *
+	 * @param name
+	 *            none, identity, gzip or deflate (case insensitive)
+	 * @return the encoding
+	 */
+	public static ContentEncoding of(String name) {
+		if (name == null || name.equalsIgnoreCase("none")) {
+			return IDENTITY;
+		}
+		for (ContentEncoding encoding : values()) {
+			if (encoding.token.equalsIgnoreCase(name)) {
+				return encoding;
+			}
+		}
+		throw new IllegalArgumentException("Unknown content encoding " + name
+				+ ". Valid values: none, gzip, deflate");
+	}
+
+	/**
+	 * Checks the compression level.
+	 *
+	 * @param level
+	 *            the compression level
+	 * @return the level
+	 * @throws IllegalArgumentException
+	 *             if the level is not between 1 and 9
+	 */
+	public static int checkLevel(int level) {
+		checkArgument(level >= Deflater.BEST_SPEED
+				&& level <= Deflater.BEST_COMPRESSION,
+				"The compression level must be between 1 and 9. Got: %s", level);
+		return level;
+	}
+
+	/**
+	 * Wraps the entity into an entity that is compressed while it is written.
+	 *
+	 * @param entity
+	 *            the entity
+	 * @param level
+	 *            the compression level from 1 (fast) to 9 (small)
+	 * @return the compressed entity or the given entity for identity
+	 * @throws IllegalArgumentException
+	 *             if the level is not between 1 and 9
+	 */
+	public HttpEntity encode(HttpEntity entity, int level) {
+		checkLevel(level);
+		if (this == IDENTITY) {
+			return entity;
+		}
+		return new CompressedEntity(entity, this, level);
+	}
+
+	/**
+	 * Returns a stream that compresses the bytes written to the given stream.
+	 * The stream must be finished. Finishing or closing the stream releases
+	 * its deflater, but neither closes the given stream. Hence a stream that
+	 * failed before it was finished is closed.
+	 *
+	 * @param out
+	 *            the stream
+	 * @param level
+	 *            the compression level from 1 (fast) to 9 (small)
+	 * @return the compressing stream
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public DeflaterOutputStream compress(OutputStream out, final int level)
+			throws IOException {
+		checkLevel(level);
+		switch (this) {
+		case GZIP:
+			return new GZIPOutputStream(out, BUFFER_SIZE) {
+				{
+					def.setLevel(level);
+				}
+
+				@Override
+				public void finish() throws IOException {
+					super.finish();
+					//the stream is not closed, hence the deflater is released here
+					def.end();
+				}
+
+				@Override
+				public void close() {
+					//the given stream stays open
+					def.end();
+				}
+			};
+		case DEFLATE:
+			return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE) {
+				@Override
+				public void finish() throws IOException {
+					super.finish();
+					//the stream is not closed, hence the deflater is released here
+					def.end();
+				}
+
+				@Override
+				public void close() {
+					//the given stream stays open
+					def.end();
+				}
+			};
+		default:
+			throw new UnsupportedOperationException("Identity does not compress");
+		}
+	}
+}
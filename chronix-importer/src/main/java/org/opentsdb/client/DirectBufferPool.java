@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A pool of direct byte buffers of the same size. Allocating direct buffers
+ * is expensive and their memory is only freed by the garbage collector, hence
+ * they are reused. At most the given number of buffers is kept, additional
+ * buffers are allocated on demand and dropped when they are released.
+ *
+ * @author f.lautenschlager
+ */
+public final class DirectBufferPool {
+
+	private final int bufferSize;
+	private final BlockingQueue<ByteBuffer> buffers;
+
+	/**
+	 * Creates a pool
+	 *
+	 * @param bufferSize
+	 *            the size of a buffer in bytes
+	 * @param maxPooled
+	 *            the maximal number of pooled buffers
+	 */
+	public DirectBufferPool(int bufferSize, int maxPooled) {
+		checkArgument(bufferSize > 0, "The buffer size must be positive. Got: %s", bufferSize);
+		checkArgument(maxPooled > 0, "The pooled buffers must be positive. Got: %s", maxPooled);
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<>(maxPooled);
+	}
+
+	/**
+	 * @return a cleared buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Returns the buffer to the pool
+	 *
+	 * @param buffer
+	 *            a buffer of the pool
+	 */
+	public void release(ByteBuffer buffer) {
+		buffer.clear();
+		buffers.offer(buffer);
+	}
+
+	/**
+	 * @return the number of buffers that are ready for reuse
+	 */
+	public int pooled() {
+		return buffers.size();
+	}
+}
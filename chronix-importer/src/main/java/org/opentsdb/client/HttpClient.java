@@ -16,12 +16,26 @@
 package org.opentsdb.client;
 
 import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
 import org.opentsdb.client.response.Response;
 
+import java.io.Closeable;
 import java.io.IOException;
 
-public interface HttpClient extends Client {
+public interface HttpClient extends Client, Closeable {
 
 	public Response pushMetrics(MetricBuilder builder,
 			ExpectResponse exceptResponse) throws IOException;
+
+	public Response pushSeries(MetricSeries series,
+			ExpectResponse expectResponse) throws IOException;
+
+	/**
+	 * Closes the pooled connections of the client.
+	 *
+	 * @throws IOException
+	 *             problem occurred closing the connections
+	 */
+	@Override
+	void close() throws IOException;
 }
\ No newline at end of file
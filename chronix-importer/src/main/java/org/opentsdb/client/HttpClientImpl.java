@@ -19,6 +19,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
 import org.opentsdb.client.response.ErrorDetail;
 import org.opentsdb.client.response.Response;
 import org.opentsdb.client.response.SimpleHttpResponse;
@@ -34,20 +35,37 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class HttpClientImpl implements HttpClient {
 
+
     private static Logger logger = LoggerFactory.getLogger(HttpClientImpl.class);
 
     private String serviceUrl;
 
-    private Gson mapper;
+    private static final Gson MAPPER = new GsonBuilder().create();
 
-    PoolingHttpClient httpClient = new PoolingHttpClient();
-    private boolean commit;
+    PoolingHttpClient httpClient;
+    private volatile boolean commit;
+    private volatile ContentEncoding contentEncoding = ContentEncoding.IDENTITY;
+    private volatile int compressionLevel = ContentEncoding.DEFAULT_COMPRESSION_LEVEL;
 
+    /**
+     * Creates a client with its own connection pool.
+     * The client is thread safe, i.e. one client should be used for all pushes and closed at the end.
+     *
+     * @param serviceUrl the url of the service
+     */
     public HttpClientImpl(String serviceUrl) {
-        this.serviceUrl = serviceUrl;
+        this(serviceUrl, new PoolingHttpClient());
+    }
 
-        GsonBuilder builder = new GsonBuilder();
-        mapper = builder.create();
+    /**
+     * Creates a client using the given connection pool
+     *
+     * @param serviceUrl the url of the service
+     * @param httpClient the pooling http client. It is shut down when the client is closed.
+     */
+    public HttpClientImpl(String serviceUrl, PoolingHttpClient httpClient) {
+        this.serviceUrl = serviceUrl;
+        this.httpClient = checkNotNull(httpClient);
     }
 
     @Override
@@ -61,20 +79,55 @@ public class HttpClientImpl implements HttpClient {
         this.commit = commit;
     }
 
+    /**
+     * Compresses the request bodies, e.g. with gzip.
+     * The server has to support the content encoding.
+     *
+     * @param contentEncoding  the content encoding of the requests
+     * @param compressionLevel the compression level from 1 (fast) to 9 (small)
+     * @throws IllegalArgumentException if the level is not between 1 and 9
+     */
+    public void setRequestCompression(ContentEncoding contentEncoding, int compressionLevel) {
+        this.contentEncoding = checkNotNull(contentEncoding);
+        this.compressionLevel = ContentEncoding.checkLevel(compressionLevel);
+    }
+
     @Override
     public Response pushMetrics(MetricBuilder builder,
                                 ExpectResponse expectResponse) throws IOException {
         checkNotNull(builder);
 
         SimpleHttpResponse response = httpClient
-                .doPost(buildUrl(serviceUrl, POST_API, expectResponse),
-                        builder.build());
+                .doPost(buildUrl(serviceUrl, POST_API, expectResponse, commit),
+                        contentEncoding.encode(new JsonMetricsEntity(builder), compressionLevel));
 
         return getResponse(response);
     }
 
-    private String buildUrl(String serviceUrl, String postApiEndPoint,
-                            ExpectResponse expectResponse) {
+    @Override
+    public Response pushSeries(MetricSeries series) throws IOException {
+        return pushSeries(series, ExpectResponse.STATUS_CODE);
+    }
+
+    @Override
+    public Response pushSeries(MetricSeries series,
+                               ExpectResponse expectResponse) throws IOException {
+        checkNotNull(series);
+
+        SimpleHttpResponse response = httpClient
+                .doPost(buildUrl(serviceUrl, POST_API, expectResponse, commit),
+                        contentEncoding.encode(new JsonMetricsEntity(series), compressionLevel));
+
+        return getResponse(response);
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.shutdown();
+    }
+
+    static String buildUrl(String serviceUrl, String postApiEndPoint,
+                           ExpectResponse expectResponse, boolean commit) {
         String url = serviceUrl + postApiEndPoint;
 
         switch (expectResponse) {
@@ -94,12 +147,12 @@ public class HttpClientImpl implements HttpClient {
         return url;
     }
 
-    private Response getResponse(SimpleHttpResponse httpResponse) {
+    static Response getResponse(SimpleHttpResponse httpResponse) {
         Response response = new Response(httpResponse.getStatusCode());
         String content = httpResponse.getContent();
         if (StringUtils.isNotEmpty(content)) {
             if (response.isSuccess()) {
-                ErrorDetail errorDetail = mapper.fromJson(content,
+                ErrorDetail errorDetail = MAPPER.fromJson(content,
                         ErrorDetail.class);
                 response.setErrorDetail(errorDetail);
             } else {
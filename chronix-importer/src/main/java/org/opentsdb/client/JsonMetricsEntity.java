@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.opentsdb.client.builder.JsonMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A request entity that streams the JSON of the metrics directly to the
+ * connection. The content length is unknown, hence the request is sent
+ * chunked. The entity is repeatable, i.e. a request can be retried.
+ *
+ * @author f.lautenschlager
+ */
+public class JsonMetricsEntity extends AbstractHttpEntity {
+
+	private final JsonMetrics metrics;
+
+	/**
+	 * Creates an entity
+	 *
+	 * @param metrics
+	 *            the metrics, e.g. a metric builder or a series
+	 */
+	public JsonMetricsEntity(JsonMetrics metrics) {
+		this.metrics = checkNotNull(metrics);
+		setContentType(ContentType.APPLICATION_JSON.toString());
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * Builds the JSON in memory. Only for clients that do not use
+	 * {@link #writeTo(OutputStream)}.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		writeTo(json);
+		return new ByteArrayInputStream(json.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		metrics.writeTo(out);
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+}
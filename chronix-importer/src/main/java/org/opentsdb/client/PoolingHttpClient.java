@@ -19,6 +19,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HeaderElement;
 import org.apache.http.HeaderElementIterator;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
@@ -34,11 +35,15 @@ import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.opentsdb.client.response.SimpleHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * 
@@ -59,7 +64,20 @@ public class PoolingHttpClient {
 
 	private static final String DEFAULT_CHARSET = "UTF-8";
 
-	private static final int DEFAULT_RETRY_COUNT = 2;
+	private static Logger logger = LoggerFactory.getLogger(PoolingHttpClient.class);
+
+	//the connection pool limits the requests
+	private static final RequestLimiter UNLIMITED = new RequestLimiter() {
+		@Override
+		public long acquire() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public void release(long start, boolean failed) {
+			//nothing acquired
+		}
+	};
 
 	private int keepAlive = DEFAULT_KEEP_ALIVE_MILLISECONDS;
 
@@ -70,12 +88,15 @@ public class PoolingHttpClient {
 	private int readTimeout = DEFAULT_READ_TIMEOUT_MILLISECONDS;
 	private int waitTimeout = DEFAULT_WAIT_TIMEOUT_MILLISECONDS;
 
-	private int retries = DEFAULT_RETRY_COUNT;
+	private volatile RetryPolicy retryPolicy = RetryPolicy.defaults();
+	private volatile RequestLimiter requestLimiter = UNLIMITED;
 
 	private PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
 
 	private CloseableHttpClient httpClient = null;
 
+	private IdleConnectionMonitorThread staleMonitor;
+
 	private ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
 		@Override
 		public long getKeepAliveDuration(HttpResponse response,
@@ -113,18 +134,48 @@ public class PoolingHttpClient {
 				.setDefaultRequestConfig(config).build();
 
 		// detect idle and expired connections and close them
-		IdleConnectionMonitorThread staleMonitor = new IdleConnectionMonitorThread(
-				connManager);
+		staleMonitor = new IdleConnectionMonitorThread(connManager);
+		staleMonitor.setName("opentsdb-idle-connection-monitor");
+		staleMonitor.setDaemon(true);
 		staleMonitor.start();
 	}
 
 	public SimpleHttpResponse doPost(String url, String data)
 			throws IOException {
-		StringEntity requestEntity = new StringEntity(data);
+		return doPost(url, new StringEntity(data));
+	}
+
+	/**
+	 * Posts the given entity, e.g. a streaming entity that is written
+	 * directly to the connection.
+	 *
+	 * @param url
+	 *            the url
+	 * @param requestEntity
+	 *            the request body
+	 * @return the response
+	 * @throws IOException
+	 *             problem occurred sending the request
+	 */
+	public SimpleHttpResponse doPost(String url, HttpEntity requestEntity)
+			throws IOException {
 		HttpPost postMethod = new HttpPost(url);
 		postMethod.setEntity(requestEntity);
 
-		HttpResponse response = execute(postMethod);
+		return toSimpleResponse(execute(postMethod));
+	}
+
+	/**
+	 * Reads the status code and the content of the response.
+	 *
+	 * @param response
+	 *            the response
+	 * @return the status code and the content
+	 * @throws IOException
+	 *             problem occurred reading the content
+	 */
+	static SimpleHttpResponse toSimpleResponse(HttpResponse response)
+			throws IOException {
 		int statusCode = response.getStatusLine().getStatusCode();
 
 		SimpleHttpResponse simpleResponse = new SimpleHttpResponse();
@@ -133,7 +184,9 @@ public class PoolingHttpClient {
 		HttpEntity entity = response.getEntity();
 		if (entity != null) {
 			// should return: application/json; charset=UTF-8
-			String ctype = entity.getContentType().getValue();
+			//error responses may come without a content type
+			String ctype = entity.getContentType() == null ? null
+					: entity.getContentType().getValue();
 			String charset = getResponseCharset(ctype);
 			String content = EntityUtils.toString(entity, charset);
 			simpleResponse.setContent(content);
@@ -164,26 +217,85 @@ public class PoolingHttpClient {
 		return charset;
 	}
 
+	/**
+	 * Executes the request and retries it according to the retry policy, i.e.
+	 * on I/O errors and retryable status codes. Requests with a body that is
+	 * not repeatable are not retried. Each attempt takes a slot of the request
+	 * limiter, which is released before the backoff.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the response of the last attempt
+	 * @throws IOException
+	 *             problem occurred in the last attempt
+	 */
 	public HttpResponse execute(HttpUriRequest request) throws IOException {
-		HttpResponse response;
-
-		int tries = ++retries;
-		while (true) {
-			tries--;
+		RetryPolicy policy = retryPolicy;
+		RequestLimiter limiter = requestLimiter;
+		boolean repeatable = isRepeatable(request);
+
+		for (int retry = 1;; retry++) {
+			boolean retryAllowed = repeatable && policy.allows(retry);
+			long start = acquire(limiter);
+			HttpResponse response = null;
+			IOException error = null;
 			try {
 				response = httpClient.execute(request);
-				break;
 			} catch (IOException e) {
-				if (tries < 1)
-					throw e;
+				error = e;
+			} finally {
+				limiter.release(start, response == null
+						|| RetryPolicy.isRetryable(response.getStatusLine().getStatusCode()));
 			}
+
+			if (error != null) {
+				if (!retryAllowed) {
+					throw error;
+				}
+				logger.warn("Retry {} of {} after {}", retry, request.getURI(), error.toString());
+			} else {
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (!retryAllowed || !RetryPolicy.isRetryable(statusCode)) {
+					return response;
+				}
+				//releases the connection before the retry
+				EntityUtils.consumeQuietly(response.getEntity());
+				logger.warn("Retry {} of {} after status code {}", retry, request.getURI(), statusCode);
+			}
+			policy.await(retry);
+		}
+	}
+
+	private static long acquire(RequestLimiter limiter) throws InterruptedIOException {
+		try {
+			return limiter.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request slot");
 		}
+	}
 
-		return response;
+	private static boolean isRepeatable(HttpUriRequest request) {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			return entity == null || entity.isRepeatable();
+		}
+		return true;
 	}
 
+	/**
+	 * Stops the idle connection monitor and closes all connections of the pool.
+	 *
+	 * @throws IOException
+	 *             problem occurred closing the connections
+	 */
 	public void shutdown() throws IOException {
-		httpClient.close();
+		staleMonitor.shutdown();
+		try {
+			httpClient.close();
+		} finally {
+			connManager.shutdown();
+		}
 	}
 
 	public int getKeepAlive() {
@@ -243,12 +355,35 @@ public class PoolingHttpClient {
 	}
 
 	public int getRetryCount() {
-		return retries;
+		return retryPolicy.getRetries();
 	}
 
 	public void setRetryCount(int retries) {
 		checkArgument(retries >= 0);
-		this.retries = retries;
+		this.retryPolicy = retryPolicy.withRetries(retries);
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = checkNotNull(retryPolicy);
+	}
+
+	public RequestLimiter getRequestLimiter() {
+		return requestLimiter;
+	}
+
+	/**
+	 * Limits the concurrent requests in addition to the connection pool, e.g.
+	 * adaptively to the latency of the server.
+	 *
+	 * @param requestLimiter
+	 *            the limiter of the requests
+	 */
+	public void setRequestLimiter(RequestLimiter requestLimiter) {
+		this.requestLimiter = checkNotNull(requestLimiter);
 	}
 
     public static class IdleConnectionMonitorThread extends Thread {
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+/**
+ * Limits the concurrent requests of a client, e.g. adaptively to the latency
+ * of the server. A client acquires a slot for each attempt of a request and
+ * releases it when the attempt is completed. Hence a request that waits for
+ * its retry holds no slot and the backoff is not measured.
+ *
+ * @author f.lautenschlager
+ */
+public interface RequestLimiter {
+
+	/**
+	 * Waits until a request is allowed
+	 *
+	 * @return the start of the attempt, i.e. {@link System#nanoTime()}
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	long acquire() throws InterruptedException;
+
+	/**
+	 * Releases the slot of a completed attempt
+	 *
+	 * @param start
+	 *            the start of the attempt from {@link #acquire()}
+	 * @param failed
+	 *            true if the attempt failed due to the server, e.g. a time
+	 *            out or a status code 503
+	 */
+	void release(long start, boolean failed);
+}
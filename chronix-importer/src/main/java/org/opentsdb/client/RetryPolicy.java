@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before.
+ * The waiting time grows exponentially with the attempt up to a cap. The
+ * actual waiting time is drawn uniformly between zero and that bound (full
+ * jitter), hence concurrent senders that failed together do not retry
+ * together.
+ * <p>
+ * Only failures that may succeed later are retried: I/O errors and the
+ * status codes 408, 429, 500, 502, 503 and 504.
+ *
+ * @author f.lautenschlager
+ */
+public final class RetryPolicy {
+
+	private static final int DEFAULT_RETRIES = 2;
+	private static final long DEFAULT_BACKOFF_MILLISECONDS = 100;
+	private static final long DEFAULT_MAX_BACKOFF_MILLISECONDS = 10 * 1000;
+
+	private final int retries;
+	private final long backoff;
+	private final long maxBackoff;
+
+	/**
+	 * Creates a retry policy
+	 *
+	 * @param retries
+	 *            the number of retries after the first attempt, 0 disables
+	 *            retries
+	 * @param backoff
+	 *            the bound of the waiting time before the first retry in
+	 *            milliseconds
+	 * @param maxBackoff
+	 *            the cap of the waiting time in milliseconds
+	 */
+	public RetryPolicy(int retries, long backoff, long maxBackoff) {
+		checkArgument(retries >= 0, "The retries must not be negative. Got: %s", retries);
+		checkArgument(backoff > 0 && maxBackoff >= backoff,
+				"The backoff must be positive and not above the max backoff. Got: %s, %s",
+				backoff, maxBackoff);
+		this.retries = retries;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * @return the default policy: 2 retries, 100 ms backoff, capped at 10 s
+	 */
+	public static RetryPolicy defaults() {
+		return new RetryPolicy(DEFAULT_RETRIES, DEFAULT_BACKOFF_MILLISECONDS,
+				DEFAULT_MAX_BACKOFF_MILLISECONDS);
+	}
+
+	/**
+	 * Returns a policy with the same backoff and the given number of retries
+	 *
+	 * @param retries
+	 *            the number of retries after the first attempt
+	 * @return the policy
+	 */
+	public RetryPolicy withRetries(int retries) {
+		return new RetryPolicy(retries, backoff, maxBackoff);
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public long getBackoff() {
+		return backoff;
+	}
+
+	public long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	/**
+	 * @param statusCode
+	 *            the http status code of a response
+	 * @return true if a request that failed with the status code may succeed
+	 *         later
+	 */
+	public static boolean isRetryable(int statusCode) {
+		switch (statusCode) {
+		case 408: //request timeout
+		case 429: //too many requests
+		case 500:
+		case 502:
+		case 503:
+		case 504:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param retry
+	 *            the retry, i.e. 1 for the first retry
+	 * @return true if the retry is allowed
+	 */
+	public boolean allows(int retry) {
+		return retry <= retries;
+	}
+
+	/**
+	 * Returns the waiting time before the given retry, a random value between
+	 * zero and min(maxBackoff, backoff * 2^(retry - 1)).
+	 *
+	 * @param retry
+	 *            the retry, i.e. 1 for the first retry
+	 * @return the waiting time in milliseconds
+	 */
+	public long backoff(int retry) {
+		int doublings = Math.min(Math.max(retry - 1, 0), 62);
+		long bound = backoff > (maxBackoff >> doublings) ? maxBackoff : backoff << doublings;
+		return ThreadLocalRandom.current().nextLong(bound < Long.MAX_VALUE ? bound + 1 : bound);
+	}
+
+	/**
+	 * Waits before the given retry
+	 *
+	 * @param retry
+	 *            the retry, i.e. 1 for the first retry
+	 * @throws InterruptedIOException
+	 *             if the thread was interrupted while waiting
+	 */
+	public void await(int retry) throws InterruptedIOException {
+		try {
+			Thread.sleep(backoff(retry));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for retry " + retry);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy{retries=" + retries + ", backoff=" + backoff
+				+ ", maxBackoff=" + maxBackoff + '}';
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.opentsdb.client.builder.Metric;
+import org.opentsdb.client.builder.MetricBuilder;
+import org.opentsdb.client.builder.MetricSeries;
+import org.opentsdb.client.builder.PutLineWriter;
+import org.opentsdb.client.response.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Telnet style implementation of a client. The data points are sent as put
+ * lines over persistent non blocking TCP connections:
+ * <pre>put &lt;metric&gt; &lt;timestamp&gt; &lt;value&gt; &lt;tagk=tagv&gt; ...</pre>
+ * The lines are encoded directly into pooled direct buffers, that are written
+ * to the socket without copying. A push takes a connection of the pool, hence
+ * the number of connections limits the concurrent pushes.
+ * <p>
+ * The protocol does not acknowledge the lines, a server only answers with an
+ * error line for a line it rejected. Hence a push ends with a version command
+ * and reads the answers until the reply of the version command. The server
+ * answers the lines of a connection in order, i.e. all error lines of the push
+ * arrived before the reply. The error lines are counted and logged. A push
+ * with error lines fails with the status code 400, hence the caller can spool
+ * it like a bad request of the http interface. A successful push (status code
+ * 204) means that the server processed all lines without an error. A push
+ * that fails with an exception, e.g. the server did not answer the version
+ * command in time, closes its connection, the next push opens a new one. The
+ * protocol has no commit.
+ *
+ * @author f.lautenschlager
+ */
+public class TelnetClientImpl implements Client {
+
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLISECONDS = 10 * 1000;
+	private static final int DEFAULT_WRITE_TIMEOUT_MILLISECONDS = 10 * 1000;
+	//the time a push waits for the reply of the version command
+	private static final int DEFAULT_READ_TIMEOUT_MILLISECONDS = 10 * 1000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int ERROR_BUFFER_SIZE = 4 * 1024;
+	private static final int MAX_LOGGED_ERRORS = 10;
+	private static final int REJECTED = 400;
+	//the version command and the lines of the reply of OpenTSDB
+	private static final byte[] VERSION = "version\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VERSION_REPLY = "net.opentsdb".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VERSION_REPLY_END = "Built on".getBytes(StandardCharsets.US_ASCII);
+
+	private static Logger logger = LoggerFactory.getLogger(TelnetClientImpl.class);
+
+	private final InetSocketAddress address;
+	private final BlockingQueue<Connection> connections;
+	private final DirectBufferPool buffers;
+	private final AtomicLong lines = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a client. The connections are opened on first use.
+	 *
+	 * @param host
+	 *            the host of the server
+	 * @param port
+	 *            the telnet port of the server, e.g. 4242
+	 * @param connections
+	 *            the number of connections, i.e. the maximal concurrent pushes
+	 */
+	public TelnetClientImpl(String host, int port, int connections) {
+		checkArgument(connections > 0, "The connections must be positive. Got: %s", connections);
+		this.address = new InetSocketAddress(checkNotNull(host), port);
+		this.connections = new ArrayBlockingQueue<>(connections);
+		for (int i = 0; i < connections; i++) {
+			this.connections.add(new Connection());
+		}
+		this.buffers = new DirectBufferPool(BUFFER_SIZE, connections);
+	}
+
+	@Override
+	public Response pushMetrics(MetricBuilder builder) throws IOException {
+		checkNotNull(builder);
+		return push(writer -> {
+			for (Metric metric : builder.getMetrics()) {
+				writer.metric(metric);
+			}
+			return builder.getMetrics().size();
+		});
+	}
+
+	@Override
+	public Response pushSeries(MetricSeries series) throws IOException {
+		checkNotNull(series);
+		return push(writer -> {
+			writer.series(series);
+			return series.size();
+		});
+	}
+
+	/**
+	 * The telnet protocol has no commit, the data points are visible after
+	 * the server has processed them.
+	 */
+	@Override
+	public void setCommit(boolean commit) {
+		//not supported by the protocol
+	}
+
+	/**
+	 * @return the number of written lines
+	 */
+	public long getLines() {
+		return lines.get();
+	}
+
+	/**
+	 * @return the number of error lines of the server
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	private Response push(Lines content) throws IOException {
+		if (closed) {
+			throw new IOException("The client is closed");
+		}
+		Connection connection;
+		try {
+			connection = connections.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection");
+		}
+		ByteBuffer buffer = buffers.acquire();
+		try {
+			long rejected = connection.rejected;
+			PutLineWriter writer = new PutLineWriter(buffer, connection::write);
+			int written = content.write(writer);
+			writer.flush();
+			lines.addAndGet(written);
+			//all error lines of the push arrive before the reply
+			connection.sync();
+			rejected = connection.rejected - rejected;
+			if (rejected > 0) {
+				logger.warn("The server {} rejected {} lines of a push of {} lines", address, rejected, written);
+				return new Response(REJECTED);
+			}
+			return new Response(204);
+		} catch (IOException | RuntimeException e) {
+			//the connection may contain a partial line
+			connection.close();
+			throw e;
+		} finally {
+			buffers.release(buffer);
+			if (closed) {
+				connection.close();
+			}
+			connections.add(connection);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	@FunctionalInterface
+	private interface Lines {
+		int write(PutLineWriter writer) throws IOException;
+	}
+
+	/**
+	 * A non blocking socket and a selector that waits until the socket is
+	 * writable or the server has answered.
+	 */
+	private final class Connection {
+
+		private SocketChannel channel;
+		private Selector selector;
+		private final ByteBuffer errorBuffer = ByteBuffer.allocate(ERROR_BUFFER_SIZE);
+		private final ByteBuffer versionBuffer = ByteBuffer.allocate(VERSION.length);
+		//the error lines of the connection, also of earlier channels
+		private long rejected;
+		//true if the reply of the last version command was read
+		private boolean synced;
+
+		private void open() throws IOException {
+			SocketChannel socket = SocketChannel.open();
+			try {
+				socket.socket().setTcpNoDelay(true);
+				socket.socket().connect(address, DEFAULT_CONNECT_TIMEOUT_MILLISECONDS);
+				socket.configureBlocking(false);
+				selector = Selector.open();
+				socket.register(selector, SelectionKey.OP_READ);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			channel = socket;
+			logger.debug("Opened connection to {}", address);
+		}
+
+		/**
+		 * Writes the bytes of the buffer and clears it
+		 */
+		private void write(ByteBuffer buffer) throws IOException {
+			if (channel == null) {
+				open();
+			}
+			buffer.flip();
+			SelectionKey key = channel.keyFor(selector);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					if (selector.select(DEFAULT_WRITE_TIMEOUT_MILLISECONDS) == 0) {
+						throw new SocketTimeoutException("Could not write to " + address + " within "
+								+ DEFAULT_WRITE_TIMEOUT_MILLISECONDS + " ms");
+					}
+					selector.selectedKeys().clear();
+					key.interestOps(SelectionKey.OP_READ);
+				}
+				readErrors();
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Sends the version command and reads the answers until its reply
+		 */
+		private void sync() throws IOException {
+			synced = false;
+			versionBuffer.put(VERSION);
+			write(versionBuffer);
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEFAULT_READ_TIMEOUT_MILLISECONDS);
+			while (!synced) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					throw new SocketTimeoutException("No reply of " + address + " to the version command within "
+							+ DEFAULT_READ_TIMEOUT_MILLISECONDS + " ms");
+				}
+				selector.select(remaining);
+				selector.selectedKeys().clear();
+				readErrors();
+			}
+		}
+
+		/**
+		 * Reads the answers that are available without blocking, i.e. the
+		 * error lines and the reply of the version command
+		 */
+		private void readErrors() throws IOException {
+			int read;
+			while ((read = channel.read(errorBuffer)) > 0) {
+				errorBuffer.flip();
+				int start = 0;
+				for (int i = 0; i < errorBuffer.limit(); i++) {
+					if (errorBuffer.get(i) == '\n') {
+						answer(start, i);
+						start = i + 1;
+					}
+				}
+				if (start == 0 && errorBuffer.limit() == errorBuffer.capacity()) {
+					//a line longer than the buffer
+					error(0, errorBuffer.limit());
+					start = errorBuffer.limit();
+				}
+				errorBuffer.position(start);
+				errorBuffer.compact();
+			}
+			if (read < 0) {
+				throw new IOException("The connection was closed by " + address);
+			}
+		}
+
+		private void answer(int start, int end) {
+			if (startsWith(start, end, VERSION_REPLY_END)) {
+				synced = true;
+			} else if (!startsWith(start, end, VERSION_REPLY)) {
+				error(start, end);
+			}
+		}
+
+		private boolean startsWith(int start, int end, byte[] prefix) {
+			if (end - start < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (errorBuffer.get(start + i) != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void error(int start, int end) {
+			rejected++;
+			long count = errors.incrementAndGet();
+			if (count <= MAX_LOGGED_ERRORS) {
+				byte[] line = new byte[end - start];
+				for (int i = 0; i < line.length; i++) {
+					line[i] = errorBuffer.get(start + i);
+				}
+				logger.error("The server {} rejected a line: {}", address, new String(line, StandardCharsets.UTF_8).trim());
+			}
+		}
+
+		private void close() {
+			if (channel == null) {
+				return;
+			}
+			try {
+				readErrors();
+			} catch (IOException e) {
+				logger.debug("Could not read the errors of {}", address, e);
+			}
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Could not close the connection to {}", address, e);
+			}
+			channel = null;
+			selector = null;
+			errorBuffer.clear();
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A local stand-in for the telnet interface of an OpenTSDB server, e.g. to
+ * measure the throughput of the {@link TelnetClientImpl} without a server.
+ * One selector thread reads the connections, counts the lines and checks that
+ * a line is a put command with at least a metric, a timestamp, a value and a
+ * tag. It answers the version command and other lines with an error line
+ * like OpenTSDB does. The data points are not stored.
+ * <p>
+ * Run it with the port as argument (default 4242). It logs the lines and
+ * bytes per second until it is stopped.
+ *
+ * @author f.lautenschlager
+ */
+public class TelnetLineServer implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_PORT = 4242;
+	//put, metric, timestamp, value and at least one tag
+	private static final int MIN_TOKENS = 5;
+	private static final byte[] PUT = "put ".getBytes(StandardCharsets.US_ASCII);
+	private static final String VERSION = "version";
+	//the reply of OpenTSDB to the version command
+	private static final byte[] VERSION_REPLY = ("net.opentsdb.tools BuildData built at revision 0000000 (line server)\n"
+			+ "Built on 1970/01/01 00:00:00 +0000 by chronix@localhost:/\n").getBytes(StandardCharsets.US_ASCII);
+
+	private static Logger logger = LoggerFactory.getLogger(TelnetLineServer.class);
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final Consumer<String> lineConsumer;
+	private final Thread thread;
+	private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong lines = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+
+	/**
+	 * Starts a server on the loopback interface that only counts the lines
+	 *
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @throws IOException
+	 *             problem occurred binding the port
+	 */
+	public TelnetLineServer(int port) throws IOException {
+		this(port, null);
+	}
+
+	/**
+	 * Starts a server on the loopback interface
+	 *
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @param lineConsumer
+	 *            receives every valid line (without the line break), null to
+	 *            only count the lines
+	 * @throws IOException
+	 *             problem occurred binding the port
+	 */
+	public TelnetLineServer(int port, Consumer<String> lineConsumer) throws IOException {
+		this.lineConsumer = lineConsumer;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress("localhost", port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+
+		thread = new Thread(this::serve, "opentsdb-line-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the number of valid lines
+	 */
+	public long getLines() {
+		return lines.get();
+	}
+
+	/**
+	 * @return the number of received bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return the number of invalid lines
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @return the number of accepted connections
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	private void serve() {
+		try {
+			while (selector.isOpen()) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						read(key);
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			//closed
+		} catch (IOException e) {
+			logger.error("The line server failed", e);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(BUFFER_SIZE));
+			clients.add(channel);
+			connections.incrementAndGet();
+		}
+	}
+
+	private void read(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		ByteBuffer buffer = (ByteBuffer) key.attachment();
+		try {
+			int read = channel.read(buffer);
+			if (read < 0) {
+				key.cancel();
+				clients.remove(channel);
+				channel.close();
+				return;
+			}
+			bytes.addAndGet(read);
+
+			buffer.flip();
+			int start = 0;
+			for (int i = 0; i < buffer.limit(); i++) {
+				if (buffer.get(i) == '\n') {
+					line(channel, buffer, start, i);
+					start = i + 1;
+				}
+			}
+			if (start == 0 && buffer.limit() == buffer.capacity()) {
+				//a line longer than the buffer
+				error(channel, "line too long");
+				start = buffer.limit();
+			}
+			buffer.position(start);
+			buffer.compact();
+		} catch (IOException e) {
+			logger.debug("Closing a connection of the line server", e);
+			key.cancel();
+			clients.remove(channel);
+			try {
+				channel.close();
+			} catch (IOException closing) {
+				logger.debug("Could not close a connection", closing);
+			}
+		}
+	}
+
+	private void line(SocketChannel channel, ByteBuffer buffer, int start, int end) throws IOException {
+		if (end > start && buffer.get(end - 1) == '\r') {
+			end--;
+		}
+		if (end == start) {
+			return;
+		}
+
+		boolean put = end - start >= PUT.length;
+		for (int i = 0; put && i < PUT.length; i++) {
+			put = buffer.get(start + i) == PUT[i];
+		}
+		if (!put) {
+			if (isVersion(buffer, start, end)) {
+				channel.write(ByteBuffer.wrap(VERSION_REPLY));
+			} else {
+				error(channel, "unknown command");
+			}
+			return;
+		}
+		int tokens = 1;
+		for (int i = start + 1; i < end; i++) {
+			if (buffer.get(i) == ' ' && buffer.get(i - 1) != ' ') {
+				tokens++;
+			}
+		}
+		if (buffer.get(end - 1) == ' ') {
+			tokens--;
+		}
+		if (tokens < MIN_TOKENS) {
+			error(channel, "put: illegal argument: not enough arguments (need least 4, got " + (tokens - 1) + ")");
+			return;
+		}
+
+		lines.incrementAndGet();
+		if (lineConsumer != null) {
+			byte[] line = new byte[end - start];
+			for (int i = 0; i < line.length; i++) {
+				line[i] = buffer.get(start + i);
+			}
+			lineConsumer.accept(new String(line, StandardCharsets.UTF_8));
+		}
+	}
+
+	private static boolean isVersion(ByteBuffer buffer, int start, int end) {
+		if (end - start != VERSION.length()) {
+			return false;
+		}
+		for (int i = 0; i < VERSION.length(); i++) {
+			if (buffer.get(start + i) != VERSION.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Answers with an error line. The line is dropped if the client does not read.
+	 */
+	private void error(SocketChannel channel, String message) throws IOException {
+		errors.incrementAndGet();
+		channel.write(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Override
+	public void close() throws IOException {
+		selector.close();
+		server.close();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SocketChannel client : clients) {
+			client.close();
+		}
+	}
+
+	/**
+	 * Runs a line server and logs its throughput every second
+	 *
+	 * @param args
+	 *            the port, 4242 by default
+	 * @throws Exception
+	 *             problem occurred running the server
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		try (TelnetLineServer lineServer = new TelnetLineServer(port)) {
+			logger.info("Line server listening on port {}", lineServer.getPort());
+			long lastLines = 0;
+			long lastBytes = 0;
+			while (true) {
+				Thread.sleep(1000);
+				long currentLines = lineServer.getLines();
+				long currentBytes = lineServer.getBytes();
+				if (currentBytes > lastBytes) {
+					logger.info("{} lines/s, {} MB/s ({} lines, {} errors, {} connections)",
+							currentLines - lastLines, String.format("%.1f", (currentBytes - lastBytes) / 1e6),
+							currentLines, lineServer.getErrors(), lineServer.getConnections());
+				}
+				lastLines = currentLines;
+				lastBytes = currentBytes;
+			}
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes metrics as the JSON of the OpenTSDB /api/put endpoint directly to an
+ * output stream, e.g. the socket of a request.
+ * <p>
+ * The JSON is written by hand into a fixed buffer. Hence the memory does not
+ * depend on the number of metrics and no intermediate string is created.
+ * The JSON is the same as the one of Gson for a list of {@link Metric}, except
+ * that no html characters are escaped.
+ *
+ * @author f.lautenschlager
+ */
+public final class JsonMetricWriter implements Flushable {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	//are escaped as they are line breaks in javascript
+	private static final char LINE_SEPARATOR = 0x2028;
+	private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private boolean first = true;
+
+	/**
+	 * Creates a writer
+	 *
+	 * @param out
+	 *            the stream the JSON is written to
+	 */
+	public JsonMetricWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Starts the array of metrics.
+	 *
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public void beginArray() throws IOException {
+		write('[');
+		first = true;
+	}
+
+	/**
+	 * Writes a metric
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param timestamp
+	 *            the timestamp of the data point
+	 * @param value
+	 *            the value of the data point, either a long or a double
+	 * @param tags
+	 *            the tags of the data point
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public void metric(String name, long timestamp, Number value,
+			Map<String, String> tags) throws IOException {
+		beginMetric(name, timestamp);
+		if (value != null) {
+			write(",\"value\":");
+			number(value);
+		}
+		write(",\"tags\":");
+		tags(tags);
+		write('}');
+	}
+
+	/**
+	 * Writes a metric with a double value
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param timestamp
+	 *            the timestamp of the data point
+	 * @param value
+	 *            the value of the data point
+	 * @param tags
+	 *            the tags of the data point
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public void metric(String name, long timestamp, double value,
+			Map<String, String> tags) throws IOException {
+		beginMetric(name, timestamp);
+		write(",\"value\":");
+		number(value);
+		write(",\"tags\":");
+		tags(tags);
+		write('}');
+	}
+
+	/**
+	 * Writes a metric per data point of the series. The name and the tags are
+	 * encoded once for all data points.
+	 *
+	 * @param series
+	 *            the series
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public void series(MetricSeries series) throws IOException {
+		if (series.size() == 0) {
+			return;
+		}
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		JsonMetricWriter encoder = new JsonMetricWriter(encoded);
+		encoder.write("{\"metric\":");
+		encoder.string(series.getName());
+		encoder.write(",\"timestamp\":");
+		encoder.flush();
+		byte[] prefix = encoded.toByteArray();
+
+		encoded.reset();
+		encoder.write(",\"tags\":");
+		encoder.tags(series.getTags());
+		encoder.write('}');
+		encoder.flush();
+		byte[] suffix = encoded.toByteArray();
+
+		for (int i = 0; i < series.size(); i++) {
+			if (!first) {
+				write(',');
+			}
+			first = false;
+			write(prefix);
+			write(Long.toString(series.getTimestamp(i)));
+			write(",\"value\":");
+			number(series.getValue(i));
+			write(suffix);
+		}
+	}
+
+	private void beginMetric(String name, long timestamp) throws IOException {
+		if (!first) {
+			write(',');
+		}
+		first = false;
+		write("{\"metric\":");
+		string(name);
+		write(",\"timestamp\":");
+		write(Long.toString(timestamp));
+	}
+
+	/**
+	 * Ends the array of metrics.
+	 *
+	 * @throws IOException
+	 *             problem occurred writing to the stream
+	 */
+	public void endArray() throws IOException {
+		write(']');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+	}
+
+	private void tags(Map<String, String> tags) throws IOException {
+		write('{');
+		boolean firstTag = true;
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			if (!firstTag) {
+				write(',');
+			}
+			firstTag = false;
+			string(tag.getKey());
+			write(':');
+			string(tag.getValue());
+		}
+		write('}');
+	}
+
+	private void number(Number value) throws IOException {
+		if (value instanceof Double || value instanceof Float) {
+			number(value.doubleValue());
+		} else {
+			write(value.toString());
+		}
+	}
+
+	private void number(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value
+					+ " is not a valid double value as per JSON specification.");
+		}
+		write(Double.toString(value));
+	}
+
+	private void string(String value) throws IOException {
+		write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				write('\\');
+				write(c);
+			} else if (c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+				write("\\u");
+				write(HEX[(c >> 12) & 0xF]);
+				write(HEX[(c >> 8) & 0xF]);
+				write(HEX[(c >> 4) & 0xF]);
+				write(HEX[c & 0xF]);
+			} else if (c < 0x80) {
+				write(c);
+			} else {
+				utf8(value, i);
+				if (Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					i++;
+				}
+			}
+		}
+		write('"');
+	}
+
+	/**
+	 * Writes the utf-8 bytes of the non ascii character at the given index
+	 */
+	private void utf8(String value, int index) throws IOException {
+		int codePoint = value.codePointAt(index);
+		if (codePoint < 0x10000 && Character.isSurrogate(value.charAt(index))) {
+			//a lone surrogate is replaced like String.getBytes does
+			write((byte) '?');
+			return;
+		}
+		if (codePoint < 0x800) {
+			write((byte) (0xC0 | (codePoint >> 6)));
+			write((byte) (0x80 | (codePoint & 0x3F)));
+		} else if (codePoint < 0x10000) {
+			write((byte) (0xE0 | (codePoint >> 12)));
+			write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+			write((byte) (0x80 | (codePoint & 0x3F)));
+		} else {
+			write((byte) (0xF0 | (codePoint >> 18)));
+			write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+			write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+			write((byte) (0x80 | (codePoint & 0x3F)));
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		for (byte b : bytes) {
+			write(b);
+		}
+	}
+
+	private void write(String ascii) throws IOException {
+		for (int i = 0; i < ascii.length(); i++) {
+			write(ascii.charAt(i));
+		}
+	}
+
+	private void write(char ascii) throws IOException {
+		write((byte) ascii);
+	}
+
+	private void write(byte b) throws IOException {
+		if (position == buffer.length) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+		buffer[position++] = b;
+	}
+}
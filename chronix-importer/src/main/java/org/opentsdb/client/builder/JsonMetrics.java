@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Metrics that write themselves as the JSON of the OpenTSDB /api/put
+ * endpoint.
+ *
+ * @author f.lautenschlager
+ */
+public interface JsonMetrics {
+
+	/**
+	 * Writes the JSON of the metrics to the given stream without building it
+	 * in memory.
+	 *
+	 * @param out
+	 *            the stream, e.g. the body of a request
+	 * @throws IOException
+	 *             if metrics cannot be written
+	 */
+	void writeTo(OutputStream out) throws IOException;
+}
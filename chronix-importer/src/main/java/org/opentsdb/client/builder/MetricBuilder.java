@@ -15,10 +15,10 @@
  */
 package org.opentsdb.client.builder;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,13 +27,10 @@ import static com.google.common.base.Preconditions.checkState;
 /**
  * Builder used to create the JSON to push metrics to KairosDB.
  */
-public class MetricBuilder {
+public class MetricBuilder implements JsonMetrics {
 	private List<Metric> metrics = new ArrayList<Metric>();
-	private transient Gson mapper;
 
 	private MetricBuilder() {
-		GsonBuilder builder = new GsonBuilder();
-		mapper = builder.create();
 	}
 
 	/**
@@ -76,11 +73,26 @@ public class MetricBuilder {
 	 *             if metrics cannot be converted to JSON
 	 */
 	public String build() throws IOException {
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		writeTo(json);
+		return json.toString(StandardCharsets.UTF_8.name());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
 		for (Metric metric : metrics) {
 			// verify that there is at least one tag for each metric
 			checkState(metric.getTags().size() > 0, metric.getName()
 					+ " must contain at least one tag.");
 		}
-		return mapper.toJson(metrics);
+
+		JsonMetricWriter writer = new JsonMetricWriter(out);
+		writer.beginArray();
+		for (Metric metric : metrics) {
+			writer.metric(metric.getName(), metric.getTimestamp(),
+					(Number) metric.getValue(), metric.getTags());
+		}
+		writer.endArray();
+		writer.flush();
 	}
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.opentsdb.client.util.Preconditions.checkNotNullOrEmpty;
+
+/**
+ * The data points of one metric with one set of tags stored in columns.
+ * <p>
+ * Unlike a list of {@link Metric} there is no object per data point. The
+ * name and the immutable tags are shared by all data points and the
+ * timestamps and values are primitive arrays, i.e. a data point takes 16
+ * bytes. A series can be a slice of larger arrays, e.g. a batch of a long
+ * series. The arrays are not copied and must not be modified while the
+ * series is used.
+ *
+ * @author f.lautenschlager
+ */
+public final class MetricSeries implements JsonMetrics {
+
+	private final String name;
+	private final Map<String, String> tags;
+	private final long[] timestamps;
+	private final double[] values;
+	private final int offset;
+	private final int length;
+
+	/**
+	 * Creates a series of all data points of the arrays
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param tags
+	 *            the tags of all data points, at least one
+	 * @param timestamps
+	 *            the timestamps of the data points
+	 * @param values
+	 *            the values of the data points
+	 */
+	public MetricSeries(String name, Map<String, String> tags,
+			long[] timestamps, double[] values) {
+		this(name, tags, timestamps, values, 0, checkNotNull(timestamps).length);
+	}
+
+	/**
+	 * Creates a series of a slice of the arrays
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param tags
+	 *            the tags of all data points, at least one
+	 * @param timestamps
+	 *            the timestamps of the data points
+	 * @param values
+	 *            the values of the data points
+	 * @param offset
+	 *            the index of the first data point
+	 * @param length
+	 *            the number of data points
+	 */
+	public MetricSeries(String name, Map<String, String> tags,
+			long[] timestamps, double[] values, int offset, int length) {
+		this.name = checkNotNullOrEmpty(name);
+		this.tags = immutableTags(tags);
+		this.timestamps = checkNotNull(timestamps);
+		this.values = checkNotNull(values);
+		checkArgument(offset >= 0 && length >= 0
+				&& offset + length <= timestamps.length
+				&& offset + length <= values.length,
+				"Invalid slice %s + %s of the data points", offset, length);
+		this.offset = offset;
+		this.length = length;
+	}
+
+	private MetricSeries(MetricSeries series, int offset, int length) {
+		this.name = series.name;
+		this.tags = series.tags;
+		this.timestamps = series.timestamps;
+		this.values = series.values;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	private static Map<String, String> immutableTags(Map<String, String> tags) {
+		checkArgument(checkNotNull(tags).size() > 0,
+				"A series must contain at least one tag.");
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			checkNotNullOrEmpty(tag.getKey());
+			checkNotNullOrEmpty(tag.getValue());
+		}
+		return Collections.unmodifiableMap(new LinkedHashMap<String, String>(
+				tags));
+	}
+
+	/**
+	 * Returns a slice of this series that shares the arrays and the tags.
+	 *
+	 * @param from
+	 *            the index of the first data point of the slice
+	 * @param to
+	 *            the index after the last data point of the slice
+	 * @return the slice
+	 */
+	public MetricSeries slice(int from, int to) {
+		checkArgument(from >= 0 && from <= to && to <= length,
+				"Invalid slice %s to %s of %s data points", from, to, length);
+		return new MetricSeries(this, offset + from, to - from);
+	}
+
+	/**
+	 * Returns the metric name.
+	 *
+	 * @return metric name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the tags of all data points.
+	 *
+	 * @return the immutable tags
+	 */
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * Returns the number of data points.
+	 *
+	 * @return the number of data points
+	 */
+	public int size() {
+		return length;
+	}
+
+	public long getTimestamp(int i) {
+		return timestamps[offset + i];
+	}
+
+	public double getValue(int i) {
+		return values[offset + i];
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		JsonMetricWriter writer = new JsonMetricWriter(out);
+		writer.beginArray();
+		writer.series(this);
+		writer.endArray();
+		writer.flush();
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes metrics as lines of the OpenTSDB telnet style put command directly
+ * into a byte buffer, e.g. a pooled direct buffer of a socket:
+ * <pre>put &lt;metric&gt; &lt;timestamp&gt; &lt;value&gt; &lt;tagk=tagv&gt; ...</pre>
+ * A full buffer is passed to the sink, that has to write and clear it. The
+ * metric and the tags of a series are encoded once. Integral values and the
+ * timestamps are written without creating strings.
+ * <p>
+ * The protocol separates the tokens by spaces, hence white space within metric
+ * names, tag keys and tag values is replaced by an underscore, e.g.
+ * java.lang:name=PS_Scavenge,type=GarbageCollector.
+ *
+ * @author f.lautenschlager
+ */
+public final class PutLineWriter {
+
+	//the longest representation of a long (Long.MIN_VALUE) and a double (e.g. -4.9E-324 or -1.2345678901234567E-300)
+	private static final int MAX_LONG_LENGTH = 20;
+	private static final int MAX_DOUBLE_LENGTH = 25;
+	//doubles up to this magnitude are exact longs
+	private static final double MAX_EXACT_LONG = 1L << 53;
+
+	private static final byte[] PUT = "put ".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Receives the full buffers
+	 */
+	public interface Sink {
+
+		/**
+		 * Writes the bytes between zero and the position of the buffer and
+		 * clears it.
+		 *
+		 * @param buffer
+		 *            the buffer
+		 * @throws IOException
+		 *             problem occurred writing the bytes
+		 */
+		void write(ByteBuffer buffer) throws IOException;
+	}
+
+	private final ByteBuffer buffer;
+	private final Sink sink;
+	private final byte[] digits = new byte[MAX_LONG_LENGTH];
+
+	/**
+	 * Creates a writer
+	 *
+	 * @param buffer
+	 *            the buffer the lines are written to
+	 * @param sink
+	 *            receives the full buffer
+	 */
+	public PutLineWriter(ByteBuffer buffer, Sink sink) {
+		this.buffer = buffer;
+		this.sink = sink;
+	}
+
+	/**
+	 * Writes a line for the metric
+	 *
+	 * @param metric
+	 *            the metric with its data point
+	 * @throws IOException
+	 *             problem occurred writing a full buffer
+	 */
+	public void metric(Metric metric) throws IOException {
+		byte[] prefix = prefix(metric.getName());
+		byte[] suffix = suffix(metric.getTags());
+		Object value = metric.getValue();
+		if (value == null) {
+			throw new IllegalArgumentException("The metric " + metric.getName() + " has no data point");
+		}
+		beginLine(prefix, suffix, metric.getTimestamp());
+		if (value instanceof Double || value instanceof Float) {
+			number(((Number) value).doubleValue());
+		} else {
+			number(((Number) value).longValue());
+		}
+		buffer.put(suffix);
+	}
+
+	/**
+	 * Writes a line per data point of the series.
+	 *
+	 * @param series
+	 *            the series
+	 * @throws IOException
+	 *             problem occurred writing a full buffer
+	 */
+	public void series(MetricSeries series) throws IOException {
+		if (series.size() == 0) {
+			return;
+		}
+		byte[] prefix = prefix(series.getName());
+		byte[] suffix = suffix(series.getTags());
+		for (int i = 0; i < series.size(); i++) {
+			beginLine(prefix, suffix, series.getTimestamp(i));
+			number(series.getValue(i));
+			buffer.put(suffix);
+		}
+	}
+
+	/**
+	 * Passes the written lines to the sink
+	 *
+	 * @throws IOException
+	 *             problem occurred writing the buffer
+	 */
+	public void flush() throws IOException {
+		if (buffer.position() > 0) {
+			sink.write(buffer);
+		}
+	}
+
+	private void beginLine(byte[] prefix, byte[] suffix, long timestamp) throws IOException {
+		int maxLength = prefix.length + MAX_LONG_LENGTH + 1 + MAX_DOUBLE_LENGTH + suffix.length;
+		if (buffer.remaining() < maxLength) {
+			flush();
+			if (buffer.remaining() < maxLength) {
+				throw new IllegalArgumentException("A line of " + maxLength + " bytes does not fit into the buffer of "
+						+ buffer.capacity() + " bytes");
+			}
+		}
+		buffer.put(prefix);
+		number(timestamp);
+		buffer.put((byte) ' ');
+	}
+
+	/**
+	 * @return put &lt;metric&gt; and a space
+	 */
+	private static byte[] prefix(String name) {
+		byte[] metric = token(name, "metric name").getBytes(StandardCharsets.UTF_8);
+		byte[] prefix = new byte[PUT.length + metric.length + 1];
+		System.arraycopy(PUT, 0, prefix, 0, PUT.length);
+		System.arraycopy(metric, 0, prefix, PUT.length, metric.length);
+		prefix[prefix.length - 1] = ' ';
+		return prefix;
+	}
+
+	/**
+	 * @return the tags (each with a leading space) and the line break
+	 */
+	private static byte[] suffix(Map<String, String> tags) {
+		if (tags.isEmpty()) {
+			throw new IllegalArgumentException("A metric must contain at least one tag");
+		}
+		StringBuilder suffix = new StringBuilder();
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			suffix.append(' ').append(token(tag.getKey(), "tag key")).append('=')
+					.append(token(tag.getValue(), "tag value"));
+		}
+		suffix.append('\n');
+		return suffix.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String token(String token, String kind) {
+		if (token == null || token.isEmpty()) {
+			throw new IllegalArgumentException("The " + kind + " must not be empty");
+		}
+		char[] chars = null;
+		for (int i = 0; i < token.length(); i++) {
+			if (Character.isWhitespace(token.charAt(i))) {
+				if (chars == null) {
+					chars = token.toCharArray();
+				}
+				chars[i] = '_';
+			}
+		}
+		return chars == null ? token : new String(chars);
+	}
+
+	private void number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value + " is not a valid value of a data point");
+		}
+		if (value == Math.rint(value) && Math.abs(value) <= MAX_EXACT_LONG) {
+			//a double value has to contain a fraction, e.g. 3498745856.0
+			number((long) value);
+			buffer.put((byte) '.').put((byte) '0');
+			return;
+		}
+		String text = Double.toString(value);
+		for (int i = 0; i < text.length(); i++) {
+			buffer.put((byte) text.charAt(i));
+		}
+	}
+
+	private void number(long value) {
+		if (value == Long.MIN_VALUE) {
+			String text = Long.toString(value);
+			for (int i = 0; i < text.length(); i++) {
+				buffer.put((byte) text.charAt(i));
+			}
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		buffer.put(digits, start, digits.length - start);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the settings of the csv importer
+ * @author f.lautenschlager
+ */
+class CSVImporterTest extends Specification {
+
+    def "test the spool directory is relative to the configuration"() {
+        given:
+        def configFile = new File("importer/config.yml")
+        def absolute = File.createTempDir()
+
+        expect:
+        CSVImporter.spoolDirectory(configFile, "spool") == new File(configFile.absoluteFile.parentFile, "spool")
+        CSVImporter.spoolDirectory(configFile, absolute.path) == absolute
+
+        cleanup:
+        absolute.deleteDir()
+    }
+}
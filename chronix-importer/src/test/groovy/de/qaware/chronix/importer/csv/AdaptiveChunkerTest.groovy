@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the adaptive chunking
+ * @author f.lautenschlager
+ */
+class AdaptiveChunkerTest extends Specification {
+
+    def contiguous(List chunks, int size) {
+        int next = 0
+        for (chunk in chunks) {
+            if (chunk[0] != next) {
+                return false
+            }
+            next = chunk[1]
+        }
+        next == size
+    }
+
+    def "test the chunks are cut at the target size"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+        //the encoded chunk is the range, each point takes the given bytes
+        def encoder = { int start, int end -> [start, end] } as AdaptiveChunker.Encoder
+
+        when:
+        def chunks = chunker.chunk(size, encoder, { (it[1] - it[0]) * bytesPerPoint })
+
+        then:
+        chunks.size() == expectedChunks
+        contiguous(chunks, size)
+        chunks.take(chunks.size() - 1).every { Math.abs((it[1] - it[0]) * bytesPerPoint - 1000) <= 200 }
+
+        where:
+        size  | bytesPerPoint | expectedChunks
+        10000 | 10            | 100
+        10000 | 1             | 10
+        10000 | 50            | 500
+        50    | 1             | 1
+        0     | 10            | 0
+    }
+
+    def "test the chunks do not span the partitions"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+
+        when:
+        def chunks = chunker.chunk([150, 160, 400] as int[], { int start, int end -> [start, end] } as AdaptiveChunker.Encoder,
+                { (it[1] - it[0]) * 10 })
+
+        then:
+        chunks == [[0, 100], [100, 150], [150, 160], [160, 260], [260, 360], [360, 400]]
+    }
+
+    def "test a point larger than the target is a chunk"() {
+        given:
+        def chunker = new AdaptiveChunker(10, 100)
+
+        when:
+        def chunks = chunker.chunk(3, { int start, int end -> [start, end] } as AdaptiveChunker.Encoder,
+                { (it[1] - it[0]) * 100 })
+
+        then:
+        chunks == [[0, 1], [1, 2], [2, 3]]
+    }
+
+    def "test the points of an open part that do not fill a chunk are left over"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+        def estimate = chunker.estimate()
+        def chunks = []
+
+        when:
+        def chunked = chunker.chunk([250] as int[], false, estimate, { int start, int end -> [start, end] } as AdaptiveChunker.Encoder,
+                { (it[1] - it[0]) * 10 }, chunks)
+
+        then:
+        chunked == 200
+        chunks == [[0, 100], [100, 200]]
+
+        when:
+        chunks.clear()
+        chunked = chunker.chunk([50] as int[], true, estimate, { int start, int end -> [start, end] } as AdaptiveChunker.Encoder,
+                { (it[1] - it[0]) * 10 }, chunks)
+
+        then:
+        chunked == 50
+        chunks == [[0, 50]]
+    }
+
+    def "test the estimate is kept from one part to the next"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+        def estimate = chunker.estimate()
+        def encoder = { int start, int end -> [start, end] } as AdaptiveChunker.Encoder
+
+        when:
+        chunker.chunk([1000] as int[], false, estimate, encoder, { (it[1] - it[0]) * 2 }, [])
+        def chunks = []
+        def chunked = chunker.chunk([1000] as int[], false, estimate, encoder, { (it[1] - it[0]) * 2 }, chunks)
+
+        then:
+        estimate.points() == 500
+        chunked == 1000
+        //the second part is chunked at once with the measured estimate
+        chunks == [[0, 500], [500, 1000]]
+        chunker.chunks() == 4
+    }
+
+    def "test an undersized chunk of an open part waits for the next part"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+        def estimate = chunker.estimate()
+        def chunks = []
+
+        when:
+        def chunked = chunker.chunk([300] as int[], false, estimate, { int start, int end -> [start, end] } as AdaptiveChunker.Encoder,
+                { (it[1] - it[0]) * 2 }, chunks)
+
+        then:
+        chunked == 0
+        chunks.isEmpty()
+        estimate.points() == 500
+    }
+
+    def "test the report of the chunk sizes"() {
+        given:
+        def chunker = new AdaptiveChunker(1000, 100)
+        chunker.chunk(1050, { int start, int end -> [start, end] } as AdaptiveChunker.Encoder, { (it[1] - it[0]) * 10 })
+
+        when:
+        def report = chunker.report()
+
+        then:
+        chunker.chunks() == 11
+        report.startsWith("11 chunks (1.00 encodings per chunk), 90 % within 20 % of the target 1000 bytes.")
+        report.contains("max 1000")
+        report.contains("Points p10 100")
+    }
+}
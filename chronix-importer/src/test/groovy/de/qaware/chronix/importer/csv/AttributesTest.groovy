@@ -74,6 +74,18 @@ class AttributesTest extends Specification {
         hash == attribute.hashCode()
     }
 
+    def "test series"() {
+        given:
+        def attribute = new Attributes("metric", "one", "two", "2016.03.01", "10.15.17.csv.gz")
+
+        when:
+        def series = attribute.series(2)
+        then:
+        series == new Attributes("metric", "one", "two")
+        series == new Attributes("metric", "one", "two", "2016.03.02", "00.00.00.csv.gz").series(2)
+        attribute.series(5).is(attribute)
+    }
+
     def "test toString"() {
         given:
         def attribute = new Attributes("metric", "one", "two")
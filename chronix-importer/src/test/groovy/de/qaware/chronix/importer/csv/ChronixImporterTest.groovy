@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.params.HttpConnectionParams
+import org.apache.solr.common.util.JavaBinCodec
+import org.apache.solr.common.util.NamedList
+import org.opentsdb.client.ContentEncoding
+import org.opentsdb.client.RetryPolicy
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.concurrent.Executors
+
+/**
+ * Unit test for the import to Chronix against a local server
+ * @author f.lautenschlager
+ */
+class ChronixImporterTest extends Specification {
+
+    HttpServer server
+    def requests = Collections.synchronizedList([])
+    def contentEncodings = Collections.synchronizedList([])
+    def openTSDBStatus = 204
+    //the status of the streamed updates, i.e. the javabin requests
+    def updateStatus = 200
+
+    def setup() {
+        def header = new NamedList()
+        header.add("status", 0)
+        def solrResponse = new NamedList()
+        solrResponse.add("responseHeader", header)
+        def javabin = new ByteArrayOutputStream()
+        new JavaBinCodec().marshal(solrResponse, javabin)
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.setExecutor(Executors.newFixedThreadPool(8))
+        server.createContext("/") { exchange ->
+            exchange.requestBody.bytes
+            requests << exchange.requestURI.path
+            contentEncodings << exchange.requestHeaders.getFirst("Content-Encoding")
+            if (exchange.requestURI.path.contains("/ingest/opentsdb")) {
+                exchange.sendResponseHeaders(openTSDBStatus, -1)
+            } else if (updateStatus != 200 && exchange.requestHeaders.getFirst("Content-Type") == "application/javabin") {
+                exchange.sendResponseHeaders(updateStatus, -1)
+            } else {
+                exchange.responseHeaders.add("Content-Type", "application/octet-stream")
+                exchange.sendResponseHeaders(200, javabin.size())
+                exchange.responseBody.write(javabin.toByteArray())
+            }
+            exchange.close()
+        }
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop(0)
+        server.executor.shutdownNow()
+    }
+
+    def url() {
+        "http://localhost:${server.address.port}/solr/chronix"
+    }
+
+    def points(int size) {
+        new ImportPoints((0..<size).collect { it * 1000L } as long[], (0..<size).collect { it as double } as double[], size)
+    }
+
+    def "test the OpenTSDB batches are bounded and share the arrays"() {
+        given:
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[])
+        def importPoints = points(12000)
+
+        when:
+        def batches = importer.openTSDBBatches(importPoints, new Attributes("cpu", "jenkins", "global"))
+
+        then:
+        batches*.size() == [5000, 5000, 2000]
+        batches.every { it.name == "cpu" && it.tags == [host: "jenkins", group: "global"] }
+        batches[2].getTimestamp(0) == 10000000L
+    }
+
+    def "test one OpenTSDB client is shared by the pushes and closed by the commit"() {
+        given:
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[], 2, 3, ContentEncoding.IDENTITY, 0)
+
+        when:
+        def database = importer.importToChronix(false, true)
+        (0..<3).each { database.accept(points(6000), new Attributes("metric" + it, "jenkins", "global")) }
+        importer.commit()
+        def pool = importer.openTSDBClient.httpClient
+        pool.staleMonitor.join(1000)
+
+        then:
+        requests.count { it == "/solr/chronix/ingest/opentsdb/http/api/put" } == 6
+        !pool.staleMonitor.isAlive()
+    }
+
+    def "test the streamed parts of a time series are chunked like the whole time series"() {
+        given:
+        def whole = new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.IDENTITY, 0)
+        def streamed = new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.IDENTITY, 0)
+        [whole, streamed]*.setChunkSize(4096)
+        def importPoints = points(50000)
+        def attributes = new Attributes("cpu", "jenkins", "global")
+        //the streaming import passes less points than fill a chunk
+        int part = streamed.pointsPerChunk().intdiv(3)
+
+        when:
+        whole.importToChronix(false, false).accept(importPoints, attributes)
+        whole.commit()
+        def database = streamed.importToChronix(false, false)
+        for (int start = 0; start < importPoints.size(); start += part) {
+            int end = Math.min(start + part, importPoints.size())
+            database.accept(new ImportPoints(Arrays.copyOfRange(importPoints.timestamps(), start, end),
+                    Arrays.copyOfRange(importPoints.values(), start, end), end - start).partial(), attributes)
+        }
+        database.accept(points(0), attributes)
+        streamed.commit()
+
+        then:
+        streamed.chunker.chunks() == whole.chunker.chunks()
+        streamed.streamedSeries.isEmpty()
+    }
+
+    def "test the points per chunk follow the chunk size"() {
+        given:
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[])
+        int defaultPoints = importer.pointsPerChunk()
+
+        when:
+        importer.setChunkSize(64 * 1024)
+
+        then:
+        importer.pointsPerChunk() == defaultPoints.intdiv(2)
+    }
+
+    def "test the Solr requests have timeouts and only the updates are compressed"() {
+        given:
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.GZIP, 0)
+        def httpClient = importer.solrHttpClient
+
+        when:
+        def database = importer.importToChronix(true, false)
+        database.accept(points(1000), new Attributes("cpu", "jenkins", "global"))
+        importer.commit()
+
+        then:
+        HttpConnectionParams.getConnectionTimeout(httpClient.params) == 15000
+        HttpConnectionParams.getSoTimeout(httpClient.params) == 120000
+        //the delete by query, the update and the commit
+        requests == ["/solr/chronix/update"] * 3
+        contentEncodings == [null, "gzip", null]
+        //the connections are closed by the commit
+        httpClient.connectionManager.totalStats.available == 0
+        httpClient.connectionManager.totalStats.leased == 0
+    }
+
+    def "test failed batches are only spooled to a configured directory"() {
+        given:
+        openTSDBStatus = 500
+        def directory = Files.createTempDirectory("spool").toFile()
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.IDENTITY, 0)
+        importer.setRetryPolicy(new RetryPolicy(0, 1, 1))
+        if (spooled) {
+            importer.setSpoolDirectory(new File(directory, "spool"))
+        }
+
+        when:
+        def database = importer.importToChronix(false, true)
+        database.accept(points(100), new Attributes("cpu", "jenkins", "global"))
+        importer.commit()
+
+        then:
+        requests.count { it.contains("/ingest/opentsdb") } == 1
+        new File(directory, "spool").list()?.length == (spooled ? 1 : null)
+
+        cleanup:
+        directory.deleteDir()
+
+        where:
+        spooled << [false, true]
+    }
+
+    def "test the bulk updates are streamed and the http client is closed"() {
+        given:
+        def directory = Files.createTempDirectory("spool").toFile()
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.GZIP, 0)
+        importer.setBulkUpdates(2, 0)
+        importer.setSpoolDirectory(directory)
+
+        when:
+        def database = importer.importToChronix(false, false)
+        (0..<5).each { database.accept(points(1000), new Attributes("metric" + it, "jenkins", "global")) }
+        importer.commit()
+        def httpClient = importer.bulkHttpClient
+
+        then:
+        requests.size() >= 2
+        requests.every { it == "/solr/chronix/update" }
+        contentEncodings.count { it == "gzip" } == requests.size() - 1
+        importer.bulkPending.isEmpty()
+        directory.list().length == 0
+        httpClient.connectionManager.totalStats.available == 0
+        httpClient.connectionManager.totalStats.leased == 0
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "test the documents of failed bulk requests are spooled"() {
+        given:
+        updateStatus = 500
+        def directory = Files.createTempDirectory("spool").toFile()
+        def importer = new ChronixImporter(reachable ? url() : "http://localhost:1/solr/chronix",
+                ["host", "group"] as String[], 1, 1, ContentEncoding.IDENTITY, 0)
+        importer.setBulkUpdates(2, 0)
+        importer.setSpoolDirectory(directory)
+
+        when:
+        def database = importer.importToChronix(false, false)
+        (0..<5).each { database.accept(points(1000), new Attributes("metric" + it, "jenkins", "global")) }
+        importer.commit()
+
+        then:
+        importer.bulkErrors.get() > 0
+        importer.bulkPending.isEmpty()
+        //a spooled batch per time series
+        directory.list().length == 5
+
+        cleanup:
+        directory.deleteDir()
+
+        where:
+        reachable << [true, false]
+    }
+
+    def "test the replay needs a spool directory"() {
+        given:
+        def importer = new ChronixImporter(url(), ["host", "group"] as String[])
+
+        when:
+        importer.replaySpool()
+
+        then:
+        thrown IllegalStateException
+    }
+
+    def "test an invalid compression level fails at the construction"() {
+        when:
+        new ChronixImporter(url(), ["host", "group"] as String[], 1, 1, ContentEncoding.GZIP, 12)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
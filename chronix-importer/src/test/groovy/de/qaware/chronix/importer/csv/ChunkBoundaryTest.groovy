@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import java.time.LocalDateTime
+import java.time.ZoneId
+
+/**
+ * Unit test for the calendar boundaries of the chunks
+ * @author f.lautenschlager
+ */
+class ChunkBoundaryTest extends Specification {
+
+    static final ZoneId BERLIN = ZoneId.of("Europe/Berlin")
+
+    def timestamps(String... dates) {
+        dates.collect { LocalDateTime.parse(it).atZone(BERLIN).toInstant().toEpochMilli() } as long[]
+    }
+
+    def "test the partitions at the calendar boundaries"() {
+        given:
+        //sunday, monday, tuesday
+        def ts = timestamps("2016-02-21T10:15:00", "2016-02-21T10:45:00", "2016-02-21T11:00:00", "2016-02-21T23:59:59",
+                "2016-02-22T00:00:00", "2016-02-22T00:30:00", "2016-02-23T08:00:00")
+
+        expect:
+        boundary.partitions(ts, ts.length, BERLIN) == expected as int[]
+
+        where:
+        boundary            | expected
+        ChunkBoundary.NONE  | [7]
+        ChunkBoundary.HOUR  | [2, 3, 4, 6, 7]
+        ChunkBoundary.DAY   | [4, 6, 7]
+        ChunkBoundary.WEEK  | [4, 7]
+    }
+
+    def "test the partitions of the days with a daylight saving time change"() {
+        given:
+        //the 27th of march 2016 has 23 hours in Berlin
+        def ts = timestamps("2016-03-27T00:30:00", "2016-03-27T01:59:00", "2016-03-27T03:00:00", "2016-03-27T23:59:00",
+                "2016-03-28T00:00:00")
+
+        expect:
+        ChunkBoundary.DAY.partitions(ts, ts.length, BERLIN) == [4, 5] as int[]
+        ChunkBoundary.HOUR.partitions(ts, ts.length, BERLIN) == [1, 2, 3, 4, 5] as int[]
+        ChunkBoundary.DAY.partitions(ts, ts.length, ZoneId.of("UTC")) == [1, 5] as int[]
+    }
+
+    def "test the partitions of a prefix and of no points"() {
+        given:
+        def ts = timestamps("2016-02-21T10:15:00", "2016-02-22T10:15:00", "2016-02-23T10:15:00")
+
+        expect:
+        ChunkBoundary.DAY.partitions(ts, 2, BERLIN) == [1, 2] as int[]
+        ChunkBoundary.DAY.partitions(ts, 0, BERLIN) == [] as int[]
+    }
+
+    def "test the boundary names"() {
+        expect:
+        ChunkBoundary.of(name) == expected
+
+        where:
+        name   | expected
+        null   | ChunkBoundary.NONE
+        ""     | ChunkBoundary.NONE
+        "none" | ChunkBoundary.NONE
+        "hour" | ChunkBoundary.HOUR
+        "Day"  | ChunkBoundary.DAY
+        "WEEK" | ChunkBoundary.WEEK
+    }
+
+    def "test an unknown boundary name"() {
+        when:
+        ChunkBoundary.of("month")
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
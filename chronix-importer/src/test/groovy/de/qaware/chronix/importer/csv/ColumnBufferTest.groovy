@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the columnar point buffer
+ * @author f.lautenschlager
+ */
+class ColumnBufferTest extends Specification {
+
+    def "test shared timestamps"() {
+        given:
+        def buffer = new ColumnBuffer(2)
+
+        when:
+        (0..<2000).each {
+            buffer.addRow(it)
+            buffer.set(0, it * 2)
+            buffer.set(1, it * 3)
+            buffer.endRow(2)
+        }
+        buffer.sort()
+
+        then:
+        buffer.sortedColumns() == 0
+        buffer.size(0) == 2000
+        buffer.points(0).timestamps().is(buffer.points(1).timestamps())
+        buffer.points(1).getTimestamp(1999) == 1999
+        buffer.points(1).getValue(1999) == 5997
+    }
+
+    def "test missing values"() {
+        given:
+        def buffer = new ColumnBuffer(3)
+
+        when:
+        buffer.addRow(1)
+        buffer.set(0, 1)
+        buffer.set(1, 1)
+        buffer.set(2, 1)
+        buffer.endRow(3)
+
+        buffer.addRow(2)
+        buffer.set(0, 2)
+        buffer.endRow(1)
+
+        buffer.addRow(3)
+        buffer.set(0, 3)
+        buffer.set(1, 3)
+        buffer.endRow(2)
+
+        then:
+        points(buffer.points(0)) == [[1, 1], [2, 2], [3, 3]]
+        points(buffer.points(1)) == [[1, 1], [3, 3]]
+        points(buffer.points(2)) == [[1, 1]]
+    }
+
+    def "test missing values after the buffer grew"() {
+        given:
+        def buffer = new ColumnBuffer(2)
+
+        when:
+        (0..<3000).each {
+            buffer.addRow(it)
+            buffer.set(0, it)
+            if (it != 1500) {
+                buffer.set(1, -it)
+            }
+            buffer.endRow(it != 1500 ? 2 : 1)
+        }
+
+        then:
+        buffer.rows() == 3000
+        buffer.size(0) == 3000
+        buffer.size(1) == 2999
+        //the column with the missing value has its own timestamps
+        !buffer.points(1).timestamps().is(buffer.points(0).timestamps())
+        points(buffer.points(0)) == (0..<3000).collect { [it, it] }
+        points(buffer.points(1)) == (0..<3000).findAll { it != 1500 }.collect { [it, -it] }
+    }
+
+    def "test sort"() {
+        given:
+        def buffer = new ColumnBuffer(2)
+
+        when:
+        [3, 1, 2].each {
+            buffer.addRow(it)
+            buffer.set(0, it * 10)
+            if (it != 1) {
+                buffer.set(1, it * 100)
+            }
+            buffer.endRow(it != 1 ? 2 : 1)
+        }
+        buffer.sort()
+
+        then:
+        buffer.sortedColumns() == 2
+        points(buffer.points(0)) == [[1, 10], [2, 20], [3, 30]]
+        points(buffer.points(1)) == [[2, 200], [3, 300]]
+    }
+
+    def "test clear keeps the diverged columns"() {
+        given:
+        def buffer = new ColumnBuffer(2)
+        buffer.addRow(2)
+        buffer.set(0, 20)
+        buffer.endRow(1)
+        buffer.addRow(1)
+        buffer.set(0, 10)
+        buffer.set(1, 100)
+        buffer.endRow(2)
+        buffer.sort()
+
+        when:
+        buffer.clear()
+        buffer.addRow(3)
+        buffer.set(0, 30)
+        buffer.set(1, 300)
+        buffer.endRow(2)
+        buffer.sort()
+
+        then:
+        buffer.rows() == 1
+        buffer.sortedColumns() == 1
+        points(buffer.points(0)) == [[3, 30]]
+        points(buffer.points(1)) == [[3, 300]]
+    }
+
+    def "test append the parts of a file"() {
+        given:
+        def first = new ColumnBuffer(2)
+        [1, 3].each {
+            first.addRow(it)
+            first.set(0, it * 10)
+            first.set(1, it * 100)
+            first.endRow(2)
+        }
+        def second = new ColumnBuffer(2)
+        [2, 4].each {
+            second.addRow(it)
+            second.set(0, it * 10)
+            if (it != 4) {
+                second.set(1, it * 100)
+            }
+            second.endRow(it != 4 ? 2 : 1)
+        }
+
+        when:
+        first.append(second)
+        first.sort()
+
+        then:
+        first.rows() == 4
+        first.sortedColumns() == 2
+        points(first.points(0)) == [[1, 10], [2, 20], [3, 30], [4, 40]]
+        points(first.points(1)) == [[1, 100], [2, 200], [3, 300]]
+    }
+
+    def points(ImportPoints points) {
+        (0..<points.size()).collect { [points.getTimestamp(it), points.getValue(it)] }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit test for the AIMD concurrency limiter
+ * @author f.lautenschlager
+ */
+class ConcurrencyLimiterTest extends Specification {
+
+    static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1)
+
+    def "test the limit grows additively while it is used and the requests are fast"() {
+        given:
+        def limiter = new ConcurrencyLimiter("grow", 8, true)
+
+        when:
+        def initial = limiter.getLimit()
+        100.times {
+            def starts = (0..<limiter.getLimit()).collect { limiter.acquire() - 50 * MILLI }
+            starts.each { limiter.release(it, false) }
+        }
+
+        then:
+        initial == 4
+        limiter.getLimit() == 8
+        limiter.getDecreases() == 0
+
+        cleanup:
+        limiter.close()
+    }
+
+    def "test the limit decreases multiplicatively once per latency on failures"() {
+        given:
+        def limiter = new ConcurrencyLimiter("failures", 16, true)
+        def first = limiter.acquire()
+        def second = limiter.acquire()
+
+        when:
+        limiter.release(first - 100 * MILLI, true)
+        limiter.release(second - 100 * MILLI, true)
+
+        then:
+        limiter.getLimit() == 6
+        limiter.getDecreases() == 1
+        limiter.getFailedRequests() == 2
+        limiter.getErrorRate() > 0.1
+
+        cleanup:
+        limiter.close()
+    }
+
+    def "test the limit decreases when the latency rises"() {
+        given:
+        def limiter = new ConcurrencyLimiter("latency", 8, true)
+        20.times { limiter.release(limiter.acquire() - 50 * MILLI, false) }
+
+        when:
+        20.times { limiter.release(limiter.acquire() - 500 * MILLI, false) }
+
+        then:
+        limiter.getDecreases() > 0
+        limiter.getLimit() < 4
+        limiter.getLatencyMillis() > 2 * limiter.getBaselineLatencyMillis()
+
+        cleanup:
+        limiter.close()
+    }
+
+    def "test each attempt takes a slot and is measured on its own"() {
+        given:
+        def limiter = new ConcurrencyLimiter("attempts", 1, false)
+
+        when:
+        limiter.release(limiter.acquire() - 100 * MILLI, true)
+        //the slot is free while the request waits for its retry
+        def waiting = limiter.getInFlight()
+        limiter.release(limiter.acquire() - 10 * MILLI, false)
+
+        then:
+        waiting == 0
+        limiter.getInFlight() == 0
+        limiter.getRequests() == 2
+        limiter.getFailedRequests() == 1
+        limiter.getLatencyMillis() < 100
+
+        cleanup:
+        limiter.close()
+    }
+
+    def "test a fixed limiter blocks at the max limit and exposes the metrics"() {
+        given:
+        def limiter = new ConcurrencyLimiter("fixed", 2, false)
+        def starts = [limiter.acquire(), limiter.acquire()]
+        def acquired = new CountDownLatch(1)
+        def thread = Thread.start { limiter.acquire(); acquired.countDown() }
+
+        when:
+        def blocked = !acquired.await(100, TimeUnit.MILLISECONDS)
+        limiter.release(starts[0], true)
+        def unblocked = acquired.await(1, TimeUnit.SECONDS)
+        def name = new ObjectName("de.qaware.chronix.importer:type=ConcurrencyLimiter,name=\"fixed\"")
+        def server = ManagementFactory.getPlatformMBeanServer()
+
+        then:
+        blocked
+        unblocked
+        limiter.getLimit() == 2
+        limiter.getInFlight() == 2
+        server.getAttribute(name, "Limit") == 2
+        server.getAttribute(name, "Requests") == 1L
+
+        when:
+        limiter.close()
+
+        then:
+        !server.isRegistered(name)
+
+        cleanup:
+        thread.join()
+    }
+}
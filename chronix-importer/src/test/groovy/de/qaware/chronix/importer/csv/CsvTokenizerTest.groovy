@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.channels.FileChannel
+
+/**
+ * Unit test for the csv tokenizer
+ * @author f.lautenschlager
+ */
+class CsvTokenizerTest extends Specification {
+
+    @Unroll
+    def "test tokenize with delimiter '#delimiter'"() {
+        given:
+        def csv = "Date${delimiter}a${delimiter}b\n01.03.2016${delimiter}1486${delimiter}0.002\r\n02.03.2016${delimiter}${delimiter}3"
+        def tokenizer = new CsvTokenizer(new ByteArrayInputStream(csv.getBytes("UTF-8")), delimiter as char, 8)
+
+        when:
+        def lines = []
+        while (tokenizer.nextLine()) {
+            lines << (0..<tokenizer.cells()).collect { tokenizer.cellAsString(it) }
+        }
+
+        then:
+        lines == [["Date", "a", "b"], ["01.03.2016", "1486", "0.002"], ["02.03.2016", "", "3"]]
+
+        where:
+        delimiter << [";", ","]
+    }
+
+    def "test offsets"() {
+        given:
+        def tokenizer = new CsvTokenizer(new ByteArrayInputStream("ab;cde;f\n".getBytes("UTF-8")), ';' as char)
+
+        when:
+        tokenizer.nextLine()
+
+        then:
+        tokenizer.cells() == 3
+        tokenizer.start(1) == 3
+        tokenizer.end(1) == 6
+        tokenizer.buffer().get(tokenizer.start(2)) == ('f' as char) as byte
+        !tokenizer.nextLine()
+    }
+
+    def "test trailing and empty cells"() {
+        given:
+        def tokenizer = new CsvTokenizer(new ByteArrayInputStream("a;b;;\n\n;c".getBytes("UTF-8")), ';' as char)
+
+        when:
+        def cells = []
+        while (tokenizer.nextLine()) {
+            cells << tokenizer.cells()
+        }
+
+        then:
+        cells == [2, 0, 2]
+    }
+
+    @Unroll
+    def "test mapped windows of #windowSize bytes"() {
+        given:
+        def file = File.createTempFile("tokenizer", ".csv")
+        file.deleteOnExit()
+        def lines = ["Date;metric"] + (1..50).collect { "${it};${'9' * it}".toString() }
+        file.setBytes(lines.join("\r\n").getBytes("UTF-8"))
+        def tokenizer = new CsvTokenizer(FileChannel.open(file.toPath()), 0, file.length(), ';' as char, windowSize)
+
+        when:
+        def read = []
+        while (tokenizer.nextLine()) {
+            read << (0..<tokenizer.cells()).collect { tokenizer.cellAsString(it) }.join(";")
+        }
+        tokenizer.close()
+
+        then:
+        read == lines
+
+        where:
+        windowSize << [4, 100, 64 * 1024]
+    }
+
+    def "test invalid delimiter"() {
+        when:
+        new CsvTokenizer(new ByteArrayInputStream(new byte[0]), '\n' as char)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
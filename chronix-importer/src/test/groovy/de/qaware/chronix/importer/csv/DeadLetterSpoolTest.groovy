@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import org.apache.solr.common.SolrInputDocument
+import org.opentsdb.client.builder.MetricSeries
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+/**
+ * Unit test for the dead letter spool
+ * @author f.lautenschlager
+ */
+class DeadLetterSpoolTest extends Specification {
+
+    def directory = Files.createTempDirectory("spool").toFile()
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "test replay spooled series and documents"() {
+        given:
+        def spool = new DeadLetterSpool(new File(directory, "failed"))
+        def timestamps = [1456786801087L, 1456786802087L, 1456786801000L, Long.MIN_VALUE, Long.MAX_VALUE] as long[]
+        def values = [3.498745856E9d, 79.4d, -0.0d, Double.NaN, 1d] as double[]
+        spool.spool(new MetricSeries("\\CPU\\us", [host: "jenkins", group: "unix"], timestamps, values))
+        def document = new SolrInputDocument()
+        document.addField("metric", "\\CPU\\us")
+        document.addField("data", [1, 2, 3] as byte[])
+        spool.spool([document])
+
+        when:
+        def series = []
+        def documents = []
+        def remaining = spool.replay({ series << it; true }, { documents << it; true })
+
+        then:
+        remaining == 0
+        new File(directory, "failed").listFiles().length == 0
+        series.size() == 1
+        series[0].name == "\\CPU\\us"
+        series[0].tags == [host: "jenkins", group: "unix"]
+        (0..<5).collect { series[0].getTimestamp(it) } == timestamps as List
+        (0..<5).collect { Double.doubleToRawLongBits(series[0].getValue(it)) } == values.collect { Double.doubleToRawLongBits(it) }
+        documents.size() == 1
+        documents[0][0].getFieldValue("metric") == "\\CPU\\us"
+        documents[0][0].getFieldValue("data") == [1, 2, 3] as byte[]
+    }
+
+    def "test failed batches remain in the spool"() {
+        given:
+        def spool = new DeadLetterSpool(directory)
+        spool.spool(new MetricSeries("a", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+        spool.spool(new MetricSeries("b", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+        new File(directory, "corrupt.spool").text = "no spool"
+        new File(directory, "partial.tmp").text = "ignored"
+
+        when:
+        def first = spool.replay({ it.name == "a" }, { true })
+        def second = spool.replay({ true }, { true })
+
+        then:
+        first == 2
+        second == 1
+        directory.list().sort() == ["corrupt.spool", "partial.tmp"]
+    }
+
+    def "test an invalid batch is kept and the replay goes on"() {
+        given:
+        def spool = new DeadLetterSpool(directory)
+        //a series without tags, which the metric series rejects
+        new File(directory, "a-invalid.spool").withDataOutputStream { out ->
+            out.writeInt(DeadLetterSpool.MAGIC)
+            out.writeByte(DeadLetterSpool.VERSION)
+            out.writeByte(DeadLetterSpool.SERIES)
+            out.writeUTF("a")
+            out.writeInt(0)
+            out.writeInt(0)
+        }
+        spool.spool(new MetricSeries("b", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+
+        when:
+        def series = []
+        def remaining = spool.replay({ series << it; true }, { true })
+
+        then:
+        remaining == 1
+        series*.name == ["b"]
+        directory.list() as List == ["a-invalid.spool"]
+    }
+
+    def "test a failed write leaves no temporary file"() {
+        given:
+        def spool = new DeadLetterSpool(directory)
+        def document = new SolrInputDocument()
+        document.addField("metric", new Object() {
+            @Override
+            String toString() {
+                throw new IllegalStateException("Not serializable")
+            }
+        })
+
+        when:
+        spool.spool([document])
+
+        then:
+        thrown IllegalStateException
+        directory.list().length == 0
+    }
+}
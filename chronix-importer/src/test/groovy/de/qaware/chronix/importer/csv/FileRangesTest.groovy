@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Unit test for the file ranges
+ * @author f.lautenschlager
+ */
+class FileRangesTest extends Specification {
+
+    def "test split into ranges of whole lines"() {
+        given:
+        def file = File.createTempFile("ranges", ".csv")
+        file.deleteOnExit()
+        def lines = ["Date;metric"] + (0..<100).collect { "${it};${it * 10}".toString() }
+        file.setBytes((lines.join("\n") + "\n").getBytes(StandardCharsets.UTF_8))
+
+        def tokenizer = new CsvTokenizer(new FileInputStream(file), ';' as char)
+        tokenizer.nextLine()
+        def headerEnd = tokenizer.position()
+        tokenizer.close()
+
+        when:
+        def boundaries = FileRanges.split(file, headerEnd, 7)
+
+        then:
+        headerEnd == 12
+        boundaries.length == 8
+        boundaries[0] == headerEnd
+        boundaries[7] == file.length()
+        boundaries.every { it == headerEnd || it == file.length() || file.bytes[(int) it - 1] == ('\n' as char) }
+
+        and: "the ranges contain every line once"
+        (0..<7).collectMany { range(file, boundaries[it], boundaries[it + 1]) } == lines.tail()
+    }
+
+    def "test less ranges if the lines are longer than the ranges"() {
+        given:
+        def file = File.createTempFile("ranges", ".csv")
+        file.deleteOnExit()
+        file.setBytes("Date;metric\n1;10\n2;20".getBytes(StandardCharsets.UTF_8))
+
+        when:
+        def boundaries = FileRanges.split(file, 12, 8)
+
+        then:
+        boundaries as List == [12L, 17L, 21L]
+    }
+
+    def range(File file, long start, long end) {
+        new String(Arrays.copyOfRange(file.bytes, (int) start, (int) end), StandardCharsets.UTF_8).readLines()
+    }
+}
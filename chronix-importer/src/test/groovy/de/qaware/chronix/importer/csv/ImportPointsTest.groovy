@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the import points
+ * @author f.lautenschlager
+ */
+class ImportPointsTest extends Specification {
+
+    def "test the points are a view on the arrays"() {
+        given:
+        long[] timestamps = [1L, 2L, 3L, 0L]
+        double[] values = [1.5d, 2.5d, 3.5d, 0d]
+        def points = new ImportPoints(timestamps, values, 3)
+
+        when:
+        def copy = points.copy()
+        timestamps[0] = 10L
+        values[0] = 10.5d
+
+        then:
+        points.size() == 3
+        points.timestamps().is(timestamps)
+        points.values().is(values)
+        points.getTimestamp(0) == 10L
+        points.getValue(0) == 10.5d
+        //the copy has its own arrays of the valid points
+        copy.size() == 3
+        copy.timestamps() == [1L, 2L, 3L] as long[]
+        copy.values() == [1.5d, 2.5d, 3.5d] as double[]
+    }
+
+    def "test the slices of the points"() {
+        given:
+        def points = new ImportPoints([1L, 2L, 3L, 4L, 0L] as long[], [1.5d, 2.5d, 3.5d, 4.5d, 0d] as double[], 4)
+
+        when:
+        def timestamps = points.timestamps(start, end)
+        def values = points.values(start, end)
+
+        then:
+        timestamps.size() == end - start
+        values.size() == end - start
+        (0..<timestamps.size()).collect { timestamps.get(it) } == expectedTimestamps
+        (0..<values.size()).collect { values.get(it) } == expectedValues
+
+        where:
+        start | end | expectedTimestamps | expectedValues
+        0     | 4   | [1L, 2L, 3L, 4L]   | [1.5d, 2.5d, 3.5d, 4.5d]
+        0     | 2   | [1L, 2L]           | [1.5d, 2.5d]
+        1     | 3   | [2L, 3L]           | [2.5d, 3.5d]
+        3     | 4   | [4L]               | [4.5d]
+    }
+}
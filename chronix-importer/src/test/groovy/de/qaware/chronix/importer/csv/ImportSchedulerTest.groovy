@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Unit test for the import scheduler
+ * @author f.lautenschlager
+ */
+class ImportSchedulerTest extends Specification {
+
+    def "test import the largest files first"() {
+        given:
+        def files = [3, 100, 7, 42].collect { size ->
+            def file = File.createTempFile("scheduler", ".csv")
+            file.deleteOnExit()
+            file.bytes = new byte[size]
+            file
+        }
+        def imported = new ConcurrentLinkedQueue<File>()
+
+        when:
+        new ImportScheduler(parallelism).run(files, { imported << it })
+
+        then:
+        imported.size() == 4
+        imported as Set == files as Set
+        parallelism > 1 || imported.collect { it.length() } == [100L, 42L, 7L, 3L]
+
+        where:
+        parallelism << [1, 3]
+    }
+
+    def "test the groups are imported one after the other and completed after their last file"() {
+        given:
+        def file = { int size ->
+            def file = File.createTempFile("scheduler", ".csv")
+            file.deleteOnExit()
+            file.bytes = new byte[size]
+            file
+        }
+        def small = [file(1), file(2)]
+        def large = [file(10), file(30), file(20)]
+        def events = Collections.synchronizedList([])
+
+        when:
+        new ImportScheduler(parallelism).run([small, large], { events << it.length() }, { events << it })
+
+        then:
+        events.size() == 7
+        [10L, 20L, 30L].every { events.indexOf(large) > events.indexOf(it) }
+        [1L, 2L].every { events.indexOf(small) > events.indexOf(it) }
+        parallelism > 1 || events == [30L, 20L, 10L, large, 2L, 1L, small]
+
+        where:
+        parallelism << [1, 3]
+    }
+
+    def "test invalid parallelism"() {
+        when:
+        new ImportScheduler(-1)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.text.NumberFormat
+import java.text.ParseException
+import java.util.zip.GZIPInputStream
+
+/**
+ * Unit test for the number parser.
+ * The correctness corpus consists of the values of the bundled qaware-jenkins data.
+ * @author f.lautenschlager
+ */
+class NumberParserTest extends Specification {
+
+    //the number of lines that are read per file of the corpus
+    static final int LINES_PER_FILE = 100
+
+    @Unroll
+    def "test parse '#value' with #locale"() {
+        given:
+        def parser = new NumberParser(locale)
+
+        when:
+        def parsed = parse(parser, value)
+
+        then:
+        Double.doubleToRawLongBits(parsed) == Double.doubleToRawLongBits(NumberFormat.getInstance(locale).parse(value).doubleValue())
+
+        where:
+        value                         | locale
+        "3,498,745,856"               | Locale.ENGLISH
+        "79.4"                        | Locale.ENGLISH
+        "0.002"                       | Locale.ENGLISH
+        "-0.19"                       | Locale.ENGLISH
+        "-0"                          | Locale.ENGLISH
+        "0.000"                       | Locale.ENGLISH
+        "107,468,690,000,000"         | Locale.ENGLISH
+        "12,"                         | Locale.ENGLISH
+        "1,.5"                        | Locale.ENGLISH
+        "1.5,3"                       | Locale.ENGLISH
+        "1.2.3"                       | Locale.ENGLISH
+        "1E5"                         | Locale.ENGLISH
+        "12abc"                       | Locale.ENGLISH
+        "9,007,199,254,740,993"       | Locale.ENGLISH
+        "0.1234567890123456789"       | Locale.ENGLISH
+        "0.00000000000000000000001"   | Locale.ENGLISH
+        "3.498.745.856"               | Locale.GERMAN
+        "79,4"                        | Locale.GERMAN
+        "-1.234,5678"                 | Locale.GERMAN
+    }
+
+    @Unroll
+    def "test invalid value '#value'"() {
+        when:
+        parse(new NumberParser(Locale.ENGLISH), value)
+
+        then:
+        thrown ParseException
+
+        where:
+        value << ["", "-", ".", " 1", "+1", "abc"]
+    }
+
+    def "test the qaware-jenkins corpus"() {
+        given:
+        def english = new NumberParser(Locale.ENGLISH)
+        def german = new NumberParser(Locale.GERMAN)
+        def englishFormat = NumberFormat.getInstance(Locale.ENGLISH)
+        def germanFormat = NumberFormat.getInstance(Locale.GERMAN)
+        def files = new File("importer/data/qaware-jenkins").listFiles().collectMany { it.listFiles() as List }
+
+        when:
+        def checked = 0
+        def mismatches = []
+        files.each { file ->
+            corpus(file).each { value ->
+                //swap the separators for the german values
+                def germanValue = value.collect { it == "," ? "." : it == "." ? "," : it }.join()
+
+                if (!same(parse(english, value), englishFormat.parse(value).doubleValue())) {
+                    mismatches << value
+                }
+                if (!same(parse(german, germanValue), germanFormat.parse(germanValue).doubleValue())) {
+                    mismatches << germanValue
+                }
+                checked++
+            }
+        }
+
+        then:
+        files.size() > 0
+        checked > 10000
+        mismatches.isEmpty()
+    }
+
+    def corpus(File file) {
+        def values = [] as Set
+        new GZIPInputStream(new FileInputStream(file)).withReader("UTF-8") { reader ->
+            reader.readLine()
+            def line
+            def lines = 0
+            while ((line = reader.readLine()) != null && lines++ < LINES_PER_FILE) {
+                def cells = line.split(";")
+                for (int i = 1; i < cells.length; i++) {
+                    values << cells[i]
+                }
+            }
+        }
+        values
+    }
+
+    def same(double first, double second) {
+        Double.doubleToRawLongBits(first) == Double.doubleToRawLongBits(second)
+    }
+
+    def parse(NumberParser parser, String value) {
+        def bytes = ("x;" + value + ";y").getBytes(StandardCharsets.UTF_8)
+        parser.parse(ByteBuffer.wrap(bytes), 2, 2 + value.getBytes(StandardCharsets.UTF_8).length)
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit test for the pipeline stage
+ * @author f.lautenschlager
+ */
+class PipelineStageTest extends Specification {
+
+    def "test process all items"() {
+        given:
+        def processed = new ConcurrentLinkedQueue<Integer>()
+        def stage = new PipelineStage<Integer>("test", 3, 2, { item ->
+            if (item == 13) {
+                throw new IllegalStateException("unlucky")
+            }
+            processed << item
+        })
+
+        when:
+        (0..<100).each { stage.put(it) }
+        stage.close()
+
+        then:
+        stage.processed() == 99
+        stage.failed() == 1
+        processed as Set == ((0..<100) - 13) as Set
+    }
+
+    def "test a full stage blocks the previous stage"() {
+        given:
+        def release = new CountDownLatch(1)
+        def stage = new PipelineStage<Integer>("test", 1, 1, { release.await() })
+        stage.put(1)
+        stage.put(2)
+
+        when:
+        def producer = Thread.start { stage.put(3) }
+        producer.join(200)
+
+        then:
+        producer.alive
+
+        when:
+        release.countDown()
+        producer.join(TimeUnit.SECONDS.toMillis(10))
+        stage.close()
+
+        then:
+        !producer.alive
+        stage.processed() == 3
+    }
+
+    def "test put after close"() {
+        given:
+        def stage = new PipelineStage<Integer>("test", 1, 1, {})
+        stage.close()
+
+        when:
+        stage.put(1)
+
+        then:
+        thrown IllegalStateException
+    }
+}
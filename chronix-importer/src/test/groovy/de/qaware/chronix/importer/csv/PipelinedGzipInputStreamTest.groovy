@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Unit test for the pipelined gzip input stream
+ * @author f.lautenschlager
+ */
+class PipelinedGzipInputStreamTest extends Specification {
+
+    def "test inflate gzip members"() {
+        given:
+        def content = content(3_000_000)
+        def compressed = new ByteArrayOutputStream()
+        members.times { member ->
+            new GZIPOutputStream(compressed).with {
+                write(content, (int) (member * content.length / members), (int) (content.length / members))
+                finish()
+            }
+        }
+
+        when:
+        def inflated = new PipelinedGzipInputStream(new ByteArrayInputStream(compressed.toByteArray())).bytes
+
+        then:
+        inflated == content
+
+        where:
+        members << [1, 3]
+    }
+
+    def "test inflate bgzf blocks in parallel"() {
+        given:
+        def content = content(5_000_000)
+        def compressed = new ByteArrayOutputStream()
+        for (int offset = 0; offset < content.length; offset += 65536) {
+            compressed.write(bgzf(Arrays.copyOfRange(content, offset, Math.min(offset + 65536, content.length))))
+        }
+        //the end of file marker
+        compressed.write(bgzf(new byte[0]))
+
+        when:
+        def inflated = new PipelinedGzipInputStream(new ByteArrayInputStream(compressed.toByteArray())).bytes
+
+        then:
+        inflated == content
+    }
+
+    def "test single byte reads"() {
+        given:
+        def content = content(2_500_000)
+        def compressed = new ByteArrayOutputStream()
+        new GZIPOutputStream(compressed).with {
+            write(content)
+            finish()
+        }
+        def stream = new PipelinedGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()))
+
+        when:
+        def inflated = new ByteArrayOutputStream()
+        int b
+        while ((b = stream.read()) >= 0) {
+            inflated.write(b)
+        }
+
+        then:
+        inflated.toByteArray() == content
+        stream.read() == -1
+    }
+
+    def "test close stops the inflater and closes the input"() {
+        given:
+        def content = content(20_000_000)
+        def compressed = new ByteArrayOutputStream()
+        new GZIPOutputStream(compressed).with {
+            write(content)
+            finish()
+        }
+        def closed = false
+        def input = new ByteArrayInputStream(compressed.toByteArray()) {
+            @Override
+            void close() {
+                closed = true
+            }
+        }
+        def stream = new PipelinedGzipInputStream(input)
+
+        when:
+        //the inflater fills the free blocks and waits for the reader
+        stream.read(new byte[1000])
+        stream.close()
+
+        then:
+        !stream.inflater.isAlive()
+        closed
+    }
+
+    def "test corrupt input"() {
+        given:
+        def compressed = new ByteArrayOutputStream()
+        compressed.write(bgzf(content(1000)))
+        def bytes = compressed.toByteArray()
+        bytes[bytes.length - 5]++
+
+        when:
+        new PipelinedGzipInputStream(new ByteArrayInputStream(bytes)).bytes
+
+        then:
+        thrown IOException
+    }
+
+    @Timeout(10)
+    def "test read after a corrupt block"() {
+        given:
+        def compressed = new ByteArrayOutputStream()
+        compressed.write(bgzf(content(65536)))
+        def corrupt = bgzf(content(1000))
+        corrupt[corrupt.length - 5]++
+        compressed.write(corrupt)
+        def stream = new PipelinedGzipInputStream(new ByteArrayInputStream(compressed.toByteArray()))
+        def buffer = new byte[65536]
+        int read = 0
+        while (read < buffer.length) {
+            read += stream.read(buffer, read, buffer.length - read)
+        }
+
+        when:
+        stream.read(buffer)
+
+        then:
+        def first = thrown IOException
+
+        when:
+        stream.read(buffer)
+
+        then:
+        def second = thrown IOException
+        second.is(first)
+    }
+
+    def content(int size) {
+        def random = new Random(4711)
+        def content = new byte[size]
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('0' as char) + random.nextInt(10)
+        }
+        content
+    }
+
+    def bgzf(byte[] content) {
+        def deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+        deflater.setInput(content)
+        deflater.finish()
+        def deflated = new byte[content.length + 1024]
+        def length = deflater.deflate(deflated)
+        deflater.end()
+
+        def crc = new CRC32()
+        crc.update(content)
+        def block = new ByteArrayOutputStream()
+        block.write([0x1F, 0x8B, 8, 4, 0, 0, 0, 0, 0, 0xFF, 6, 0, 'B' as char, 'C' as char, 2, 0] as byte[])
+        def blockSize = 18 + length + 8 - 1
+        block.write([blockSize & 0xFF, blockSize >> 8] as byte[])
+        block.write(deflated, 0, length)
+        [crc.value, content.length].each { value -> 4.times { block.write((int) (value >> (8 * it)) & 0xFF) } }
+        block.toByteArray()
+    }
+}
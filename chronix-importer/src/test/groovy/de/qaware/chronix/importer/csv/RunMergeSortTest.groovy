@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the adaptive merge sort
+ * @author f.lautenschlager
+ */
+class RunMergeSortTest extends Specification {
+
+    @Unroll
+    def "test order of #timestamps"() {
+        when:
+        def order = RunMergeSort.order(timestamps as long[], timestamps.size())
+
+        then:
+        order as List == expected
+
+        where:
+        timestamps         | expected
+        []                 | []
+        [1]                | [0]
+        [1, 2, 3]          | [0, 1, 2]
+        [3, 2, 1]          | [2, 1, 0]
+        [1, 5, 2, 6, 3, 7] | [0, 2, 4, 1, 3, 5]
+        [2, 1, 2, 1]       | [1, 3, 0, 2]
+    }
+
+    def "test order of random runs"() {
+        given:
+        def random = new Random(4711)
+        def timestamps = (0..<10000).collect { it % 97 == 0 ? random.nextInt(10000) as long : it as long }
+
+        when:
+        def order = RunMergeSort.order(timestamps as long[], timestamps.size())
+
+        then:
+        //a stable sort of the indices by their timestamp
+        order as List == (0..<timestamps.size()).sort(false) { a, b -> timestamps[a] <=> timestamps[b] ?: a <=> b }
+    }
+
+    def "test permute"() {
+        given:
+        def order = [2, 0, 1] as int[]
+
+        expect:
+        RunMergeSort.permute([10, 20, 30, 0] as long[], order) as List == [30, 10, 20, 0]
+        RunMergeSort.permute([1.5, 2.5, 3.5] as double[], order) as List == [3.5, 1.5, 2.5]
+    }
+}
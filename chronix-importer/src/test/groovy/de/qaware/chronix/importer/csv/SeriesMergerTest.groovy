@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+import java.util.function.BiConsumer
+
+/**
+ * Unit test for the merge of the time series from several files
+ * @author f.lautenschlager
+ */
+class SeriesMergerTest extends Specification {
+
+    def points(List<Long> timestamps, List<Double> values) {
+        new ImportPoints(timestamps as long[], values as double[], timestamps.size())
+    }
+
+    def asList(ImportPoints points) {
+        (0..<points.size()).collect { [points.getTimestamp(it), points.getValue(it)] }
+    }
+
+    def "test the merge of overlapping runs"() {
+        given:
+        def runs = [points([5, 7, 9, 11], [5, 7, 9, 11]),
+                    points([1, 2, 7, 8], [1, 2, 70, 8]),
+                    points([3, 6, 12], [3, 6, 12])]
+
+        when:
+        def merged = SeriesMerger.merge(runs)
+
+        then:
+        //the duplicate timestamp 7 is taken from the run that starts first
+        asList(merged) == [[1, 1], [2, 2], [3, 3], [5, 5], [6, 6], [7, 70], [8, 8], [9, 9], [11, 11], [12, 12]]
+    }
+
+    def "test the concatenation of runs that do not overlap"() {
+        given:
+        def runs = [points([10, 11, 11, 12], [10, 11, 110, 12]), points([1, 2], [1, 2]), points([], [])]
+
+        when:
+        def merged = SeriesMerger.merge(runs)
+
+        then:
+        asList(merged) == [[1, 1], [2, 2], [10, 10], [11, 11], [12, 12]]
+    }
+
+    def "test the merge of many random runs"() {
+        given:
+        def random = new Random(42)
+        def runs = (0..<20).collect {
+            def timestamps = (0..<random.nextInt(200)).collect { random.nextInt(1000) as long }.sort()
+            points(timestamps, timestamps.collect { it as double })
+        }
+
+        when:
+        def merged = SeriesMerger.merge(runs)
+
+        then:
+        def expected = runs.collectMany { asList(it) }.collect { it[0] }.unique().sort()
+        asList(merged).collect { it[0] } == expected
+        asList(merged).every { it[0] == it[1] }
+    }
+
+    def "test the runs are grouped by the series attributes"() {
+        given:
+        def merger = new SeriesMerger(2)
+        def merged = [:]
+        merger.accept(points([3, 4], [3, 4]), new Attributes("cpu", "host", "group", "2016.03.02"))
+        merger.accept(points([1, 2], [1, 2]), new Attributes("cpu", "host", "group", "2016.03.01"))
+        merger.accept(points([1, 2], [10, 20]), new Attributes("memory", "host", "group", "2016.03.01"))
+
+        merger.accept(points([5], [5]), new Attributes("cpu", "other", "group", "2016.03.01"))
+
+        when:
+        merger.merge(merger.group("host_group_2016.03.01_10.15.17.csv.gz"), { ImportPoints importPoints, Attributes attributes ->
+            merged.put(attributes.getMetric(), asList(importPoints))
+        } as BiConsumer)
+
+        then:
+        merger.group("host_group_2016.03.01_10.15.17.csv.gz") == "host_group"
+        //the group other_group is not merged
+        merged == [cpu: [[1, 1], [2, 2], [3, 3], [4, 4]], memory: [[1, 10], [2, 20]]]
+        merger.report() == "Merged 3 runs into 2 time series. Removed 0 duplicate timestamps"
+    }
+}
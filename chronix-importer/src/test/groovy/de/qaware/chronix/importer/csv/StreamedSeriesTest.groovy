@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+
+/**
+ * Unit test for the chunking of the parts of a streamed time series
+ * @author f.lautenschlager
+ */
+class StreamedSeriesTest extends Specification {
+
+    def points(List<Long> timestamps) {
+        new ImportPoints(timestamps as long[], timestamps.collect { it as double } as double[], timestamps.size())
+    }
+
+    def "test the points that are not chunked are passed with the next part"() {
+        given:
+        def series = new StreamedSeries(new AdaptiveChunker(1000, 100).estimate())
+        def passed = []
+        //chunks all but the last two points unless the series is complete
+        def chunker = { ImportPoints points, boolean complete, AdaptiveChunker.Estimate estimate ->
+            passed << ((0..<points.size()).collect { points.getTimestamp(it) } + [complete])
+            complete ? points.size() : Math.max(0, points.size() - 2)
+        } as StreamedSeries.Chunker
+
+        when:
+        series.passed(true)
+        series.passed(true)
+        series.passed(false)
+        def complete = [series.chunk(points([1L, 2L, 3L]), chunker),
+                        series.chunk(points([4L, 5L]), chunker),
+                        series.chunk(points([6L]), chunker)]
+
+        then:
+        complete == [false, false, true]
+        passed == [[1L, 2L, 3L, false], [2L, 3L, 4L, 5L, false], [4L, 5L, 6L, true]]
+    }
+
+    def "test a part that is chunked out of order is sorted with the left over points"() {
+        given:
+        def series = new StreamedSeries(new AdaptiveChunker(1000, 100).estimate())
+        def passed = []
+        def chunker = { ImportPoints points, boolean complete, AdaptiveChunker.Estimate estimate ->
+            passed << (0..<points.size()).collect { points.getTimestamp(it) }
+            complete ? points.size() : 0
+        } as StreamedSeries.Chunker
+
+        when:
+        series.passed(true)
+        series.passed(true)
+        series.chunk(points([5L, 6L]), chunker)
+        series.chunk(points([1L, 2L]), chunker)
+
+        then:
+        passed == [[5L, 6L], [1L, 2L, 5L, 6L]]
+    }
+
+    def "test the series is complete when the last passed part is chunked"() {
+        given:
+        def series = new StreamedSeries(new AdaptiveChunker(1000, 100).estimate())
+        def chunker = { ImportPoints points, boolean complete, AdaptiveChunker.Estimate estimate -> 0 } as StreamedSeries.Chunker
+
+        when:
+        series.passed(true)
+        series.passed(false)
+
+        then:
+        //the last part is chunked before the first part
+        !series.chunk(points([3L]), chunker)
+        series.chunk(points([1L]), chunker)
+    }
+
+    def "test the left over points of a series without its last part are chunked"() {
+        given:
+        def series = new StreamedSeries(new AdaptiveChunker(1000, 100).estimate())
+        def passed = []
+        def chunker = { ImportPoints points, boolean complete, AdaptiveChunker.Estimate estimate ->
+            passed << points.size()
+            complete ? points.size() : 0
+        } as StreamedSeries.Chunker
+
+        when:
+        series.passed(true)
+        series.chunk(points([1L, 2L]), chunker)
+        def complete = series.chunk(null, chunker)
+
+        then:
+        complete
+        passed == [2, 2]
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.time.Instant
+
+/**
+ * Unit test for the timestamp parser
+ * @author f.lautenschlager
+ */
+class TimestampParserTest extends Specification {
+
+    def defaultTimeZone = TimeZone.getDefault()
+
+    def cleanup() {
+        TimeZone.setDefault(defaultTimeZone)
+    }
+
+    @Unroll
+    def "test parse '#date' with pattern '#pattern' in #zone"() {
+        given:
+        TimeZone.setDefault(TimeZone.getTimeZone(zone))
+        def parser = TimestampParser.of(pattern)
+
+        when:
+        def timestamp = parse(parser, date)
+
+        then:
+        timestamp == new SimpleDateFormat(pattern).parse(date).getTime()
+
+        where:
+        pattern                   | date                          | zone
+        "dd.MM.yyyy HH:mm:ss.SSS" | "01.03.2016 00:00:01.087"     | "UTC"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "01.03.2016 00:00:01.087"     | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "27.03.2016 02:30:00.000"     | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "27.03.2016 03:30:00.000"     | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "30.10.2016 02:30:00.000"     | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "31.02.2016 10:00:00.000"     | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "1.3.2016 00:00:01.087"       | "Europe/Berlin"
+        "dd.MM.yyyy HH:mm:ss.SSS" | "01.03.2016 00:00:01.087 CET" | "Europe/Berlin"
+        "yyyy-MM-dd'T'HH:mm:ss"   | "2016-03-01T10:15:17"         | "Europe/Berlin"
+        "yyyyMMddHHmmss"          | "20160301101517"              | "Asia/Kolkata"
+        "dd.MM.yy HH:mm"          | "01.03.16 10:15"              | "Europe/Berlin"
+        "dd. MMM yyyy"            | "01. Mar 2016"                | "UTC"
+    }
+
+    def "test parse consecutive rows of one hour"() {
+        given:
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"))
+        def pattern = "dd.MM.yyyy HH:mm:ss.SSS"
+        def parser = TimestampParser.of(pattern)
+        def sdf = new SimpleDateFormat(pattern)
+        def dates = (0..<3600).collect { String.format("30.10.2016 %02d:%02d:%02d.%03d", it % 24, it % 60, (it * 7) % 60, it % 1000) }
+
+        expect:
+        dates.every { parse(parser, it) == sdf.parse(it).getTime() }
+    }
+
+    @Unroll
+    def "test parse instant '#date'"() {
+        given:
+        def parser = TimestampParser.of("INSTANT")
+
+        expect:
+        parse(parser, date) == Instant.parse(date).toEpochMilli()
+
+        where:
+        date << ["2016-03-01T00:00:01.087Z", "2016-03-01T00:00:01Z", "2016-03-01T00:00:01.1Z",
+                 "2016-03-01T00:00:01.123456789Z", "1969-12-31T23:59:59.999Z", "2016-12-31T23:59:60Z"]
+    }
+
+    @Unroll
+    def "test parse long '#date'"() {
+        given:
+        def parser = TimestampParser.of("long")
+
+        expect:
+        parse(parser, date) == Long.valueOf(date)
+
+        where:
+        date << ["1456786801087", "0", "-4711", "+4711", "9223372036854775807"]
+    }
+
+    def "test invalid values"() {
+        when:
+        parse(TimestampParser.of(format), date)
+
+        then:
+        thrown(exception)
+
+        where:
+        format                    | date         | exception
+        "dd.MM.yyyy HH:mm:ss.SSS" | "a"          | ParseException
+        "LONG"                    | "12a"        | NumberFormatException
+        "INSTANT"                 | "2016-03-01" | RuntimeException
+    }
+
+    def parse(TimestampParser parser, String date) {
+        def bytes = ("x;" + date + ";y").getBytes(StandardCharsets.UTF_8)
+        def length = date.getBytes(StandardCharsets.UTF_8).length
+        parser.parse(ByteBuffer.wrap(bytes), 2, 2 + length)
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client
+
+import com.sun.net.httpserver.HttpServer
+import org.opentsdb.client.builder.MetricSeries
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Unit test for the asynchronous client
+ * @author f.lautenschlager
+ */
+class AsyncHttpClientImplTest extends Specification {
+
+    def requests = new AtomicInteger()
+    def concurrent = new AtomicInteger()
+    def maxConcurrent = new AtomicInteger()
+    def bytes = new AtomicInteger()
+    HttpServer server
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.setExecutor(Executors.newFixedThreadPool(16))
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop(0)
+        server.executor.shutdownNow()
+    }
+
+    def serve(List<Integer> statusCodes) {
+        server.createContext("/") { exchange ->
+            def current = concurrent.incrementAndGet()
+            maxConcurrent.accumulateAndGet(current) { a, b -> Math.max(a, b) }
+            bytes.addAndGet(exchange.requestBody.bytes.length)
+            Thread.sleep(20)
+            def status = statusCodes[Math.min(requests.getAndIncrement(), statusCodes.size() - 1)]
+            concurrent.decrementAndGet()
+            exchange.sendResponseHeaders(status, -1)
+            exchange.close()
+        }
+        "http://localhost:${server.address.port}"
+    }
+
+    def series(int i) {
+        new MetricSeries("metric" + i, [host: "jenkins"], (1L..100L) as long[], (1..100) as double[])
+    }
+
+    def "test the requests in flight are limited"() {
+        given:
+        def client = new AsyncHttpClientImpl(serve([204]), 3)
+
+        when:
+        def futures = (0..<20).collect { client.pushSeries(series(it), ExpectResponse.STATUS_CODE) }
+        def inFlight = client.inFlight()
+        client.close()
+
+        then:
+        inFlight > 0 && inFlight <= 3
+        futures.every { it.isDone() && it.get().statusCode == 204 }
+        requests.get() == 20
+        maxConcurrent.get() <= 3
+        client.inFlight() == 0
+    }
+
+    def "test retryable status codes are retried"() {
+        given:
+        def client = new AsyncHttpClientImpl(serve([503, 429, 204]), 1)
+        client.setRetryPolicy(new RetryPolicy(2, 1, 10))
+
+        when:
+        def response = client.pushSeries(series(0), ExpectResponse.STATUS_CODE).get()
+        client.close()
+
+        then:
+        response.statusCode == 204
+        requests.get() == 3
+    }
+
+    def "test the requests in flight keep their retries while closing"() {
+        given:
+        def client = new AsyncHttpClientImpl(serve([503, 204]), 1)
+        client.setRetryPolicy(new RetryPolicy(2, 50, 100))
+
+        when:
+        def response = client.pushSeries(series(0), ExpectResponse.STATUS_CODE)
+        client.close()
+
+        then:
+        response.isDone() && response.get().statusCode == 204
+        requests.get() == 2
+        client.pushSeries(series(1), ExpectResponse.STATUS_CODE).isCompletedExceptionally()
+    }
+
+    def "test a request limiter replaces the fixed limit and each attempt takes a slot"() {
+        given:
+        def client = new AsyncHttpClientImpl(serve([503, 204]), 4)
+        client.setRetryPolicy(new RetryPolicy(2, 50, 100))
+        def limiter = new RecordingLimiter()
+        client.setRequestLimiter(limiter)
+
+        when:
+        def response = client.pushSeries(series(0), ExpectResponse.STATUS_CODE).get()
+        client.close()
+
+        then:
+        response.statusCode == 204
+        limiter.acquired == 2
+        limiter.released == 2
+        limiter.attempts == [true, false]
+        //the backoff before the retry is not measured
+        limiter.latencies.every { it < 50 }
+    }
+
+    def "test compressed bodies and failures"() {
+        given:
+        def client = new AsyncHttpClientImpl(serve([400]), 2)
+        client.setRequestCompression(ContentEncoding.GZIP, 1)
+
+        when:
+        def response = client.pushSeries(series(0), ExpectResponse.STATUS_CODE).get()
+        client.close()
+        def closed = client.pushSeries(series(1), ExpectResponse.STATUS_CODE)
+
+        then:
+        response.statusCode == 400
+        requests.get() == 1
+        bytes.get() > 0 && bytes.get() < 1000
+        closed.isCompletedExceptionally()
+    }
+
+    static class RecordingLimiter implements RequestLimiter {
+
+        def acquired = 0
+        def released = 0
+        def attempts = []
+        def latencies = []
+
+        @Override
+        synchronized long acquire() {
+            acquired++
+            System.nanoTime()
+        }
+
+        @Override
+        synchronized void release(long start, boolean failed) {
+            released++
+            attempts << failed
+            latencies << (System.nanoTime() - start) / 1_000_000
+        }
+    }
+}
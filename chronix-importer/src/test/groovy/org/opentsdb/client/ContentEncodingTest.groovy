@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client
+
+import org.apache.http.entity.ByteArrayEntity
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Unit test for the request body compression
+ * @author f.lautenschlager
+ */
+class ContentEncodingTest extends Specification {
+
+    @Unroll
+    def "test #encoding entity with level #level"() {
+        given:
+        def body = ('[{"metric":"\\\\CPU\\\\us","timestamp":1456786801087,"value":79.4}]' * 100).getBytes("UTF-8")
+
+        when:
+        def entity = encoding.encode(new ByteArrayEntity(body), level)
+        def out = new ByteArrayOutputStream()
+        entity.writeTo(out)
+        def compressed = out.toByteArray()
+
+        then:
+        entity.getContentEncoding().getValue() == token
+        entity.getContentLength() == -1L
+        entity.isChunked()
+        compressed.length < body.length
+        inflate(encoding, compressed) == body
+
+        where:
+        encoding                | level | token
+        ContentEncoding.GZIP    | 1     | "gzip"
+        ContentEncoding.GZIP    | 9     | "gzip"
+        ContentEncoding.DEFLATE | 6     | "deflate"
+    }
+
+    def "test identity does not wrap the entity"() {
+        given:
+        def entity = new ByteArrayEntity([1, 2, 3] as byte[])
+
+        expect:
+        ContentEncoding.IDENTITY.encode(entity, 6).is(entity)
+    }
+
+    @Unroll
+    def "test of '#name'"() {
+        expect:
+        ContentEncoding.of(name) == encoding
+
+        where:
+        name      | encoding
+        null      | ContentEncoding.IDENTITY
+        "none"    | ContentEncoding.IDENTITY
+        "GZIP"    | ContentEncoding.GZIP
+        "deflate" | ContentEncoding.DEFLATE
+    }
+
+    def "test invalid values"() {
+        when:
+        closure.call()
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        closure << [{ ContentEncoding.of("br") },
+                    { ContentEncoding.GZIP.compress(new ByteArrayOutputStream(), 0) },
+                    { ContentEncoding.DEFLATE.encode(new ByteArrayEntity(new byte[1]), 12) },
+                    { new HttpClientImpl("http://localhost:4242").setRequestCompression(ContentEncoding.GZIP, 10) }]
+    }
+
+    @Unroll
+    def "test a failed #encoding entity releases the deflater and leaves the stream open"() {
+        given:
+        def closed = false
+        def failing = new OutputStream() {
+            @Override
+            void write(int b) {
+                throw new IOException("Connection reset")
+            }
+
+            @Override
+            void write(byte[] bytes, int offset, int length) {
+                throw new IOException("Connection reset")
+            }
+
+            @Override
+            void close() {
+                closed = true
+            }
+        }
+        def body = new byte[1024 * 1024]
+        new Random(4711).nextBytes(body)
+
+        when:
+        encoding.encode(new ByteArrayEntity(body), 6).writeTo(failing)
+
+        then:
+        thrown IOException
+        !closed
+
+        where:
+        encoding << [ContentEncoding.GZIP, ContentEncoding.DEFLATE]
+    }
+
+    def inflate(ContentEncoding encoding, byte[] compressed) {
+        def input = new ByteArrayInputStream(compressed)
+        (encoding == ContentEncoding.GZIP ? new GZIPInputStream(input) : new InflaterInputStream(input)).bytes
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client
+
+import com.sun.net.httpserver.HttpServer
+import org.opentsdb.client.builder.MetricBuilder
+import spock.lang.Specification
+
+/**
+ * Unit test for the shared http client
+ * @author f.lautenschlager
+ */
+class HttpClientImplTest extends Specification {
+
+    def "test the pushes share the pooled connections and close stops the pool"() {
+        given:
+        def ports = Collections.synchronizedList([])
+        def uris = Collections.synchronizedList([])
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            exchange.requestBody.bytes
+            ports << exchange.remoteAddress.port
+            uris << exchange.requestURI.toString()
+            exchange.sendResponseHeaders(204, -1)
+            exchange.close()
+        }
+        server.start()
+        def pool = new PoolingHttpClient()
+        def client = new HttpClientImpl("http://localhost:${server.address.port}", pool)
+
+        when:
+        def responses = (0..<5).collect {
+            def builder = MetricBuilder.getInstance()
+            builder.addMetric("metric").addTag("host", "jenkins").setDataPoint(1000L + it, 1.5d)
+            client.pushMetrics(builder)
+        }
+        client.close()
+        pool.staleMonitor.join(1000)
+
+        then:
+        responses.every { it.statusCode == 204 }
+        uris.every { it == "/api/put?commit=false" }
+        //the keep alive connection is reused
+        ports.unique().size() == 1
+        !pool.staleMonitor.isAlive()
+
+        cleanup:
+        server.stop(0)
+    }
+}
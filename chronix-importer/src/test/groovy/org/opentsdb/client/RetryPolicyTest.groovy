@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.entity.StringEntity
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Unit test for the retry policy and the retries of the pooling http client
+ * @author f.lautenschlager
+ */
+class RetryPolicyTest extends Specification {
+
+    def "test the backoff is capped and jittered"() {
+        given:
+        def policy = new RetryPolicy(10, 100, 1000)
+
+        when:
+        def backoffs = (1..10).collect { retry -> (0..<200).collect { policy.backoff(retry) } }
+
+        then:
+        backoffs[0].every { it >= 0 && it <= 100 }
+        backoffs[1].every { it >= 0 && it <= 200 }
+        backoffs[3].every { it >= 0 && it <= 800 }
+        backoffs[9].every { it >= 0 && it <= 1000 }
+        backoffs[9].max() > 800
+        backoffs[9].unique().size() > 1
+        new RetryPolicy(1, 100, Long.MAX_VALUE).backoff(100) >= 0
+    }
+
+    @Unroll
+    def "test status code #statusCode is retryable: #retryable"() {
+        expect:
+        RetryPolicy.isRetryable(statusCode) == retryable
+
+        where:
+        statusCode | retryable
+        200        | false
+        400        | false
+        404        | false
+        408        | true
+        429        | true
+        500        | true
+        503        | true
+        504        | true
+    }
+
+    def "test the client retries retryable status codes only"() {
+        given:
+        def requests = new AtomicInteger()
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            exchange.requestBody.bytes
+            def status = statusCodes[Math.min(requests.getAndIncrement(), statusCodes.size() - 1)]
+            exchange.sendResponseHeaders(status, -1)
+            exchange.close()
+        }
+        server.start()
+        def client = new PoolingHttpClient()
+        client.setRetryPolicy(new RetryPolicy(2, 1, 10))
+        def limiter = new AsyncHttpClientImplTest.RecordingLimiter()
+        client.setRequestLimiter(limiter)
+
+        when:
+        def response = client.doPost("http://localhost:${server.address.port}/api/put", new StringEntity("[]"))
+
+        then:
+        response.statusCode == statusCode
+        requests.get() == attempts
+        client.getRetryCount() == 2
+        //each attempt takes a slot, which is released before the backoff
+        limiter.acquired == attempts
+        limiter.released == attempts
+        limiter.attempts.size() == attempts
+        limiter.attempts.last() == RetryPolicy.isRetryable(statusCode)
+
+        cleanup:
+        client.shutdown()
+        server.stop(0)
+
+        where:
+        statusCodes     | statusCode | attempts
+        [204]           | 204        | 1
+        [503, 204]      | 204        | 2
+        [503, 429, 204] | 204        | 3
+        [503]           | 503        | 3
+        [400, 204]      | 400        | 1
+    }
+
+    def "test invalid policies"() {
+        when:
+        new RetryPolicy(retries, backoff, maxBackoff)
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        retries | backoff | maxBackoff
+        -1      | 100     | 1000
+        2       | 0       | 1000
+        2       | 100     | 10
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client
+
+import org.opentsdb.client.builder.MetricBuilder
+import org.opentsdb.client.builder.MetricSeries
+import org.opentsdb.client.builder.PutLineWriter
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Unit test for the telnet client and the put lines
+ * @author f.lautenschlager
+ */
+class TelnetClientImplTest extends Specification {
+
+    def received = new ConcurrentLinkedQueue<String>()
+    TelnetLineServer server
+
+    def setup() {
+        server = new TelnetLineServer(0, { received.add(it) })
+    }
+
+    def cleanup() {
+        server.close()
+    }
+
+    def waitForLines(long lines) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (server.lines < lines && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+    }
+
+    def "test push series and metrics"() {
+        given:
+        def client = new TelnetClientImpl("localhost", server.port, 2)
+        def series = new MetricSeries("cpu.load", [host: "jenkins"], [1000L, 2000L] as long[], [1.5d, 2d] as double[])
+        def builder = MetricBuilder.getInstance()
+        builder.addMetric("cpu.idle").addTag("host", "jenkins").setDataPoint(3000L, 7L)
+
+        when:
+        def first = client.pushSeries(series)
+        def second = client.pushMetrics(builder)
+        waitForLines(3)
+        client.close()
+
+        then:
+        first.statusCode == 204
+        second.statusCode == 204
+        client.lines == 3
+        received as List == ["put cpu.load 1000 1.5 host=jenkins",
+                             "put cpu.load 2000 2.0 host=jenkins",
+                             "put cpu.idle 3000 7 host=jenkins"]
+        server.errors == 0
+    }
+
+    /**
+     * A server that answers the first line of each metric in rejected with an error line after the given delay
+     * and the version command like OpenTSDB
+     */
+    def rejectingServer(Set<String> rejected, List<String> lines, long delay = 0) {
+        def socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())
+        Thread.start {
+            socket.accept().withCloseable { connection ->
+                def answered = [] as Set
+                def out = connection.outputStream
+                connection.inputStream.newReader("UTF-8").eachLine { line ->
+                    if (line == "version") {
+                        out.write("net.opentsdb.tools BuildData built at revision 0 (test)\nBuilt on today by test\n".getBytes("UTF-8"))
+                        out.flush()
+                        return
+                    }
+                    lines << line
+                    def metric = line.split(" ")[1]
+                    if (metric in rejected && answered.add(metric)) {
+                        Thread.sleep(delay)
+                        out.write("put: illegal argument: ${metric}\n".getBytes("UTF-8"))
+                        out.flush()
+                    }
+                }
+            }
+        }
+        socket
+    }
+
+    def "test a push fails when the server rejects its lines"() {
+        given:
+        def lines = Collections.synchronizedList([])
+        def socket = rejectingServer(["bad"] as Set, lines)
+        def client = new TelnetClientImpl("localhost", socket.localPort, 1)
+        def timestamps = (1L..1_000_000L) as long[]
+        def values = new double[timestamps.length]
+
+        when:
+        def rejected = client.pushSeries(new MetricSeries("bad", [host: "jenkins"], timestamps, values))
+        def accepted = client.pushSeries(new MetricSeries("good", [host: "jenkins"], timestamps, values))
+        client.close()
+
+        then:
+        rejected.statusCode == 400
+        accepted.statusCode == 204
+        client.errors == 1
+        client.lines == 2_000_000
+
+        cleanup:
+        socket.close()
+    }
+
+    def "test a late error line fails its own push"() {
+        given:
+        def lines = Collections.synchronizedList([])
+        def socket = rejectingServer(["late"] as Set, lines, 200)
+        def client = new TelnetClientImpl("localhost", socket.localPort, 1)
+
+        when:
+        //the error line arrives long after the line was written
+        def first = client.pushSeries(new MetricSeries("late", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+        def second = client.pushSeries(new MetricSeries("good", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+        client.close()
+
+        then:
+        first.statusCode == 400
+        second.statusCode == 204
+        client.errors == 1
+
+        cleanup:
+        socket.close()
+    }
+
+    def "test a closed client rejects pushes"() {
+        given:
+        def client = new TelnetClientImpl("localhost", server.port, 1)
+        client.close()
+
+        when:
+        client.pushSeries(new MetricSeries("m", [host: "jenkins"], [1L] as long[], [1d] as double[]))
+
+        then:
+        thrown IOException
+    }
+
+    def "test the put line writer flushes full buffers"() {
+        given:
+        def lines = new StringBuilder()
+        def buffer = ByteBuffer.allocate(256)
+        def writer = new PutLineWriter(buffer, { ByteBuffer full ->
+            full.flip()
+            lines.append(StandardCharsets.UTF_8.decode(full))
+            full.clear()
+        } as PutLineWriter.Sink)
+        def timestamps = (1L..100L) as long[]
+        def values = timestamps.collect { it / 4d } as double[]
+
+        when:
+        writer.series(new MetricSeries("m", [host: "a", dc: "b"], timestamps, values))
+        writer.flush()
+        def written = lines.toString().split("\n")
+
+        then:
+        written.length == 100
+        written[0] == "put m 1 0.25 host=a dc=b"
+        written[99] == "put m 100 25.0 host=a dc=b"
+    }
+
+    def "test the put line writer replaces white space"() {
+        given:
+        def lines = new StringBuilder()
+        def writer = new PutLineWriter(ByteBuffer.allocate(256), { ByteBuffer full ->
+            full.flip()
+            lines.append(StandardCharsets.UTF_8.decode(full))
+            full.clear()
+        } as PutLineWriter.Sink)
+
+        when:
+        writer.series(new MetricSeries("name=PS Scavenge/id", ["my host": "a\tb"], [1L] as long[], [2d] as double[]))
+        writer.flush()
+
+        then:
+        lines.toString() == "put name=PS_Scavenge/id 1 2.0 my_host=a_b\n"
+    }
+
+    def "test the put line writer rejects invalid tokens"() {
+        given:
+        def writer = new PutLineWriter(ByteBuffer.allocate(256), { it.clear() } as PutLineWriter.Sink)
+
+        when:
+        writer.series(new MetricSeries(name, [host: tag], [1L] as long[], [value] as double[]))
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        name     | tag     | value
+        ""       | "x"     | 1d
+        "m"      | ""      | 1d
+        "m"      | "x"     | Double.NaN
+    }
+}
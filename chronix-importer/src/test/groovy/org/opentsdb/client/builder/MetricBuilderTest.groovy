@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder
+
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Unit test for the hand written JSON of the metric builder
+ * @author f.lautenschlager
+ */
+class MetricBuilderTest extends Specification {
+
+    def "test the JSON is the same as the one of gson"() {
+        given:
+        def builder = MetricBuilder.getInstance()
+        builder.addMetric("\\CPU\\us").addTag("host", "jenkins").addTag("group", "unix \"global\"").setDataPoint(1456786801087L, 3.498745856E9d)
+        builder.addMetric("Memory used").addTag("host", "jenkins").setDataPoint(1456786801088L, 4711L)
+        builder.addMetric("Grüße €").addTag("source", "tab\tline\n𝄞").setDataPoint(1456786801089L, -0.002d)
+
+        when:
+        def json = builder.build()
+
+        then:
+        new JsonParser().parse(json) == new JsonParser().parse(new Gson().toJson(builder.getMetrics()))
+        json.startsWith('[{"metric":"\\\\CPU\\\\us","timestamp":1456786801087,"value":3.498745856E9,"tags":{')
+    }
+
+    @Unroll
+    def "test the utf-8 bytes of #description"() {
+        given:
+        def builder = MetricBuilder.getInstance()
+        builder.addMetric(name).addTag("host", "jenkins").setDataPoint(1L, 1L)
+        def out = new ByteArrayOutputStream()
+
+        when:
+        builder.writeTo(out)
+
+        then:
+        def expected = ('"metric":"' + name + '"').getBytes(StandardCharsets.UTF_8) as List
+        Collections.indexOfSubList(out.toByteArray() as List, expected) >= 0
+
+        where:
+        description                   | name
+        "a supplementary character"   | "a\uD836\uDC00b"
+        "supplementary characters"    | "\uD876\uDC00\uD877\uDFFF"
+        "a lone high surrogate"       | "x\uD800y"
+        "a lone low surrogate"        | "\uDC00"
+        "a high surrogate at the end" | "x\uDBFF"
+    }
+
+    def "test invalid values"() {
+        given:
+        def builder = MetricBuilder.getInstance()
+        builder.addMetric("metric").addTag("host", "jenkins").setDataPoint(1L, Double.NaN)
+
+        when:
+        builder.writeTo(new ByteArrayOutputStream())
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test metrics without tags"() {
+        given:
+        def builder = MetricBuilder.getInstance()
+        builder.addMetric("metric").setDataPoint(1L, 1L)
+
+        when:
+        builder.build()
+
+        then:
+        thrown IllegalStateException
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.opentsdb.client.builder
+
+import com.google.gson.JsonParser
+import spock.lang.Specification
+
+/**
+ * Unit test for the columnar metric series
+ * @author f.lautenschlager
+ */
+class MetricSeriesTest extends Specification {
+
+    def "test the JSON is the same as the one of the metric builder"() {
+        given:
+        def tags = [host: "jenkins", group: "unix-global"]
+        def timestamps = [1456786801087L, 1456786802087L, 1456786803087L] as long[]
+        def values = [3.498745856E9d, 79.4d, -0.002d] as double[]
+        def series = new MetricSeries("\\CPU\\us", tags, timestamps, values)
+
+        def builder = MetricBuilder.getInstance()
+        (0..<3).each { builder.addMetric("\\CPU\\us").addTags(tags).setDataPoint(timestamps[it], values[it]) }
+
+        when:
+        def json = new ByteArrayOutputStream()
+        series.writeTo(json)
+
+        then:
+        new JsonParser().parse(json.toString("UTF-8")) == new JsonParser().parse(builder.build())
+    }
+
+    def "test slices share the data points"() {
+        given:
+        def series = new MetricSeries("metric", [host: "jenkins"], (1L..10L) as long[], (1..10) as double[])
+
+        when:
+        def slice = series.slice(2, 5).slice(1, 3)
+
+        then:
+        slice.size() == 2
+        slice.getTimestamp(0) == 4L
+        slice.getValue(1) == 5d
+        slice.getTags().is(series.getTags())
+    }
+
+    def "test invalid series"() {
+        when:
+        new MetricSeries("metric", tags, new long[2], new double[2], offset, length)
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        tags             | offset | length
+        [:]              | 0      | 2
+        [host: ""]       | 0      | 2
+        [host: "a"]      | 1      | 2
+        [host: "a"]      | -1     | 1
+    }
+}
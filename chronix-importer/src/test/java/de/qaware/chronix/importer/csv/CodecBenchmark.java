@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.importer.codec.ChunkCodec;
+import de.qaware.chronix.importer.codec.ChunkCodecs;
+import de.qaware.chronix.importer.configuration.Configuration;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the chunk codecs: the encoded bytes per point, the encode speed and the decode speed.
+ * Reads the csv files like the importer and cuts every time series into chunks of
+ * {@link ChronixImporter#pointsPerChunk()} points, hence all codecs encode the same chunks.
+ * Every chunk is decoded again and compared with the original points.
+ * <p>
+ * Expects the same arguments as the importer: the path to the yml config and the path to the csv file(s), e.g.
+ * <pre>CodecBenchmark importer/config.yml importer/data/qaware-jenkins</pre>
+ *
+ * @author f.lautenschlager
+ */
+public final class CodecBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CodecBenchmark.class);
+
+    private CodecBenchmark() {
+        //avoid instances
+    }
+
+    /**
+     * Runs the benchmark and logs a table with the bytes per point and the cpu time of each codec.
+     *
+     * @param args the path to the yml config and the path to the time series csv or a directory with csv files
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            LOGGER.info("The given arguments does not contain the required argument 'ymlConfig' 'tsPath'");
+            return;
+        }
+        Map<String, Object> config = Configuration.load(args[0]);
+        String[] attributeFields = ((List<String>) config.get("attributeFields")).toArray(new String[0]);
+
+        FileImporter importer = new FileImporter((String) config.get("dateFormat"),
+                (String) config.get("numberFormat"), (String) config.get("csvDelimiter"));
+        ChronixImporter chronixImporter = new ChronixImporter((String) config.get("chronix"), attributeFields);
+        int pointsPerChunk = chronixImporter.pointsPerChunk();
+
+        List<Measurement> measurements = new ArrayList<>();
+        for (ChunkCodec codec : ChunkCodecs.all()) {
+            measurements.add(new Measurement(codec));
+        }
+
+        //the chunks are built and encoded while the points are valid
+        importer.importPoints(new ConcurrentHashMap<Attributes, Pair<Instant, Instant>>(), new File(args[1]), (importPoints, attributes) -> {
+            for (int start = 0; start < importPoints.size(); start += pointsPerChunk) {
+                MetricTimeSeries chunk = chronixImporter.chunk(importPoints, attributes, start,
+                        Math.min(start + pointsPerChunk, importPoints.size()));
+                for (Measurement measurement : measurements) {
+                    measurement.measure(chunk);
+                }
+            }
+        });
+
+        LOGGER.info(String.format("%-10s %8s %12s %14s %12s %12s %14s %12s %14s %10s", "codec", "chunks", "points",
+                "bytes", "bytes/point", "encode ms", "encode pts/s", "decode ms", "decode pts/s", "mismatches"));
+        for (Measurement measurement : measurements) {
+            LOGGER.info(measurement.toString());
+        }
+    }
+
+    /**
+     * The accumulated bytes and cpu times of one codec
+     */
+    private static final class Measurement {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final ChunkCodec codec;
+        private final LongAdder chunks = new LongAdder();
+        private final LongAdder points = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder mismatches = new LongAdder();
+
+        private Measurement(ChunkCodec codec) {
+            this.codec = codec;
+        }
+
+        private void measure(MetricTimeSeries chunk) {
+            long start = THREADS.getCurrentThreadCpuTime();
+            BinaryTimeSeries encoded = codec.encode(chunk);
+            long encodeEnd = THREADS.getCurrentThreadCpuTime();
+            MetricTimeSeries decoded = codec.decode(encoded, 0, 0);
+            long decodeEnd = THREADS.getCurrentThreadCpuTime();
+
+            chunks.increment();
+            points.add(chunk.size());
+            bytes.add(encoded.getPoints().length);
+            encodeNanos.add(encodeEnd - start);
+            decodeNanos.add(decodeEnd - encodeEnd);
+            if (!Arrays.equals(chunk.getTimestampsAsArray(), decoded.getTimestampsAsArray())
+                    || !Arrays.equals(chunk.getValuesAsArray(), decoded.getValuesAsArray())) {
+                mismatches.increment();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long pointCount = points.sum();
+            double encodeMillis = encodeNanos.sum() / 1e6;
+            double decodeMillis = decodeNanos.sum() / 1e6;
+            return String.format("%-10s %8d %12d %14d %12.3f %12.1f %14.0f %12.1f %14.0f %10d", codec.getName(),
+                    chunks.sum(), pointCount, bytes.sum(), pointCount == 0 ? 0 : (double) bytes.sum() / pointCount,
+                    encodeMillis, encodeMillis == 0 ? 0 : pointCount * 1e3 / encodeMillis,
+                    decodeMillis, decodeMillis == 0 ? 0 : pointCount * 1e3 / decodeMillis, mismatches.sum());
+        }
+    }
+}
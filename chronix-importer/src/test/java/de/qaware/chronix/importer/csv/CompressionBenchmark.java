@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.importer.csv;
+
+import de.qaware.chronix.importer.configuration.Configuration;
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.opentsdb.client.ContentEncoding;
+import org.opentsdb.client.builder.MetricSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Measures the payload reduction and the cpu cost of the request compression.
+ * Reads the csv files like the importer, builds the request bodies of both targets
+ * (the javabin update requests for Solr and the json put requests for OpenTSDB)
+ * and compresses every body with each encoding and level.
+ * <p>
+ * Expects the same arguments as the importer: the path to the yml config and the path to the csv file(s), e.g.
+ * <pre>CompressionBenchmark importer/config.yml importer/data</pre>
+ *
+ * @author f.lautenschlager
+ */
+public final class CompressionBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressionBenchmark.class);
+
+    private static final ContentEncoding[] ENCODINGS = {ContentEncoding.GZIP, ContentEncoding.DEFLATE};
+    private static final int[] LEVELS = {1, 6, 9};
+
+    private CompressionBenchmark() {
+        //avoid instances
+    }
+
+    /**
+     * Runs the benchmark and logs a table with the raw and compressed bytes, the ratio and the cpu time.
+     *
+     * @param args the path to the yml config and the path to the time series csv or a directory with csv files
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            LOGGER.info("The given arguments does not contain the required argument 'ymlConfig' 'tsPath'");
+            return;
+        }
+        Map<String, Object> config = Configuration.load(args[0]);
+        String[] attributeFields = ((List<String>) config.get("attributeFields")).toArray(new String[0]);
+
+        FileImporter importer = new FileImporter((String) config.get("dateFormat"),
+                (String) config.get("numberFormat"), (String) config.get("csvDelimiter"));
+        ChronixImporter chronixImporter = new ChronixImporter((String) config.get("chronix"), attributeFields);
+
+        List<Measurement> measurements = new ArrayList<>();
+        for (String target : new String[]{"solr", "opentsdb"}) {
+            for (ContentEncoding encoding : ENCODINGS) {
+                for (int level : LEVELS) {
+                    measurements.add(new Measurement(target, encoding, level));
+                }
+            }
+        }
+
+        //the request bodies are built and compressed while the points are valid
+        importer.importPoints(new ConcurrentHashMap<Attributes, Pair<Instant, Instant>>(), new File(args[1]), (importPoints, attributes) -> {
+            List<byte[]> solr = new ArrayList<>();
+            solr.add(javabin(chronixImporter.chunkAndEncode(importPoints, attributes)));
+            List<byte[]> openTSDB = new ArrayList<>();
+            for (MetricSeries batch : chronixImporter.openTSDBBatches(importPoints, attributes)) {
+                openTSDB.add(json(batch));
+            }
+            for (Measurement measurement : measurements) {
+                measurement.compress("solr".equals(measurement.target) ? solr : openTSDB);
+            }
+        });
+
+        LOGGER.info(String.format("%-8s %-8s %5s %14s %14s %7s %10s %8s",
+                "target", "encoding", "level", "raw bytes", "sent bytes", "ratio", "cpu ms", "MB/s"));
+        for (Measurement measurement : measurements) {
+            LOGGER.info(measurement.toString());
+        }
+    }
+
+    private static byte[] javabin(List<SolrInputDocument> documents) {
+        UpdateRequest request = new UpdateRequest();
+        request.add(documents);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new JavaBinUpdateRequestCodec().marshal(request, out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] json(MetricSeries batch) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            batch.writeTo(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The accumulated bytes and cpu time of one target, encoding and level
+     */
+    private static final class Measurement {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final String target;
+        private final ContentEncoding encoding;
+        private final int level;
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder sentBytes = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+
+        private Measurement(String target, ContentEncoding encoding, int level) {
+            this.target = target;
+            this.encoding = encoding;
+            this.level = level;
+        }
+
+        /**
+         * Compresses each body like a request, i.e. into a stream that only counts the bytes
+         */
+        private void compress(List<byte[]> bodies) {
+            CountingOutputStream counter = new CountingOutputStream();
+            long start = THREADS.getCurrentThreadCpuTime();
+            try {
+                for (byte[] body : bodies) {
+                    DeflaterOutputStream out = encoding.compress(counter, level);
+                    out.write(body);
+                    out.finish();
+                    rawBytes.add(body.length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cpuNanos.add(THREADS.getCurrentThreadCpuTime() - start);
+            sentBytes.add(counter.count);
+        }
+
+        @Override
+        public String toString() {
+            long raw = rawBytes.sum();
+            long sent = sentBytes.sum();
+            double millis = cpuNanos.sum() / 1e6;
+            return String.format("%-8s %-8s %5d %14d %14d %7.2f %10.1f %8.1f", target, encoding.getToken(), level,
+                    raw, sent, sent == 0 ? 0 : (double) raw / sent, millis, millis == 0 ? 0 : raw / 1e3 / millis);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
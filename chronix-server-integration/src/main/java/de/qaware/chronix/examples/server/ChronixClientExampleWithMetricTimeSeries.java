@@ -16,7 +16,7 @@
 package de.qaware.chronix.examples.server;
 
 import de.qaware.chronix.ChronixClient;
-import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.importer.codec.ChunkConverter;
 import de.qaware.chronix.solr.client.ChronixSolrStorage;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.solr.client.solrj.SolrClient;
@@ -54,9 +54,9 @@ public class ChronixClientExampleWithMetricTimeSeries {
             ts1.addAll(ts2.getTimestampsAsArray(), ts2.getValuesAsArray());
             return ts1;
         };
-        //Instantiate a Chronix Client
+        //Instantiate a Chronix Client. The chunk converter decodes the chunks of all importer codecs
         ChronixClient<MetricTimeSeries, SolrClient, SolrQuery> chronix = new ChronixClient<>(
-                new MetricTimeSeriesConverter(), new ChronixSolrStorage<>(200, groupBy, reduce));
+                new ChunkConverter(), new ChronixSolrStorage<>(200, groupBy, reduce));
 
         //We want the maximum of all time series that metric matches *load*.
         SolrQuery query = new SolrQuery("name:*Load*");
@@ -16,10 +16,10 @@
 package de.qaware.chronix.examples.exploration.ui;
 
 import de.qaware.chronix.ChronixClient;
-import de.qaware.chronix.converter.MetricTimeSeriesConverter;
 import de.qaware.chronix.examples.exploration.ui.dt.DateAxis;
 import de.qaware.chronix.examples.exploration.ui.dt.ResultRow;
 import de.qaware.chronix.examples.exploration.ui.log.TextAreaLogger;
+import de.qaware.chronix.importer.codec.ChunkConverter;
 import de.qaware.chronix.solr.client.ChronixSolrStorage;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import de.qaware.chronix.timeseries.dts.Point;
@@ -158,7 +158,8 @@ public class MainController implements Initializable {
                     return timeSeries;
                 };
 
-                chronix = new ChronixClient<>(new MetricTimeSeriesConverter(), new ChronixSolrStorage<>(200, groupBy, reduce));
+                //decodes the chunks of all importer codecs, e.g. protobuf and gorilla
+                chronix = new ChronixClient<>(new ChunkConverter(), new ChronixSolrStorage<>(200, groupBy, reduce));
 
                 return null;
             }